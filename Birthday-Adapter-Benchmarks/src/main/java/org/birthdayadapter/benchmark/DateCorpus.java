@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2012-2013 Dominik Schürmann <dominik@dominikschuermann.de>
+ *
+ * This file is part of Birthday Adapter.
+ * 
+ * Birthday Adapter is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Birthday Adapter is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Birthday Adapter.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.birthdayadapter.benchmark;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Date;
+
+import org.birthdayadapter.engine.ContactEvent;
+import org.birthdayadapter.engine.SyncRules;
+
+/**
+ * Corpus of date strings from date-strings.txt, grouped by the app or locale that writes them
+ */
+public final class DateCorpus {
+    public static final String ALL = "all";
+
+    private DateCorpus() {
+    }
+
+    /**
+     * Loads the date strings of a category
+     * 
+     * @param category
+     *            category of date-strings.txt or ALL
+     * @return
+     * @throws IOException
+     */
+    public static String[] load(String category) throws IOException {
+        InputStream in = DateCorpus.class.getResourceAsStream("date-strings.txt");
+        if (in == null) {
+            throw new IOException("date-strings.txt not found");
+        }
+
+        ArrayList<String> dateStrings = new ArrayList<String>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, "UTF-8"));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith("#") || line.length() == 0) {
+                    continue;
+                }
+                String[] fields = line.split("\t", -1);
+                if (ALL.equals(category) || fields[0].equals(category)) {
+                    dateStrings.add(fields[1]);
+                }
+            }
+        } finally {
+            reader.close();
+        }
+
+        if (dateStrings.isEmpty()) {
+            throw new IOException("No date strings in category " + category);
+        }
+        return dateStrings.toArray(new String[dateStrings.size()]);
+    }
+
+    /**
+     * Parsed dates of all date strings that can be parsed
+     */
+    public static Date[] loadDates() throws IOException {
+        ArrayList<Date> dates = new ArrayList<Date>();
+        for (String dateString : load(ALL)) {
+            Date date = SyncRules.parseEventDateString(dateString, false);
+            if (date != null) {
+                dates.add(date);
+            }
+        }
+        return dates.toArray(new Date[dates.size()]);
+    }
+
+    /**
+     * Contact events with parsed dates of all date strings that can be parsed, one contact each
+     * 
+     * @param count
+     *            number of contact events, date strings are repeated as needed
+     * @return
+     */
+    public static ContactEvent[] loadContactEvents(int count) throws IOException {
+        String[] dateStrings = load(ALL);
+        ArrayList<ContactEvent> contactEvents = new ArrayList<ContactEvent>();
+        for (int i = 0; contactEvents.size() < count; i++) {
+            String dateString = dateStrings[i % dateStrings.length];
+            Date date = SyncRules.parseEventDateString(dateString, false);
+            if (date == null) {
+                continue;
+            }
+
+            ContactEvent contactEvent = new ContactEvent();
+            contactEvent.contactId = i;
+            contactEvent.lookupKey = "lookup" + i;
+            contactEvent.displayName = "Contact " + i;
+            contactEvent.eventType = ContactEvent.EVENT_TYPES[i % ContactEvent.EVENT_TYPES.length];
+            if (contactEvent.eventType == ContactEvent.TYPE_CUSTOM) {
+                contactEvent.eventCustomLabel = "Name day";
+            }
+            contactEvent.eventDateString = dateString;
+            contactEvent.eventDate = date;
+            contactEvent.calendarId = 1;
+            contactEvent.fingerprint = SyncRules.getFingerprint(contactEvent.lookupKey,
+                    dateString, contactEvent.eventType, contactEvent.eventCustomLabel, false);
+            contactEvents.add(contactEvent);
+        }
+        return contactEvents.toArray(new ContactEvent[contactEvents.size()]);
+    }
+}
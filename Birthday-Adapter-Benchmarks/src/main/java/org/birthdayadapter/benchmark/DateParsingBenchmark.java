@@ -0,0 +1,73 @@
+/*
+ * Copyright (C) 2012-2013 Dominik Schürmann <dominik@dominikschuermann.de>
+ *
+ * This file is part of Birthday Adapter.
+ * 
+ * Birthday Adapter is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Birthday Adapter is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Birthday Adapter.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.birthdayadapter.benchmark;
+
+import java.io.IOException;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import org.birthdayadapter.engine.SyncRules;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Parsing of date strings read from contacts. Formats tried late by parseEventDateString(), e.g.,
+ * the slash formats and unparsable strings, pay for all failed attempts before.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class DateParsingBenchmark {
+
+    @Param({ "all", "iso", "iso-no-year", "compact", "timestamp", "dotted", "dotted-iso",
+            "slash", "slash-no-year", "malformed" })
+    public String category;
+
+    @Param({ "false", "true" })
+    public boolean preferddSlashMM;
+
+    private String[] mDateStrings;
+    private int mIndex;
+
+    @Setup
+    public void setUp() throws IOException {
+        mDateStrings = DateCorpus.load(category);
+    }
+
+    @Benchmark
+    public Date parseEventDateString() {
+        String dateString = mDateStrings[mIndex];
+        mIndex = (mIndex + 1) % mDateStrings.length;
+        return SyncRules.parseEventDateString(dateString, preferddSlashMM);
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2012-2013 Dominik Schürmann <dominik@dominikschuermann.de>
+ *
+ * This file is part of Birthday Adapter.
+ * 
+ * Birthday Adapter is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Birthday Adapter is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Birthday Adapter.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.birthdayadapter.benchmark;
+
+import java.io.IOException;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import org.birthdayadapter.engine.ContactEvent;
+import org.birthdayadapter.engine.SyncRules;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Calendar arithmetic done for every inserted event and contact event: the start of an all-day
+ * event in UTC and the next occurrence used to insert upcoming events first.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class EventTimeBenchmark {
+    private Date[] mDates;
+    private ContactEvent[] mContactEvents;
+    private Calendar mToday;
+    private int mIndex;
+
+    @Setup
+    public void setUp() throws IOException {
+        mDates = DateCorpus.loadDates();
+        mContactEvents = DateCorpus.loadContactEvents(mDates.length);
+
+        mToday = Calendar.getInstance();
+        mToday.set(Calendar.HOUR_OF_DAY, 0);
+        mToday.set(Calendar.MINUTE, 0);
+        mToday.set(Calendar.SECOND, 0);
+        mToday.set(Calendar.MILLISECOND, 0);
+    }
+
+    @Benchmark
+    public long getEventStart() {
+        Date date = mDates[mIndex];
+        mIndex = (mIndex + 1) % mDates.length;
+        return SyncRules.getEventStart(date, 2024);
+    }
+
+    @Benchmark
+    public int setNextOccurrence() {
+        ContactEvent contactEvent = mContactEvents[mIndex];
+        mIndex = (mIndex + 1) % mContactEvents.length;
+        SyncRules.setNextOccurrence(contactEvent, mToday);
+        return contactEvent.daysUntilNext;
+    }
+}
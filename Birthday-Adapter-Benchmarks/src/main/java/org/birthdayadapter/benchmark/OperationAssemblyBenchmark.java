@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2012-2013 Dominik Schürmann <dominik@dominikschuermann.de>
+ *
+ * This file is part of Birthday Adapter.
+ * 
+ * Birthday Adapter is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Birthday Adapter is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Birthday Adapter.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.birthdayadapter.benchmark;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.birthdayadapter.engine.CalendarEvent;
+import org.birthdayadapter.engine.CalendarSink;
+import org.birthdayadapter.engine.ContactEvent;
+import org.birthdayadapter.engine.InMemoryContactSource;
+import org.birthdayadapter.engine.SinkOperation;
+import org.birthdayadapter.engine.SyncConfig;
+import org.birthdayadapter.engine.SyncEngine;
+import org.birthdayadapter.engine.SyncStatistics;
+import org.birthdayadapter.engine.TitleFormat;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Assembly of the operations inserting events and reminders. The sink discards all batches, so
+ * only the work of the engine is measured, not that of a provider.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class OperationAssemblyBenchmark {
+
+    /**
+     * Sink that accepts every batch without storing it
+     */
+    private static class DiscardingCalendarSink implements CalendarSink {
+        @Override
+        public List<CalendarEvent> getEvents(long calendarId, String lookupKey) {
+            return new ArrayList<CalendarEvent>();
+        }
+
+        @Override
+        public int[] applyBatch(List<SinkOperation> operations) {
+            int[] results = new int[operations.size()];
+            Arrays.fill(results, 1);
+            return results;
+        }
+    }
+
+    @Param({ "100", "1000" })
+    public int contactEvents;
+
+    @Param({ "1", "3" })
+    public int reminders;
+
+    private SyncEngine mEngine;
+    private int[] mReminderMinutes;
+    private List<ContactEvent> mContactEvents;
+
+    @Setup
+    public void setUp() throws IOException {
+        mReminderMinutes = new int[] { SyncConfig.DISABLED_REMINDER,
+                SyncConfig.DISABLED_REMINDER, SyncConfig.DISABLED_REMINDER };
+        for (int i = 0; i < reminders; i++) {
+            mReminderMinutes[i] = i * 60;
+        }
+
+        int types = ContactEvent.EVENT_TYPES.length;
+        int[] yearsBefore = new int[types];
+        int[] yearsAfter = new int[types];
+        boolean[] syncEventTypes = new boolean[types];
+        Arrays.fill(yearsBefore, 1);
+        Arrays.fill(yearsAfter, 3);
+        Arrays.fill(syncEventTypes, true);
+        SyncConfig config = new SyncConfig(mReminderMinutes, 0, false, yearsBefore, yearsAfter,
+                syncEventTypes, false, new HashSet<String>(), new HashSet<String>(), 0, 10);
+
+        mEngine = new SyncEngine(new InMemoryContactSource(), new DiscardingCalendarSink(),
+                config, TitleFormat.getDefault());
+        mContactEvents = Arrays.asList(DateCorpus.loadContactEvents(contactEvents));
+    }
+
+    /**
+     * Operations of all years of all contact events, flushed like batches of the sync
+     */
+    @Benchmark
+    public void addEventOperations(Blackhole blackhole) {
+        ArrayList<SinkOperation> operationList = new ArrayList<SinkOperation>();
+        for (ContactEvent contactEvent : mContactEvents) {
+            blackhole.consume(mEngine.addEventOperations(operationList, mReminderMinutes,
+                    contactEvent, 2023, 2027));
+
+            if (operationList.size() > SyncEngine.MAX_BATCH_SIZE) {
+                blackhole.consume(operationList);
+                operationList.clear();
+            }
+        }
+        blackhole.consume(operationList);
+    }
+
+    /**
+     * Insert of all contact events including the order of upcoming events and batching
+     */
+    @Benchmark
+    public SyncStatistics insertContactEvents() {
+        SyncStatistics statistics = new SyncStatistics("Benchmark");
+        mEngine.insertContactEvents(mContactEvents, null, statistics);
+        return statistics;
+    }
+}
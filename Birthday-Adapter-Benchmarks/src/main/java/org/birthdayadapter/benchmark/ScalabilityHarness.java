@@ -0,0 +1,408 @@
+/*
+ * Copyright (C) 2012-2013 Dominik Schürmann <dominik@dominikschuermann.de>
+ *
+ * This file is part of Birthday Adapter.
+ * 
+ * Birthday Adapter is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Birthday Adapter is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Birthday Adapter.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.birthdayadapter.benchmark;
+
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+
+import org.birthdayadapter.engine.ContactEvent;
+import org.birthdayadapter.engine.ContactTrace;
+import org.birthdayadapter.engine.InMemoryCalendarSink;
+import org.birthdayadapter.engine.InMemoryContactSource;
+import org.birthdayadapter.engine.SyncConfig;
+import org.birthdayadapter.engine.SyncEngine;
+import org.birthdayadapter.engine.SyncStatistics;
+import org.birthdayadapter.engine.TitleFormat;
+
+/**
+ * Runs the flows of the app end to end against in-memory contacts and calendar at growing
+ * address book sizes: a full sync, an incremental sync without changes, a change of the
+ * reminders, and a change of the calendar color.
+ * 
+ * Each flow is measured once, so the numbers are those of a cold sync on a device rather than of
+ * a warmed up loop like in the JMH benchmarks. The report is written as JSON. Metrics normalized
+ * to the number of contacts are checked against scalability-thresholds.properties, the exit code
+ * is 1 if any threshold is exceeded.
+ * 
+ * Instead of synthetic contacts, traces captured on devices can be replayed with --trace, see
+ * ContactTrace. Slow syncs in the field are reproduced this way with the shape of the real data.
+ * 
+ * Usage: ScalabilityHarness [--report file] [--trace file]... [contacts...]
+ */
+public class ScalabilityHarness {
+    private static final int[] DEFAULT_SIZES = new int[] { 1000, 10000, 100000 };
+
+    private static final long CALENDAR_ID = 1;
+
+    /* larger batches fail on Android as binder transaction, the sink rejects them */
+    private static final int MAX_BATCH_SIZE = 500;
+
+    private static final long SEED = 42;
+
+    /* app defaults: no reminders, 3 years before and 5 years after the current year */
+    private static final int[] DEFAULT_REMINDERS = new int[] { SyncConfig.DISABLED_REMINDER,
+            SyncConfig.DISABLED_REMINDER, SyncConfig.DISABLED_REMINDER };
+    private static final int[] CHANGED_REMINDERS = new int[] { 1440, SyncConfig.DISABLED_REMINDER,
+            SyncConfig.DISABLED_REMINDER };
+    private static final int DEFAULT_COLOR = 0xFFA70000;
+    private static final int CHANGED_COLOR = 0xFF0099CC;
+
+    private static final String[] FLOWS = new String[] { "fullSync", "incrementalSync",
+            "reminderChange", "colorChange" };
+
+    /**
+     * Measurements of one flow at one address book size
+     */
+    private static class Result {
+        final LinkedHashMap<String, Number> metrics = new LinkedHashMap<String, Number>();
+
+        void put(String metric, Number value) {
+            metrics.put(metric, value);
+        }
+    }
+
+    /**
+     * Contacts of one run, generated or replayed from a trace
+     */
+    private static class AddressBook {
+        final InMemoryContactSource source = new InMemoryContactSource();
+        String trace;
+        int contacts;
+        int contactEvents;
+        int duplicates = -1;
+    }
+
+    /**
+     * One flow, run on the engine of the current address book
+     */
+    private interface Flow {
+        void run(SyncEngine engine, SyncStatistics statistics);
+    }
+
+    private final ThreadMXBean mThreadBean = ManagementFactory.getThreadMXBean();
+    private final List<String> mViolations = new ArrayList<String>();
+
+    public static void main(String[] args) throws IOException {
+        String reportFile = null;
+        ArrayList<Integer> sizes = new ArrayList<Integer>();
+        ArrayList<String> traces = new ArrayList<String>();
+        for (int i = 0; i < args.length; i++) {
+            if ("--report".equals(args[i]) && i + 1 < args.length) {
+                reportFile = args[++i];
+            } else if ("--trace".equals(args[i]) && i + 1 < args.length) {
+                traces.add(args[++i]);
+            } else {
+                sizes.add(Integer.parseInt(args[i]));
+            }
+        }
+        if (sizes.isEmpty() && traces.isEmpty()) {
+            for (int size : DEFAULT_SIZES) {
+                sizes.add(size);
+            }
+        }
+
+        ScalabilityHarness harness = new ScalabilityHarness();
+        String report = harness.run(sizes, traces, loadThresholds());
+
+        System.out.println(report);
+        if (reportFile != null) {
+            Writer writer = new OutputStreamWriter(new FileOutputStream(reportFile), "UTF-8");
+            try {
+                writer.write(report);
+            } finally {
+                writer.close();
+            }
+        }
+
+        for (String violation : harness.mViolations) {
+            System.err.println("Threshold exceeded: " + violation);
+        }
+        System.exit(harness.mViolations.isEmpty() ? 0 : 1);
+    }
+
+    private static Properties loadThresholds() throws IOException {
+        Properties thresholds = new Properties();
+        InputStream in = ScalabilityHarness.class
+                .getResourceAsStream("scalability-thresholds.properties");
+        if (in != null) {
+            try {
+                thresholds.load(in);
+            } finally {
+                in.close();
+            }
+        }
+        return thresholds;
+    }
+
+    private static SyncConfig getDefaultConfig() {
+        int types = ContactEvent.EVENT_TYPES.length;
+        int[] yearsBefore = new int[types];
+        int[] yearsAfter = new int[types];
+        boolean[] syncEventTypes = new boolean[types];
+        Arrays.fill(yearsBefore, 3);
+        Arrays.fill(yearsAfter, 5);
+        Arrays.fill(syncEventTypes, true);
+        return new SyncConfig(DEFAULT_REMINDERS, DEFAULT_COLOR, false, yearsBefore, yearsAfter,
+                syncEventTypes, false, new HashSet<String>(), new HashSet<String>(), 0, 10);
+    }
+
+    /**
+     * Generates an address book with the given number of contacts
+     */
+    private static AddressBook generate(int contacts) {
+        AddressBook addressBook = new AddressBook();
+        SyntheticAddressBook generator = new SyntheticAddressBook(SEED);
+        generator.generate(addressBook.source, contacts);
+
+        addressBook.contacts = contacts;
+        addressBook.contactEvents = generator.getContactEvents();
+        addressBook.duplicates = generator.getDuplicates();
+        return addressBook;
+    }
+
+    /**
+     * Reads the address book of a trace
+     */
+    private static AddressBook replay(String trace) throws IOException {
+        AddressBook addressBook = new AddressBook();
+        addressBook.trace = trace;
+
+        HashSet<Long> contactIds = new HashSet<Long>();
+        for (ContactEvent contactEvent : ContactTrace.read(new FileInputStream(trace))) {
+            addressBook.source.addContactEvent(contactEvent.contactId, contactEvent.lookupKey,
+                    contactEvent.displayName, contactEvent.eventType,
+                    contactEvent.eventCustomLabel, contactEvent.eventDateString,
+                    contactEvent.accountType, contactEvent.accountName);
+            contactIds.add(contactEvent.contactId);
+            addressBook.contactEvents++;
+        }
+        addressBook.contacts = contactIds.size();
+        return addressBook;
+    }
+
+    /**
+     * Runs all flows at all sizes and on all traces and returns the report
+     */
+    private String run(List<Integer> sizes, List<String> traces, Properties thresholds)
+            throws IOException {
+        StringBuilder json = new StringBuilder();
+        json.append("{\n  \"maxBatchSize\": ").append(MAX_BATCH_SIZE);
+        json.append(",\n  \"runs\": [");
+
+        for (int r = 0; r < sizes.size() + traces.size(); r++) {
+            // only one address book in memory at a time
+            AddressBook addressBook = r < sizes.size() ? generate(sizes.get(r)) : replay(traces
+                    .get(r - sizes.size()));
+            int contacts = addressBook.contacts;
+            Map<String, Result> results = runFlows(addressBook);
+
+            json.append(r == 0 ? "\n" : ",\n");
+            json.append("    {\n");
+            if (addressBook.trace != null) {
+                json.append("      \"trace\": \"").append(escape(addressBook.trace));
+                json.append("\",\n");
+            }
+            json.append("      \"contacts\": ").append(contacts);
+            json.append(",\n      \"flows\": {");
+            int f = 0;
+            for (Map.Entry<String, Result> entry : results.entrySet()) {
+                json.append(f++ == 0 ? "\n" : ",\n");
+                json.append("        \"").append(entry.getKey()).append("\": {");
+                int m = 0;
+                for (Map.Entry<String, Number> metric : entry.getValue().metrics.entrySet()) {
+                    json.append(m++ == 0 ? " " : ", ");
+                    json.append('"').append(metric.getKey()).append("\": ");
+                    json.append(formatNumber(metric.getValue()));
+                }
+                json.append(" }");
+
+                checkThresholds(thresholds, contacts, entry.getKey(), entry.getValue());
+            }
+            json.append("\n      }\n    }");
+        }
+
+        json.append("\n  ],\n  \"violations\": [");
+        for (int i = 0; i < mViolations.size(); i++) {
+            json.append(i == 0 ? "\n    \"" : ",\n    \"").append(escape(mViolations.get(i)));
+            json.append('"');
+        }
+        json.append(mViolations.isEmpty() ? "]\n}" : "\n  ]\n}");
+        return json.toString();
+    }
+
+    private Map<String, Result> runFlows(AddressBook addressBook) {
+        InMemoryCalendarSink calendarSink = new InMemoryCalendarSink(MAX_BATCH_SIZE);
+        SyncEngine engine = new SyncEngine(addressBook.source, calendarSink, getDefaultConfig(),
+                TitleFormat.getDefault());
+
+        Flow[] flows = new Flow[] { new Flow() {
+            @Override
+            public void run(SyncEngine engine, SyncStatistics statistics) {
+                List<ContactEvent> contactEvents = readContactEvents(engine, statistics);
+                engine.clearCalendar(CALENDAR_ID, statistics);
+                engine.insertContactEvents(contactEvents, null, statistics);
+            }
+        }, new Flow() {
+            @Override
+            public void run(SyncEngine engine, SyncStatistics statistics) {
+                List<ContactEvent> contactEvents = readContactEvents(engine, statistics);
+                engine.syncCalendar(CALENDAR_ID, contactEvents, null, statistics);
+            }
+        }, new Flow() {
+            @Override
+            public void run(SyncEngine engine, SyncStatistics statistics) {
+                engine.updateReminders(CALENDAR_ID, CHANGED_REMINDERS);
+            }
+        }, new Flow() {
+            @Override
+            public void run(SyncEngine engine, SyncStatistics statistics) {
+                engine.updateCalendarColor(Collections.singleton(CALENDAR_ID), CHANGED_COLOR);
+            }
+        } };
+
+        LinkedHashMap<String, Result> results = new LinkedHashMap<String, Result>();
+        for (int i = 0; i < flows.length; i++) {
+            results.put(FLOWS[i], measure(flows[i], engine, calendarSink,
+                    addressBook.contacts));
+        }
+
+        Result fullSync = results.get(FLOWS[0]);
+        fullSync.put("contactEvents", addressBook.contactEvents);
+        if (addressBook.duplicates != -1) {
+            fullSync.put("duplicates", addressBook.duplicates);
+        }
+        return results;
+    }
+
+    private static List<ContactEvent> readContactEvents(SyncEngine engine,
+            SyncStatistics statistics) {
+        List<ContactEvent> contactEvents = engine.readContactEvents(null, statistics);
+        for (ContactEvent contactEvent : contactEvents) {
+            contactEvent.calendarId = CALENDAR_ID;
+        }
+        return contactEvents;
+    }
+
+    private Result measure(Flow flow, SyncEngine engine, InMemoryCalendarSink calendarSink,
+            int contacts) {
+        System.gc();
+        calendarSink.resetCounters();
+        List<MemoryPoolMXBean> heapPools = getHeapPools();
+        for (MemoryPoolMXBean pool : heapPools) {
+            pool.resetPeakUsage();
+        }
+
+        SyncStatistics statistics = new SyncStatistics("Scalability");
+        long allocatedBefore = getAllocatedBytes();
+        long start = System.nanoTime();
+
+        flow.run(engine, statistics);
+
+        long time = System.nanoTime() - start;
+        long allocated = getAllocatedBytes() - allocatedBefore;
+        long peakHeap = 0;
+        for (MemoryPoolMXBean pool : heapPools) {
+            peakHeap += pool.getPeakUsage().getUsed();
+        }
+
+        Result result = new Result();
+        result.put("timeMs", time / 1000000);
+        result.put("peakHeapBytes", peakHeap);
+        if (allocatedBefore != -1) {
+            result.put("allocatedBytes", allocated);
+            result.put("bytesPerContact", (double) allocated / contacts);
+        }
+        result.put("operations", calendarSink.getOperationCount());
+        result.put("operationsPerContact", (double) calendarSink.getOperationCount() / contacts);
+        result.put("batches", calendarSink.getBatchCount());
+        result.put("rejectedBatches", calendarSink.getRejectedBatchCount());
+        result.put("queries", calendarSink.getQueryCount());
+        result.put("events", calendarSink.getEventCount());
+        result.put("reminders", calendarSink.getReminderCount());
+        return result;
+    }
+
+    /**
+     * Compares the metrics of a flow with the thresholds "flow.metric=max"
+     */
+    private void checkThresholds(Properties thresholds, int contacts, String flow, Result result) {
+        for (Map.Entry<String, Number> metric : result.metrics.entrySet()) {
+            String max = thresholds.getProperty(flow + "." + metric.getKey());
+            if (max != null && metric.getValue().doubleValue() > Double.parseDouble(max)) {
+                mViolations.add(String.format(Locale.US, "%s at %d contacts: %s is %s, max %s",
+                        flow, contacts, metric.getKey(), formatNumber(metric.getValue()), max));
+            }
+        }
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"");
+    }
+
+    private static String formatNumber(Number value) {
+        if (value instanceof Double) {
+            return String.format(Locale.US, "%.2f", value.doubleValue());
+        }
+        return value.toString();
+    }
+
+    private static List<MemoryPoolMXBean> getHeapPools() {
+        ArrayList<MemoryPoolMXBean> heapPools = new ArrayList<MemoryPoolMXBean>();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP && pool.isValid()) {
+                heapPools.add(pool);
+            }
+        }
+        return heapPools;
+    }
+
+    /**
+     * Bytes allocated by this thread so far, -1 if the JVM does not count them
+     */
+    private long getAllocatedBytes() {
+        if (mThreadBean instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean threadBean =
+                    (com.sun.management.ThreadMXBean) mThreadBean;
+            if (threadBean.isThreadAllocatedMemorySupported()
+                    && threadBean.isThreadAllocatedMemoryEnabled()) {
+                return threadBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+            }
+        }
+        return -1;
+    }
+}
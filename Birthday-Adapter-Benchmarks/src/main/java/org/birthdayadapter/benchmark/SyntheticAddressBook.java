@@ -0,0 +1,179 @@
+/*
+ * Copyright (C) 2012-2013 Dominik Schürmann <dominik@dominikschuermann.de>
+ *
+ * This file is part of Birthday Adapter.
+ * 
+ * Birthday Adapter is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Birthday Adapter is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Birthday Adapter.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.birthdayadapter.benchmark;
+
+import java.util.Locale;
+import java.util.Random;
+
+import org.birthdayadapter.engine.ContactEvent;
+import org.birthdayadapter.engine.InMemoryContactSource;
+
+/**
+ * Generates a synthetic address book with the mix of events found in real ones. Most contacts
+ * have a birthday, some have anniversaries or other events. Dates are written in the formats of
+ * the apps and accounts storing them, some without year and some malformed. Birthdays of some
+ * contacts are stored a second time in another account, often in another format.
+ * 
+ * The same seed always generates the same address book.
+ */
+public class SyntheticAddressBook {
+    private static final String[] FIRST_NAMES = new String[] { "Anna", "Ben", "Clara", "David",
+            "Emma", "Felix", "Greta", "Hannah", "Ilias", "Julia", "Karim", "Lena", "Mika", "Nora",
+            "Oskar", "Paula", "Quentin", "Rosa", "Sami", "Tara" };
+    private static final String[] LAST_NAMES = new String[] { "Adler", "Becker", "Costa", "Dubois",
+            "Eriksen", "Fischer", "Garcia", "Hoffmann", "Ivanova", "Jensen", "Kowalski", "Lopez",
+            "Meyer", "Novak", "Okafor", "Petrov", "Rossi", "Schmidt", "Tanaka", "Weber" };
+
+    /* accounts of raw contacts, null for local contacts */
+    private static final String[][] ACCOUNTS = new String[][] { { "com.google", "me@gmail.com" },
+            { "com.android.exchange", "me@work.example" }, { null, null } };
+
+    private final Random mRandom;
+    private int mContactEvents;
+    private int mDuplicates;
+
+    public SyntheticAddressBook(long seed) {
+        mRandom = new Random(seed);
+    }
+
+    /**
+     * Adds contacts with their events to source
+     * 
+     * @param source
+     * @param contacts
+     *            number of contacts
+     */
+    public void generate(InMemoryContactSource source, int contacts) {
+        for (int i = 0; i < contacts; i++) {
+            String lookupKey = "synthetic-" + i;
+            String displayName = FIRST_NAMES[mRandom.nextInt(FIRST_NAMES.length)] + " "
+                    + LAST_NAMES[mRandom.nextInt(LAST_NAMES.length)];
+            String[] account = pickAccount();
+
+            // 90% have a birthday, 20% of them stored a second time in another account
+            if (mRandom.nextInt(100) < 90) {
+                int year = 1940 + mRandom.nextInt(70);
+                int month = 1 + mRandom.nextInt(12);
+                int day = 1 + mRandom.nextInt(28);
+                addEvent(source, i, lookupKey, displayName, ContactEvent.TYPE_BIRTHDAY, null,
+                        year, month, day, account);
+
+                if (mRandom.nextInt(100) < 20) {
+                    String[] otherAccount = ACCOUNTS[(indexOf(account) + 1) % ACCOUNTS.length];
+                    addEvent(source, i, lookupKey, displayName, ContactEvent.TYPE_BIRTHDAY, null,
+                            year, month, day, otherAccount);
+                    mDuplicates++;
+                }
+            }
+            if (mRandom.nextInt(100) < 15) {
+                addEvent(source, i, lookupKey, displayName, ContactEvent.TYPE_ANNIVERSARY, null,
+                        1970 + mRandom.nextInt(50), 1 + mRandom.nextInt(12),
+                        1 + mRandom.nextInt(28), account);
+            }
+            if (mRandom.nextInt(100) < 5) {
+                addEvent(source, i, lookupKey, displayName, ContactEvent.TYPE_OTHER, null,
+                        1990 + mRandom.nextInt(30), 1 + mRandom.nextInt(12),
+                        1 + mRandom.nextInt(28), account);
+            }
+            if (mRandom.nextInt(100) < 5) {
+                addEvent(source, i, lookupKey, displayName, ContactEvent.TYPE_CUSTOM, "Name day",
+                        1700, 1 + mRandom.nextInt(12), 1 + mRandom.nextInt(28), account);
+            }
+        }
+    }
+
+    /**
+     * Number of generated contact events including duplicates
+     */
+    public int getContactEvents() {
+        return mContactEvents;
+    }
+
+    /**
+     * Number of generated contact events that duplicate another one of the same contact
+     */
+    public int getDuplicates() {
+        return mDuplicates;
+    }
+
+    private String[] pickAccount() {
+        int r = mRandom.nextInt(100);
+        if (r < 70) {
+            return ACCOUNTS[0];
+        } else if (r < 90) {
+            return ACCOUNTS[1];
+        }
+        return ACCOUNTS[2];
+    }
+
+    private static int indexOf(String[] account) {
+        for (int i = 0; i < ACCOUNTS.length; i++) {
+            if (ACCOUNTS[i] == account) {
+                return i;
+            }
+        }
+        return 0;
+    }
+
+    private void addEvent(InMemoryContactSource source, long contactId, String lookupKey,
+            String displayName, int eventType, String eventCustomLabel, int year, int month,
+            int day, String[] account) {
+        source.addContactEvent(contactId, lookupKey, displayName, eventType, eventCustomLabel,
+                formatDate(year, month, day), account[0], account[1]);
+        mContactEvents++;
+    }
+
+    /**
+     * Writes the date in one of the formats found in contacts. Year 1700 means that the date has
+     * no year.
+     */
+    private String formatDate(int year, int month, int day) {
+        boolean hasYear = year != 1700;
+        int r = mRandom.nextInt(100);
+
+        if (!hasYear || r < 10) {
+            // vCard without year, Facebook without year, or iCloud with its placeholder year
+            int format = mRandom.nextInt(3);
+            if (format == 0) {
+                return String.format(Locale.US, "--%02d-%02d", month, day);
+            } else if (format == 1) {
+                return String.format(Locale.US, "%02d/%02d", month, day);
+            }
+            return String.format(Locale.US, "1604-%02d-%02d", month, day);
+        } else if (r < 55) {
+            return String.format(Locale.US, "%04d-%02d-%02d", year, month, day);
+        } else if (r < 62) {
+            return String.format(Locale.US, "%04d%02d%02d", year, month, day);
+        } else if (r < 75) {
+            return String.format(Locale.US, "%02d.%02d.%04d", day, month, year);
+        } else if (r < 77) {
+            return String.format(Locale.US, "%04d.%02d.%02d", year, month, day);
+        } else if (r < 94) {
+            return String.format(Locale.US, "%02d/%02d/%04d", month, day, year);
+        } else if (r < 97) {
+            // milliseconds since the epoch at noon UTC
+            return String.valueOf(((long) (year - 1970) * 365 + (month - 1) * 30 + day)
+                    * 86400000L + 43200000L);
+        }
+        // malformed, mostly unparsable
+        return mRandom.nextBoolean() ? "unknown" : day + " " + month;
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2012-2013 Dominik Schürmann <dominik@dominikschuermann.de>
+ *
+ * This file is part of Birthday Adapter.
+ * 
+ * Birthday Adapter is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Birthday Adapter is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Birthday Adapter.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.birthdayadapter.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.birthdayadapter.engine.ContactEvent;
+import org.birthdayadapter.engine.SyncRules;
+import org.birthdayadapter.engine.TitleFormat;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Generation of event titles. getEventTitle() includes the calculation of the age, format() only
+ * the formatting of the title string.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class TitleBenchmark {
+
+    @Param({ "3", "1", "2", "0" })
+    public int eventType;
+
+    @Param({ "true", "false" })
+    public boolean withYear;
+
+    private TitleFormat mTitleFormat;
+    private ContactEvent mContactEvent;
+    private int mYear;
+
+    @Setup
+    public void setUp() {
+        mTitleFormat = TitleFormat.getDefault();
+
+        mContactEvent = new ContactEvent();
+        mContactEvent.displayName = "Jane Doe";
+        mContactEvent.eventType = eventType;
+        if (eventType == ContactEvent.TYPE_CUSTOM) {
+            mContactEvent.eventCustomLabel = "Name day";
+        }
+        mContactEvent.eventDate = SyncRules.parseEventDateString(withYear ? "1985-04-12"
+                : "--04-12", false);
+        mYear = 2024;
+    }
+
+    @Benchmark
+    public String getEventTitle() {
+        return SyncRules.getEventTitle(mTitleFormat, mContactEvent, mYear);
+    }
+
+    @Benchmark
+    public String format() {
+        return mTitleFormat.format(mContactEvent.eventType, mContactEvent.eventCustomLabel,
+                withYear, mContactEvent.displayName, 39);
+    }
+}
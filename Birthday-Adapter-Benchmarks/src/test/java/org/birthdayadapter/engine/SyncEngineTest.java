@@ -0,0 +1,201 @@
+/*
+ * Copyright (C) 2012-2013 Dominik Schürmann <dominik@dominikschuermann.de>
+ *
+ * This file is part of Birthday Adapter.
+ * 
+ * Birthday Adapter is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Birthday Adapter is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Birthday Adapter.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.birthdayadapter.engine;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Runs the sync engine against in-memory contacts and calendar. The sink rejects batches that
+ * are too large or contain invalid back references, like the calendar provider would.
+ */
+public class SyncEngineTest {
+    private static final long CALENDAR_ID = 1;
+
+    private static final int YEARS_BEFORE = 3;
+    private static final int YEARS_AFTER = 5;
+    private static final int YEARS = YEARS_BEFORE + 1 + YEARS_AFTER;
+
+    private static final int[] REMINDERS = new int[] { 0, 60, 1440 };
+
+    /* a batch may exceed MAX_BATCH_SIZE by the operations of the last contact event */
+    private static final int MAX_BATCH_SIZE = SyncEngine.MAX_BATCH_SIZE + YEARS
+            * (1 + REMINDERS.length);
+
+    private InMemoryContactSource mContactSource;
+    private InMemoryCalendarSink mCalendarSink;
+    private SyncEngine mEngine;
+    private int mCurrYear;
+
+    @Before
+    public void setUp() {
+        int types = ContactEvent.EVENT_TYPES.length;
+        int[] yearsBefore = new int[types];
+        int[] yearsAfter = new int[types];
+        boolean[] syncEventTypes = new boolean[types];
+        Arrays.fill(yearsBefore, YEARS_BEFORE);
+        Arrays.fill(yearsAfter, YEARS_AFTER);
+        Arrays.fill(syncEventTypes, true);
+        SyncConfig config = new SyncConfig(REMINDERS, 0xFFA70000, false, yearsBefore, yearsAfter,
+                syncEventTypes, false, new HashSet<String>(), new HashSet<String>(), 0, 10);
+
+        mContactSource = new InMemoryContactSource();
+        mCalendarSink = new InMemoryCalendarSink(MAX_BATCH_SIZE);
+        mEngine = new SyncEngine(mContactSource, mCalendarSink, config, TitleFormat.getDefault());
+        mCurrYear = Calendar.getInstance().get(Calendar.YEAR);
+    }
+
+    /**
+     * Adds contacts with one birthday each, spread over the year
+     */
+    private void addContacts(int count) {
+        for (int i = 0; i < count; i++) {
+            String date = String.format(Locale.US, "%04d-%02d-%02d", 1950 + i % 50, i % 12 + 1,
+                    i % 28 + 1);
+            mContactSource.addContactEvent(i, "contact-" + i, "Contact " + i,
+                    ContactEvent.TYPE_BIRTHDAY, null, date, null, null);
+        }
+    }
+
+    private List<ContactEvent> readContactEvents(SyncStatistics statistics) {
+        List<ContactEvent> contactEvents = mEngine.readContactEvents(null, statistics);
+        assertNotNull(contactEvents);
+        for (ContactEvent contactEvent : contactEvents) {
+            contactEvent.calendarId = CALENDAR_ID;
+        }
+        return contactEvents;
+    }
+
+    private void fullSync() {
+        SyncStatistics statistics = new SyncStatistics("Full");
+        List<ContactEvent> contactEvents = readContactEvents(statistics);
+        mEngine.clearCalendar(CALENDAR_ID, statistics);
+        mEngine.insertContactEvents(contactEvents, null, statistics);
+    }
+
+    @Test
+    public void testRemindersReferenceTheirEvents() {
+        addContacts(10);
+        fullSync();
+
+        List<CalendarEvent> events = mCalendarSink.getEvents(CALENDAR_ID, null);
+        assertEquals(10 * YEARS, events.size());
+        for (CalendarEvent event : events) {
+            List<Integer> minutes = mCalendarSink.getReminders(event.id);
+            assertEquals(REMINDERS.length, minutes.size());
+            for (int reminder : REMINDERS) {
+                assertTrue(minutes.contains(reminder));
+            }
+        }
+        assertEquals(0, mCalendarSink.getRejectedBatchCount());
+    }
+
+    @Test
+    public void testBatchLimit() {
+        int contacts = 1000;
+        addContacts(contacts);
+        fullSync();
+
+        assertEquals(0, mCalendarSink.getRejectedBatchCount());
+        assertTrue(mCalendarSink.getBatchCount() > 1);
+        assertEquals(contacts * YEARS, mCalendarSink.getEventCount());
+        assertEquals(contacts * YEARS * REMINDERS.length, mCalendarSink.getReminderCount());
+
+        assertTrue(mEngine.updateReminders(CALENDAR_ID, new int[] { 30,
+                SyncConfig.DISABLED_REMINDER, SyncConfig.DISABLED_REMINDER }));
+        assertEquals(0, mCalendarSink.getRejectedBatchCount());
+        assertEquals(contacts * YEARS, mCalendarSink.getReminderCount());
+    }
+
+    @Test
+    public void testIncrementalSyncWithoutChanges() {
+        addContacts(100);
+        fullSync();
+        mCalendarSink.resetCounters();
+
+        SyncStatistics statistics = new SyncStatistics("Incremental");
+        assertTrue(mEngine.syncCalendar(CALENDAR_ID, readContactEvents(statistics), null,
+                statistics));
+
+        assertEquals(0, mCalendarSink.getOperationCount());
+        assertEquals(0, statistics.getInsertedContactEvents());
+        assertEquals(100 * YEARS, mCalendarSink.getEventCount());
+    }
+
+    @Test
+    public void testIncrementalSyncOfRemovedContact() {
+        addContacts(100);
+        fullSync();
+        mContactSource.removeContact("contact-7");
+        mCalendarSink.resetCounters();
+
+        SyncStatistics statistics = new SyncStatistics("Incremental");
+        assertTrue(mEngine.syncCalendar(CALENDAR_ID, readContactEvents(statistics), null,
+                statistics));
+
+        assertEquals(99 * YEARS, mCalendarSink.getEventCount());
+        assertEquals(0, mCalendarSink.getEvents(CALENDAR_ID, "contact-7").size());
+        assertEquals(0, statistics.getInsertedContactEvents());
+    }
+
+    @Test
+    public void testYearRollover() {
+        addContacts(100);
+        fullSync();
+        mCalendarSink.resetCounters();
+
+        SyncStatistics statistics = new SyncStatistics("Years");
+        List<ContactEvent> contactEvents = readContactEvents(statistics);
+        assertTrue(mEngine.updateSyncedYears(CALENDAR_ID, contactEvents, mCurrYear + 1,
+                statistics));
+
+        // one year left the window and one year entered it for each contact event
+        assertEquals(0, mCalendarSink.getRejectedBatchCount());
+        assertEquals(100 * (1 + 1 + REMINDERS.length), mCalendarSink.getOperationCount());
+        assertEquals(100 * YEARS, mCalendarSink.getEventCount());
+        assertEquals(100 * YEARS * REMINDERS.length, mCalendarSink.getReminderCount());
+
+        Calendar utcCal = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+        for (CalendarEvent event : mCalendarSink.getEvents(CALENDAR_ID, null)) {
+            utcCal.setTimeInMillis(event.start);
+            int year = utcCal.get(Calendar.YEAR);
+            assertTrue(year >= mCurrYear + 1 - YEARS_BEFORE);
+            assertTrue(year <= mCurrYear + 1 + YEARS_AFTER);
+        }
+
+        // a second run in the same year has nothing to do
+        mCalendarSink.resetCounters();
+        assertTrue(mEngine.updateSyncedYears(CALENDAR_ID, contactEvents, mCurrYear + 1,
+                statistics));
+        assertEquals(0, mCalendarSink.getOperationCount());
+    }
+}
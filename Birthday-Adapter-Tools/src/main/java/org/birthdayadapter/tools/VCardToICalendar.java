@@ -0,0 +1,285 @@
+/*
+ * Copyright (C) 2012-2013 Dominik Schürmann <dominik@dominikschuermann.de>
+ *
+ * This file is part of Birthday Adapter.
+ * 
+ * Birthday Adapter is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Birthday Adapter is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Birthday Adapter.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.birthdayadapter.tools;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.birthdayadapter.engine.ContactEvent;
+import org.birthdayadapter.engine.ICalendarSink;
+import org.birthdayadapter.engine.ICalendarWriter;
+import org.birthdayadapter.engine.InMemoryContactSource;
+import org.birthdayadapter.engine.SyncConfig;
+import org.birthdayadapter.engine.SyncEngine;
+import org.birthdayadapter.engine.SyncStatistics;
+import org.birthdayadapter.engine.TitleFormat;
+import org.birthdayadapter.engine.VCardReader;
+
+/**
+ * Converts a vCard file into an iCalendar file with the events the app would sync for the same
+ * contacts: same date parsing, titles with age, window of years, and reminders as alarms.
+ * 
+ * The vCard file is streamed, cards are converted and encoded in chunks on all cores, and the
+ * chunks are written in the order of the cards. Only a few chunks are in memory at a time, so
+ * files of any size can be converted.
+ * 
+ * Usage: VCardToICalendar [options] input.vcf output.ics
+ */
+public class VCardToICalendar {
+    private static final int CARDS_PER_CHUNK = 2000;
+    private static final int BUFFER_SIZE = 1024 * 1024;
+
+    /**
+     * Converted chunk of cards
+     */
+    private static class Chunk {
+        ByteArrayOutputStream events;
+        int eventCount;
+        int contactEventCount;
+    }
+
+    private final SyncConfig mConfig;
+    private final TitleFormat mTitleFormat;
+    private final long mTimestamp = System.currentTimeMillis();
+
+    private int mCards;
+    private int mContactEvents;
+    private int mEvents;
+
+    public VCardToICalendar(SyncConfig config, TitleFormat titleFormat) {
+        mConfig = config;
+        mTitleFormat = titleFormat;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int threads = Runtime.getRuntime().availableProcessors();
+        int[] reminderMinutes = new int[] { SyncConfig.DISABLED_REMINDER,
+                SyncConfig.DISABLED_REMINDER, SyncConfig.DISABLED_REMINDER };
+        int reminders = 0;
+        int yearsBefore = 3;
+        int yearsAfter = 5;
+        boolean preferddSlashMM = false;
+        String calendarName = "Birthdays";
+        ArrayList<String> files = new ArrayList<String>();
+
+        try {
+            for (int i = 0; i < args.length; i++) {
+                String arg = args[i];
+                if (arg.equals("--threads")) {
+                    threads = Integer.parseInt(args[++i]);
+                } else if (arg.equals("--reminder") && reminders < reminderMinutes.length) {
+                    reminderMinutes[reminders++] = Integer.parseInt(args[++i]);
+                } else if (arg.equals("--years-before")) {
+                    yearsBefore = Integer.parseInt(args[++i]);
+                } else if (arg.equals("--years-after")) {
+                    yearsAfter = Integer.parseInt(args[++i]);
+                } else if (arg.equals("--dd-mm")) {
+                    preferddSlashMM = true;
+                } else if (arg.equals("--name")) {
+                    calendarName = args[++i];
+                } else if (arg.startsWith("--")) {
+                    throw new IllegalArgumentException(arg);
+                } else {
+                    files.add(arg);
+                }
+            }
+        } catch (RuntimeException e) {
+            files.clear();
+        }
+        if (files.size() != 2 || threads < 1) {
+            System.err.println("Usage: VCardToICalendar [options] input.vcf output.ics\n"
+                    + "  --reminder minutes   reminder before the start of events, negative for "
+                    + "after, up to 3 times\n"
+                    + "  --years-before n     years before the current year, default 3\n"
+                    + "  --years-after n      years after the current year, default 5\n"
+                    + "  --dd-mm              read dates with slashes as dd/MM instead of MM/dd\n"
+                    + "  --name name          name of the calendar, default Birthdays\n"
+                    + "  --threads n          threads converting cards, default all cores");
+            System.exit(2);
+        }
+
+        int types = ContactEvent.EVENT_TYPES.length;
+        int[] yearsBeforeOfTypes = new int[types];
+        int[] yearsAfterOfTypes = new int[types];
+        boolean[] syncEventTypes = new boolean[types];
+        Arrays.fill(yearsBeforeOfTypes, yearsBefore);
+        Arrays.fill(yearsAfterOfTypes, yearsAfter);
+        Arrays.fill(syncEventTypes, true);
+        SyncConfig config = new SyncConfig(reminderMinutes, 0, preferddSlashMM,
+                yearsBeforeOfTypes, yearsAfterOfTypes, syncEventTypes, false,
+                new HashSet<String>(), new HashSet<String>(), 0, 0);
+
+        VCardToICalendar converter = new VCardToICalendar(config, TitleFormat.getDefault());
+        long start = System.nanoTime();
+        converter.convert(files.get(0), files.get(1), calendarName, threads);
+
+        System.err.println(String.format(Locale.US,
+                "%d cards, %d contact events, %d events in %d ms", converter.mCards,
+                converter.mContactEvents, converter.mEvents,
+                (System.nanoTime() - start) / 1000000));
+    }
+
+    /**
+     * Converts input to output
+     * 
+     * @param input
+     *            vCard file
+     * @param output
+     *            iCalendar file, replaced if it exists
+     * @param calendarName
+     * @param threads
+     *            number of threads converting chunks of cards
+     * @throws IOException
+     */
+    public void convert(String input, String output, String calendarName, int threads)
+            throws IOException {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        FileChannel inputChannel = FileChannel.open(Paths.get(input), StandardOpenOption.READ);
+        FileChannel outputChannel = FileChannel.open(Paths.get(output),
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE);
+        try {
+            VCardReader reader = new VCardReader(new BufferedReader(Channels.newReader(
+                    inputChannel, "UTF-8"), BUFFER_SIZE));
+            OutputStream out = Channels.newOutputStream(outputChannel);
+            Writer writer = new OutputStreamWriter(out, "UTF-8");
+
+            ICalendarWriter calendarWriter = new ICalendarWriter(writer, mTimestamp);
+            calendarWriter.writeHeader(calendarName);
+            writer.flush();
+
+            // chunks in the order of their cards, limited to keep memory bounded
+            ArrayDeque<Future<Chunk>> chunks = new ArrayDeque<Future<Chunk>>();
+            List<List<String>> cards;
+            while (!(cards = readCards(reader)).isEmpty()) {
+                chunks.add(executor.submit(newConversion(cards, mCards)));
+                mCards += cards.size();
+
+                if (chunks.size() >= threads * 2) {
+                    writeChunk(out, chunks.remove());
+                }
+            }
+            while (!chunks.isEmpty()) {
+                writeChunk(out, chunks.remove());
+            }
+
+            calendarWriter.writeFooter();
+            writer.flush();
+        } finally {
+            executor.shutdownNow();
+            inputChannel.close();
+            outputChannel.close();
+        }
+    }
+
+    private static List<List<String>> readCards(VCardReader reader) throws IOException {
+        ArrayList<List<String>> cards = new ArrayList<List<String>>(CARDS_PER_CHUNK);
+        List<String> card;
+        while (cards.size() < CARDS_PER_CHUNK && (card = reader.nextCard()) != null) {
+            cards.add(card);
+        }
+        return cards;
+    }
+
+    private void writeChunk(OutputStream out, Future<Chunk> future) throws IOException {
+        Chunk chunk;
+        try {
+            chunk = future.get();
+        } catch (InterruptedException e) {
+            throw new IOException("Conversion interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Conversion failed", e.getCause());
+        }
+
+        chunk.events.writeTo(out);
+        mContactEvents += chunk.contactEventCount;
+        mEvents += chunk.eventCount;
+    }
+
+    /**
+     * Conversion of a chunk of cards by the engine, the events are written as UTF-8
+     * 
+     * @param cards
+     * @param firstCard
+     *            position of the first card in the file, cards are identified by their position
+     * @return
+     */
+    private Callable<Chunk> newConversion(final List<List<String>> cards, final int firstCard) {
+        return new Callable<Chunk>() {
+            @Override
+            public Chunk call() throws IOException {
+                InMemoryContactSource contactSource = new InMemoryContactSource();
+                for (int i = 0; i < cards.size(); i++) {
+                    long contactId = firstCard + i;
+                    for (ContactEvent contactEvent : VCardReader.getContactEvents(cards.get(i),
+                            contactId, "card-" + contactId)) {
+                        contactSource.addContactEvent(contactId, contactEvent.lookupKey,
+                                contactEvent.displayName, contactEvent.eventType,
+                                contactEvent.eventCustomLabel, contactEvent.eventDateString,
+                                null, null);
+                    }
+                }
+
+                ByteArrayOutputStream events = new ByteArrayOutputStream(BUFFER_SIZE);
+                Writer writer = new BufferedWriter(new OutputStreamWriter(events, "UTF-8"),
+                        BUFFER_SIZE);
+                ICalendarSink calendarSink = new ICalendarSink(new ICalendarWriter(writer,
+                        mTimestamp));
+                SyncEngine engine = new SyncEngine(contactSource, calendarSink, mConfig,
+                        mTitleFormat);
+
+                SyncStatistics statistics = new SyncStatistics("Conversion");
+                List<ContactEvent> contactEvents = engine.readContactEvents(null, statistics);
+                engine.insertContactEvents(contactEvents, null, statistics);
+                if (calendarSink.getError() != null) {
+                    throw calendarSink.getError();
+                }
+                writer.flush();
+
+                Chunk chunk = new Chunk();
+                chunk.events = events;
+                chunk.eventCount = calendarSink.getEventCount();
+                chunk.contactEventCount = statistics.getInsertedContactEvents();
+                return chunk;
+            }
+        };
+    }
+}
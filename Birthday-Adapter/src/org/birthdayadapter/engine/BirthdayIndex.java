@@ -0,0 +1,428 @@
+/*
+ * Copyright (C) 2012-2013 Dominik Schürmann <dominik@dominikschuermann.de>
+ *
+ * This file is part of Birthday Adapter.
+ * 
+ * Birthday Adapter is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Birthday Adapter is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Birthday Adapter.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.birthdayadapter.engine;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Index of contact events by day of year, for showing upcoming birthdays without reading contacts
+ * or calendars. There is one bucket for each of the 366 days of a leap year, holding packed
+ * entries of contact, label, event type, and year. Buckets are stored one after another in one
+ * array, so finding the events of the next days only walks these days and their entries.
+ * 
+ * The index is built from the contact events read by a sync and saved to a small binary file,
+ * compressed with gzip, as most of it are display names. Syncs of single contacts patch it with
+ * update().
+ */
+public class BirthdayIndex {
+    public static final int DAYS = 366;
+
+    private static final int MAGIC = 0x42414449;
+    private static final int VERSION = 2;
+
+    /* year of contact events without year restored by update(), a leap year for February 29 */
+    private static final int NO_YEAR = 1604;
+
+    /* day of year of the first day of each month in a leap year */
+    private static final int[] MONTH_START = new int[] { 0, 31, 60, 91, 121, 152, 182, 213, 244,
+            274, 305, 335 };
+    private static final int FEBRUARY_29 = MONTH_START[Calendar.FEBRUARY] + 28;
+
+    /* layout of entries: contact index, label index (0 for none), event type, year (0 for none) */
+    private static final int CONTACT_SHIFT = 36;
+    private static final int LABEL_SHIFT = 20;
+    private static final int TYPE_SHIFT = 16;
+    private static final int MAX_LABELS = 1 << (CONTACT_SHIFT - LABEL_SHIFT);
+
+    private final long[] mContactIds;
+    private final String[] mLookupKeys;
+    private final String[] mDisplayNames;
+    private final String[] mLabels;
+
+    /* entries of day d are mEntries[mBucketStart[d]] to mEntries[mBucketStart[d + 1] - 1] */
+    private final int[] mBucketStart;
+    private final long[] mEntries;
+
+    /**
+     * Occurrence of a contact event returned by the queries
+     */
+    public static class Entry {
+        public long contactId;
+        public String displayName;
+        public int eventType;
+        public String eventCustomLabel;
+
+        /* year of the contact event, 0 if it has none */
+        public int year;
+
+        /* date of the occurrence, month as in Calendar */
+        public int nextYear;
+        public int nextMonth;
+        public int nextDay;
+        public int daysUntilNext;
+
+        public boolean hasAge() {
+            return year != 0 && nextYear >= year;
+        }
+
+        public int getAge() {
+            return nextYear - year;
+        }
+    }
+
+    private BirthdayIndex(long[] contactIds, String[] lookupKeys, String[] displayNames,
+            String[] labels, int[] bucketStart, long[] entries) {
+        mContactIds = contactIds;
+        mLookupKeys = lookupKeys;
+        mDisplayNames = displayNames;
+        mLabels = labels;
+        mBucketStart = bucketStart;
+        mEntries = entries;
+    }
+
+    /**
+     * Builds the index of contact events read by SyncEngine.readContactEvents(). Contact events
+     * without display name are left out, as they have no events in the calendar either. Entries
+     * of a day are ordered by display name.
+     * 
+     * @param contactEvents
+     * @return
+     */
+    public static BirthdayIndex build(List<ContactEvent> contactEvents) {
+        ArrayList<ContactEvent> sorted = new ArrayList<ContactEvent>(contactEvents.size());
+        for (ContactEvent contactEvent : contactEvents) {
+            if (contactEvent.displayName != null && contactEvent.eventDate != null) {
+                sorted.add(contactEvent);
+            }
+        }
+        Collections.sort(sorted, new Comparator<ContactEvent>() {
+            @Override
+            public int compare(ContactEvent lhs, ContactEvent rhs) {
+                return lhs.displayName.compareToIgnoreCase(rhs.displayName);
+            }
+        });
+
+        HashMap<Long, Integer> contactIndexes = new HashMap<Long, Integer>();
+        ArrayList<Long> contactIds = new ArrayList<Long>();
+        ArrayList<String> lookupKeys = new ArrayList<String>();
+        ArrayList<String> displayNames = new ArrayList<String>();
+        HashMap<String, Integer> labelIndexes = new HashMap<String, Integer>();
+        ArrayList<String> labels = new ArrayList<String>();
+        labels.add(null);
+
+        int[] days = new int[sorted.size()];
+        long[] packed = new long[sorted.size()];
+        int[] bucketStart = new int[DAYS + 1];
+        Calendar cal = Calendar.getInstance();
+        for (int i = 0; i < sorted.size(); i++) {
+            ContactEvent contactEvent = sorted.get(i);
+
+            Integer contactIndex = contactIndexes.get(contactEvent.contactId);
+            if (contactIndex == null) {
+                contactIndex = contactIds.size();
+                contactIndexes.put(contactEvent.contactId, contactIndex);
+                contactIds.add(contactEvent.contactId);
+                lookupKeys.add(contactEvent.lookupKey != null ? contactEvent.lookupKey : "");
+                displayNames.add(contactEvent.displayName);
+            }
+
+            int labelIndex = 0;
+            if (contactEvent.eventCustomLabel != null) {
+                Integer index = labelIndexes.get(contactEvent.eventCustomLabel);
+                if (index == null && labels.size() < MAX_LABELS) {
+                    index = labels.size();
+                    labelIndexes.put(contactEvent.eventCustomLabel, index);
+                    labels.add(contactEvent.eventCustomLabel);
+                }
+                labelIndex = index != null ? index : 0;
+            }
+
+            // years before 1800 stand for unknown years, like in the titles of events
+            cal.setTime(contactEvent.eventDate);
+            int year = cal.get(Calendar.YEAR) >= 1800 ? cal.get(Calendar.YEAR) : 0;
+
+            days[i] = MONTH_START[cal.get(Calendar.MONTH)] + cal.get(Calendar.DAY_OF_MONTH) - 1;
+            packed[i] = ((long) contactIndex << CONTACT_SHIFT)
+                    | ((long) labelIndex << LABEL_SHIFT)
+                    | ((long) (contactEvent.eventType & 0xF) << TYPE_SHIFT) | (year & 0xFFFF);
+            bucketStart[days[i] + 1]++;
+        }
+
+        // entries are distributed to the buckets in the order of the display names
+        for (int day = 0; day < DAYS; day++) {
+            bucketStart[day + 1] += bucketStart[day];
+        }
+        int[] next = new int[DAYS];
+        System.arraycopy(bucketStart, 0, next, 0, DAYS);
+        long[] entries = new long[packed.length];
+        for (int i = 0; i < packed.length; i++) {
+            entries[next[days[i]]++] = packed[i];
+        }
+
+        long[] contactIdArray = new long[contactIds.size()];
+        for (int i = 0; i < contactIdArray.length; i++) {
+            contactIdArray[i] = contactIds.get(i);
+        }
+        return new BirthdayIndex(contactIdArray, lookupKeys.toArray(new String[0]),
+                displayNames.toArray(new String[0]), labels.toArray(new String[0]), bucketStart,
+                entries);
+    }
+
+    /**
+     * Builds a copy of the index in which the contact events of the given contacts are replaced,
+     * so that a sync of single contacts does not have to read all contacts. Contacts are matched
+     * by lookup key and by the contact IDs of the new contact events.
+     * 
+     * @param lookupKeys
+     *            lookup keys of the synced contacts, including deleted ones
+     * @param contactEvents
+     *            contact events of these contacts read by SyncEngine.readContactEvents()
+     * @return
+     */
+    public BirthdayIndex update(Collection<String> lookupKeys, List<ContactEvent> contactEvents) {
+        HashSet<Long> contactIds = new HashSet<Long>();
+        for (ContactEvent contactEvent : contactEvents) {
+            contactIds.add(contactEvent.contactId);
+        }
+
+        ArrayList<ContactEvent> allContactEvents = new ArrayList<ContactEvent>(contactEvents);
+        Calendar cal = Calendar.getInstance();
+        int month = 0;
+        for (int day = 0; day < DAYS; day++) {
+            while (month + 1 < MONTH_START.length && MONTH_START[month + 1] <= day) {
+                month++;
+            }
+            for (int i = mBucketStart[day]; i < mBucketStart[day + 1]; i++) {
+                long packed = mEntries[i];
+                int contactIndex = (int) (packed >>> CONTACT_SHIFT);
+                if (contactIds.contains(mContactIds[contactIndex])
+                        || lookupKeys.contains(mLookupKeys[contactIndex])) {
+                    continue;
+                }
+
+                ContactEvent contactEvent = new ContactEvent();
+                contactEvent.contactId = mContactIds[contactIndex];
+                contactEvent.lookupKey = mLookupKeys[contactIndex];
+                contactEvent.displayName = mDisplayNames[contactIndex];
+                contactEvent.eventType = (int) ((packed >>> TYPE_SHIFT) & 0xF);
+                contactEvent.eventCustomLabel = mLabels[(int) ((packed >>> LABEL_SHIFT)
+                        & (MAX_LABELS - 1))];
+
+                int year = (int) (packed & 0xFFFF);
+                cal.clear();
+                cal.set(year != 0 ? year : NO_YEAR, month, day - MONTH_START[month] + 1);
+                contactEvent.eventDate = cal.getTime();
+                allContactEvents.add(contactEvent);
+            }
+        }
+
+        return build(allContactEvents);
+    }
+
+    /**
+     * Number of contact events in the index
+     */
+    public int size() {
+        return mEntries.length;
+    }
+
+    /**
+     * Contact events occurring in the next days, ordered by their next occurrence
+     * 
+     * @param today
+     *            Today at 00:00
+     * @param days
+     *            number of days including today, at most DAYS
+     * @return
+     */
+    public List<Entry> getNextDays(Calendar today, int days) {
+        return walk(today, Math.min(days, DAYS), Integer.MAX_VALUE);
+    }
+
+    /**
+     * The next contact events, ordered by their next occurrence. All events of the day of the
+     * last one are included, so there may be more than count.
+     * 
+     * @param today
+     *            Today at 00:00
+     * @param count
+     * @return
+     */
+    public List<Entry> getNext(Calendar today, int count) {
+        return walk(today, DAYS, count);
+    }
+
+    /**
+     * Walks the buckets from today until the given number of days or entries is reached.
+     * February 29 is shown on March 1 in years without it, like the events in the calendar.
+     * 
+     * Every bucket is walked at most once, as 366 days starting in a year without February 29
+     * reach today's date again a year later, whose events already occur today.
+     */
+    private List<Entry> walk(Calendar today, int days, int count) {
+        ArrayList<Entry> result = new ArrayList<Entry>();
+        boolean[] walked = new boolean[DAYS];
+        Calendar day = (Calendar) today.clone();
+        for (int i = 0; i < days && result.size() < count; i++) {
+            int month = day.get(Calendar.MONTH);
+            int dayOfMonth = day.get(Calendar.DAY_OF_MONTH);
+            int year = day.get(Calendar.YEAR);
+
+            if (month == Calendar.MARCH && dayOfMonth == 1 && !isLeapYear(year)
+                    && !walked[FEBRUARY_29]) {
+                addEntries(result, FEBRUARY_29, year, month, dayOfMonth, i);
+                walked[FEBRUARY_29] = true;
+            }
+            int bucket = MONTH_START[month] + dayOfMonth - 1;
+            if (walked[bucket]) {
+                break;
+            }
+            addEntries(result, bucket, year, month, dayOfMonth, i);
+            walked[bucket] = true;
+
+            day.add(Calendar.DAY_OF_MONTH, 1);
+        }
+        return result;
+    }
+
+    private static boolean isLeapYear(int year) {
+        return year % 4 == 0 && (year % 100 != 0 || year % 400 == 0);
+    }
+
+    private void addEntries(List<Entry> result, int bucket, int year, int month,
+            int dayOfMonth, int daysUntil) {
+        for (int i = mBucketStart[bucket]; i < mBucketStart[bucket + 1]; i++) {
+            long packed = mEntries[i];
+            int contactIndex = (int) (packed >>> CONTACT_SHIFT);
+            int labelIndex = (int) ((packed >>> LABEL_SHIFT) & (MAX_LABELS - 1));
+
+            Entry entry = new Entry();
+            entry.contactId = mContactIds[contactIndex];
+            entry.displayName = mDisplayNames[contactIndex];
+            entry.eventType = (int) ((packed >>> TYPE_SHIFT) & 0xF);
+            entry.eventCustomLabel = mLabels[labelIndex];
+            entry.year = (int) (packed & 0xFFFF);
+            entry.nextYear = year;
+            entry.nextMonth = month;
+            entry.nextDay = dayOfMonth;
+            entry.daysUntilNext = daysUntil;
+            result.add(entry);
+        }
+    }
+
+    /**
+     * Writes the index, the stream is closed afterwards
+     * 
+     * @param out
+     * @throws IOException
+     */
+    public void write(OutputStream out) throws IOException {
+        DataOutputStream data = new DataOutputStream(new BufferedOutputStream(
+                new GZIPOutputStream(out)));
+        try {
+            data.writeInt(MAGIC);
+            data.writeInt(VERSION);
+
+            data.writeInt(mContactIds.length);
+            for (int i = 0; i < mContactIds.length; i++) {
+                data.writeLong(mContactIds[i]);
+                data.writeUTF(mLookupKeys[i]);
+                data.writeUTF(mDisplayNames[i]);
+            }
+            // the first label stands for none and is not written
+            data.writeInt(mLabels.length - 1);
+            for (int i = 1; i < mLabels.length; i++) {
+                data.writeUTF(mLabels[i]);
+            }
+
+            for (int day = 0; day < DAYS; day++) {
+                data.writeInt(mBucketStart[day + 1] - mBucketStart[day]);
+            }
+            for (long entry : mEntries) {
+                data.writeLong(entry);
+            }
+        } finally {
+            data.close();
+        }
+    }
+
+    /**
+     * Reads an index written by write(), the stream is closed afterwards
+     * 
+     * @param in
+     * @return
+     * @throws IOException
+     *             also if the file is not an index of this version
+     */
+    public static BirthdayIndex read(InputStream in) throws IOException {
+        DataInputStream data = new DataInputStream(new BufferedInputStream(
+                new GZIPInputStream(in)));
+        try {
+            if (data.readInt() != MAGIC || data.readInt() != VERSION) {
+                throw new IOException("Not a birthday index of version " + VERSION);
+            }
+
+            int contacts = data.readInt();
+            long[] contactIds = new long[contacts];
+            String[] lookupKeys = new String[contacts];
+            String[] displayNames = new String[contacts];
+            for (int i = 0; i < contacts; i++) {
+                contactIds[i] = data.readLong();
+                lookupKeys[i] = data.readUTF();
+                displayNames[i] = data.readUTF();
+            }
+            String[] labels = new String[data.readInt() + 1];
+            for (int i = 1; i < labels.length; i++) {
+                labels[i] = data.readUTF();
+            }
+
+            int[] bucketStart = new int[DAYS + 1];
+            for (int day = 0; day < DAYS; day++) {
+                bucketStart[day + 1] = bucketStart[day] + data.readInt();
+            }
+            long[] entries = new long[bucketStart[DAYS]];
+            for (int i = 0; i < entries.length; i++) {
+                entries[i] = data.readLong();
+            }
+
+            return new BirthdayIndex(contactIds, lookupKeys, displayNames, labels, bucketStart,
+                    entries);
+        } finally {
+            data.close();
+        }
+    }
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright (C) 2012-2013 Dominik Schürmann <dominik@dominikschuermann.de>
+ *
+ * This file is part of Birthday Adapter.
+ * 
+ * Birthday Adapter is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Birthday Adapter is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Birthday Adapter.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.birthdayadapter.engine;
+
+/**
+ * Event stored in a calendar
+ */
+public class CalendarEvent {
+    public final long id;
+    public final long calendarId;
+
+    /* fingerprint of the contact event, null for events of older versions */
+    public final String fingerprint;
+    public final String lookupKey;
+
+    /* start of the all-day event in UTC */
+    public final long start;
+    public final String title;
+
+    public CalendarEvent(long id, long calendarId, String fingerprint, String lookupKey,
+            long start, String title) {
+        this.id = id;
+        this.calendarId = calendarId;
+        this.fingerprint = fingerprint;
+        this.lookupKey = lookupKey;
+        this.start = start;
+        this.title = title;
+    }
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright (C) 2012-2013 Dominik Schürmann <dominik@dominikschuermann.de>
+ *
+ * This file is part of Birthday Adapter.
+ * 
+ * Birthday Adapter is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Birthday Adapter is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Birthday Adapter.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.birthdayadapter.engine;
+
+import java.util.List;
+
+/**
+ * Calendar the events are written to, on Android the calendar provider. Reminders belong to events
+ * and are deleted together with them.
+ */
+public interface CalendarSink {
+
+    /**
+     * Reads the events of a calendar
+     * 
+     * @param calendarId
+     * @param lookupKey
+     *            only get events of the contact with this lookup key, null for all events
+     * @return events, null on error
+     */
+    List<CalendarEvent> getEvents(long calendarId, String lookupKey);
+
+    /**
+     * Applies the operations as one batch. Back references of reminders refer to positions in
+     * operations.
+     * 
+     * @param operations
+     * @return number of affected rows for each operation, null on error
+     */
+    int[] applyBatch(List<SinkOperation> operations);
+}
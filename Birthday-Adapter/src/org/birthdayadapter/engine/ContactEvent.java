@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2012-2013 Dominik Schürmann <dominik@dominikschuermann.de>
+ *
+ * This file is part of Birthday Adapter.
+ * 
+ * Birthday Adapter is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Birthday Adapter is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Birthday Adapter.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.birthdayadapter.engine;
+
+import java.util.Calendar;
+import java.util.Date;
+
+/**
+ * Event of a contact, e.g., a birthday. Sources only fill in the raw values read from contacts,
+ * SyncEngine.readContactEvents() parses the date and sets the fingerprint, the sync sets the
+ * calendar and the synced years.
+ */
+public class ContactEvent {
+    /* event types, same values as in ContactsContract.CommonDataKinds.Event */
+    public static final int TYPE_CUSTOM = 0;
+    public static final int TYPE_ANNIVERSARY = 1;
+    public static final int TYPE_OTHER = 2;
+    public static final int TYPE_BIRTHDAY = 3;
+
+    /* event types with own preferences */
+    public static final int[] EVENT_TYPES = new int[] { TYPE_BIRTHDAY, TYPE_ANNIVERSARY,
+            TYPE_OTHER, TYPE_CUSTOM };
+
+    public long contactId;
+    public String lookupKey;
+    public String displayName;
+    public int eventType;
+    public String eventCustomLabel;
+    public String eventDateString;
+    public String fingerprint;
+    public Date eventDate;
+
+    /* account of the raw contact the contact event is stored in, null for local contacts */
+    public String accountType;
+    public String accountName;
+
+    /* calendar the events are written to */
+    public long calendarId;
+
+    /* years that are synced for this contact event */
+    public int startYear;
+    public int endYear;
+
+    /* next occurrence of this contact event */
+    public int nextYear;
+    public int daysUntilNext;
+
+    public boolean isUpcoming() {
+        return daysUntilNext < SyncEngine.UPCOMING_DAYS && nextYear >= startYear
+                && nextYear <= endYear;
+    }
+
+    /**
+     * Dates without year are parsed with the year 1700, see SyncRules.parseEventDateString(). Like
+     * in SyncRules.getEventTitle(), all years before 1800 stand for an unknown year, e.g., iCloud
+     * uses 1604.
+     */
+    public boolean hasYear() {
+        Calendar cal = Calendar.getInstance();
+        cal.setTime(eventDate);
+        return cal.get(Calendar.YEAR) >= 1800;
+    }
+
+    /**
+     * Checks if this contact event is preferred over a duplicate of it. Contact events with year
+     * are preferred, because the age can be shown. Otherwise, the date string and then the account
+     * decide, so that the same contact event is chosen on every sync and its fingerprint and
+     * calendar stay the same.
+     */
+    public boolean isPreferredOver(ContactEvent duplicate) {
+        boolean hasYear = hasYear();
+        if (hasYear != duplicate.hasYear()) {
+            return hasYear;
+        }
+        int result = eventDateString.compareTo(duplicate.eventDateString);
+        if (result == 0) {
+            result = compare(accountType, duplicate.accountType);
+        }
+        if (result == 0) {
+            result = compare(accountName, duplicate.accountName);
+        }
+        return result < 0;
+    }
+
+    private static int compare(String lhs, String rhs) {
+        if (lhs == null || rhs == null) {
+            return (lhs == null ? 0 : 1) - (rhs == null ? 0 : 1);
+        }
+        return lhs.compareTo(rhs);
+    }
+}
@@ -0,0 +1,39 @@
+/*
+ * Copyright (C) 2012-2013 Dominik Schürmann <dominik@dominikschuermann.de>
+ *
+ * This file is part of Birthday Adapter.
+ * 
+ * Birthday Adapter is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Birthday Adapter is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Birthday Adapter.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.birthdayadapter.engine;
+
+import java.util.List;
+
+/**
+ * Source of the events of contacts, on Android the contacts provider
+ */
+public interface ContactSource {
+
+    /**
+     * Reads the events of contacts that pass the filters of the sync. Only the raw values are set,
+     * i.e., contact id, lookup key, display name, event type, label, date string, and account.
+     * 
+     * @param lookupKey
+     *            only get events of the contact with this lookup key, null for all contacts
+     * @return contact events, null on error
+     */
+    List<ContactEvent> getContactEvents(String lookupKey);
+}
@@ -0,0 +1,264 @@
+/*
+ * Copyright (C) 2012-2013 Dominik Schürmann <dominik@dominikschuermann.de>
+ *
+ * This file is part of Birthday Adapter.
+ * 
+ * Birthday Adapter is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Birthday Adapter is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Birthday Adapter.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.birthdayadapter.engine;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Anonymized trace of the rows read from contacts, to reproduce the performance of the sync with
+ * the data of a real address book without the device it is on.
+ * 
+ * Display names and labels are replaced by random tokens of the same length, keeping spaces, so
+ * that titles have the same length. Lookup keys and account names are replaced by salted hashes,
+ * contact ids are renumbered. The same value is always replaced by the same token, so duplicates
+ * and contacts with several events stay recognizable. Date strings, event types, and account
+ * types are kept, they decide which parsing and deduplication paths the sync takes.
+ * 
+ * The trace is gzip compressed. Every string is written once and afterwards referenced by its
+ * index, because the same account types and names repeat in every row.
+ */
+public final class ContactTrace {
+    private static final int MAGIC = 0x42415452; // "BATR"
+    private static final int VERSION = 1;
+
+    /* references of strings: null, a new string following, or STRING_INDEX + index */
+    private static final int STRING_NULL = 0;
+    private static final int STRING_NEW = 1;
+    private static final int STRING_INDEX = 2;
+
+    private static final String TOKEN_CHARS = "abcdefghijklmnopqrstuvwxyz";
+
+    private ContactTrace() {
+    }
+
+    /**
+     * Anonymizes contact events and writes them as trace. The contact events are not modified.
+     * 
+     * @param contactEvents
+     *            rows as returned by ContactSource.getContactEvents()
+     * @param out
+     *            closed afterwards
+     * @param random
+     *            source of tokens and salt, should be a SecureRandom on devices
+     * @throws IOException
+     */
+    public static void write(List<ContactEvent> contactEvents, OutputStream out, Random random)
+            throws IOException {
+        byte[] salt = new byte[16];
+        random.nextBytes(salt);
+
+        HashMap<String, String> tokens = new HashMap<String, String>();
+        HashMap<String, String> hashes = new HashMap<String, String>();
+        HashMap<Long, Long> contactIds = new HashMap<Long, Long>();
+        HashMap<String, Integer> strings = new HashMap<String, Integer>();
+
+        DataOutputStream data = new DataOutputStream(new BufferedOutputStream(
+                new GZIPOutputStream(out)));
+        try {
+            data.writeInt(MAGIC);
+            data.writeByte(VERSION);
+            writeVarInt(data, contactEvents.size());
+
+            for (ContactEvent contactEvent : contactEvents) {
+                Long contactId = contactIds.get(contactEvent.contactId);
+                if (contactId == null) {
+                    contactId = Long.valueOf(contactIds.size() + 1);
+                    contactIds.put(contactEvent.contactId, contactId);
+                }
+
+                writeVarInt(data, contactId.intValue());
+                writeString(data, strings, hash(hashes, salt, contactEvent.lookupKey));
+                writeString(data, strings, token(tokens, random, contactEvent.displayName));
+                writeVarInt(data, contactEvent.eventType);
+                writeString(data, strings, token(tokens, random, contactEvent.eventCustomLabel));
+                writeString(data, strings, contactEvent.eventDateString);
+                writeString(data, strings, contactEvent.accountType);
+                writeString(data, strings, hash(hashes, salt, contactEvent.accountName));
+            }
+        } finally {
+            data.close();
+        }
+    }
+
+    /**
+     * Reads the contact events of a trace, with the raw values a ContactSource returns
+     * 
+     * @param in
+     *            closed afterwards
+     * @return
+     * @throws IOException
+     *             if it is not a trace or it is truncated
+     */
+    public static List<ContactEvent> read(InputStream in) throws IOException {
+        DataInputStream data = new DataInputStream(new BufferedInputStream(new GZIPInputStream(
+                in)));
+        try {
+            if (data.readInt() != MAGIC) {
+                throw new IOException("Not a contact trace");
+            }
+            int version = data.readUnsignedByte();
+            if (version != VERSION) {
+                throw new IOException("Unsupported trace version " + version);
+            }
+
+            int count = readVarInt(data);
+            ArrayList<String> strings = new ArrayList<String>();
+            ArrayList<ContactEvent> contactEvents = new ArrayList<ContactEvent>(count);
+            for (int i = 0; i < count; i++) {
+                ContactEvent contactEvent = new ContactEvent();
+                contactEvent.contactId = readVarInt(data);
+                contactEvent.lookupKey = readString(data, strings);
+                contactEvent.displayName = readString(data, strings);
+                contactEvent.eventType = readVarInt(data);
+                contactEvent.eventCustomLabel = readString(data, strings);
+                contactEvent.eventDateString = readString(data, strings);
+                contactEvent.accountType = readString(data, strings);
+                contactEvent.accountName = readString(data, strings);
+                contactEvents.add(contactEvent);
+            }
+            return contactEvents;
+        } finally {
+            data.close();
+        }
+    }
+
+    /**
+     * Random token of the same length as value, keeping spaces. The same value always gets the
+     * same token.
+     */
+    private static String token(HashMap<String, String> tokens, Random random, String value) {
+        if (value == null) {
+            return null;
+        }
+
+        String token = tokens.get(value);
+        if (token == null) {
+            StringBuilder builder = new StringBuilder(value.length());
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                builder.append(Character.isWhitespace(c) ? c : TOKEN_CHARS.charAt(random
+                        .nextInt(TOKEN_CHARS.length())));
+            }
+            token = builder.toString();
+            tokens.put(value, token);
+        }
+        return token;
+    }
+
+    /**
+     * Salted hash of value, the salt is only known while writing the trace
+     */
+    private static String hash(HashMap<String, String> hashes, byte[] salt, String value) {
+        if (value == null) {
+            return null;
+        }
+
+        String hash = hashes.get(value);
+        if (hash == null) {
+            try {
+                MessageDigest digest = MessageDigest.getInstance("SHA-256");
+                digest.update(salt);
+                byte[] bytes = digest.digest(value.getBytes("UTF-8"));
+
+                hash = SyncRules.toHex(bytes, 16);
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException("SHA-256 not available", e);
+            } catch (UnsupportedEncodingException e) {
+                throw new IllegalStateException("UTF-8 not available", e);
+            }
+            hashes.put(value, hash);
+        }
+        return hash;
+    }
+
+    private static void writeString(DataOutputStream data, HashMap<String, Integer> strings,
+            String value) throws IOException {
+        if (value == null) {
+            writeVarInt(data, STRING_NULL);
+            return;
+        }
+
+        Integer index = strings.get(value);
+        if (index == null) {
+            strings.put(value, strings.size());
+            writeVarInt(data, STRING_NEW);
+            data.writeUTF(value);
+        } else {
+            writeVarInt(data, STRING_INDEX + index);
+        }
+    }
+
+    private static String readString(DataInputStream data, ArrayList<String> strings)
+            throws IOException {
+        int reference = readVarInt(data);
+        if (reference == STRING_NULL) {
+            return null;
+        } else if (reference == STRING_NEW) {
+            String value = data.readUTF();
+            strings.add(value);
+            return value;
+        }
+
+        int index = reference - STRING_INDEX;
+        if (index >= strings.size()) {
+            throw new IOException("Invalid string reference " + reference);
+        }
+        return strings.get(index);
+    }
+
+    /**
+     * Writes a non-negative int with 7 bits per byte, small values take one byte
+     */
+    private static void writeVarInt(DataOutputStream data, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            data.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        data.writeByte(value);
+    }
+
+    private static int readVarInt(DataInputStream data) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            int b = data.readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Invalid varint");
+    }
+}
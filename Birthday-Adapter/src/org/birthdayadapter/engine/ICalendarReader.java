@@ -0,0 +1,322 @@
+/*
+ * Copyright (C) 2012-2013 Dominik Schürmann <dominik@dominikschuermann.de>
+ *
+ * This file is part of Birthday Adapter.
+ * 
+ * Birthday Adapter is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Birthday Adapter is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Birthday Adapter.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.birthdayadapter.engine;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Calendar;
+import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * Streaming reader of iCalendar (RFC 5545) files as written by ICalendarWriter. A file may contain
+ * several calendars, one for each calendar of Birthday Adapter, and their events are read one at a
+ * time, so files of any size are read with constant memory.
+ * 
+ * Only what the events of a birthday calendar consist of is read: the date of DTSTART, SUMMARY,
+ * alarms relative to the event, and the X-properties of ICalendarWriter. Content lines have the
+ * syntax of vCard, so the helpers of VCardReader are used to split them.
+ */
+public class ICalendarReader {
+    private final BufferedReader mReader;
+    private final Calendar mUtc = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+
+    /* line read ahead to find folded continuation lines */
+    private String mNextLine;
+
+    /* first line of the current calendar that is not a calendar property */
+    private String mPendingLine;
+
+    private boolean mInCalendar;
+    private String mCalendarName;
+    private String mCalendarDisplayName;
+
+    public ICalendarReader(Reader reader) {
+        mReader = reader instanceof BufferedReader ? (BufferedReader) reader
+                : new BufferedReader(reader, 64 * 1024);
+    }
+
+    /**
+     * Skips the rest of the current calendar and reads the properties of the next one
+     * 
+     * @return false at the end of the file
+     * @throws IOException
+     */
+    public boolean nextCalendar() throws IOException {
+        String line;
+        while (mInCalendar && (line = readContentLine()) != null) {
+            if (line.equalsIgnoreCase("END:VCALENDAR")) {
+                mInCalendar = false;
+            }
+        }
+
+        do {
+            line = readContentLine();
+            if (line == null) {
+                return false;
+            }
+        } while (!line.equalsIgnoreCase("BEGIN:VCALENDAR"));
+
+        mInCalendar = true;
+        mCalendarName = null;
+        mCalendarDisplayName = null;
+
+        // calendar properties come before the components
+        while ((line = readContentLine()) != null) {
+            int colon = VCardReader.indexOfValue(line);
+            String name = colon == -1 ? "" : VCardReader.getPropertyName(line.substring(0, colon));
+            if (name.equals("BEGIN") || name.equals("END")) {
+                mPendingLine = line;
+                break;
+            } else if (name.equals(ICalendarWriter.PROPERTY_CALENDAR)) {
+                mCalendarName = VCardReader.unescape(line.substring(colon + 1));
+            } else if (name.equals("X-WR-CALNAME")) {
+                mCalendarDisplayName = VCardReader.unescape(line.substring(colon + 1));
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return Calendars.NAME of the current calendar, null if it was not written by Birthday
+     *         Adapter
+     */
+    public String getCalendarName() {
+        return mCalendarName;
+    }
+
+    /**
+     * @return display name of the current calendar, null if there is none
+     */
+    public String getCalendarDisplayName() {
+        return mCalendarDisplayName;
+    }
+
+    /**
+     * Reads the next event of the current calendar. Events without a date are skipped. The read
+     * events are in no calendar yet, so their id and calendar id are -1.
+     * 
+     * @param reminderMinutes
+     *            is filled with the reminders of the event, in minutes before its start
+     * @return null at the end of the current calendar
+     * @throws IOException
+     */
+    public CalendarEvent nextEvent(List<Integer> reminderMinutes) throws IOException {
+        String line;
+        while (mInCalendar && (line = readContentLine()) != null) {
+            if (line.equalsIgnoreCase("END:VCALENDAR")) {
+                mInCalendar = false;
+            } else if (line.equalsIgnoreCase("BEGIN:VEVENT")) {
+                reminderMinutes.clear();
+                CalendarEvent event = readEvent(reminderMinutes);
+                if (event != null) {
+                    return event;
+                }
+            }
+            // other components, e.g., VTIMEZONE, are skipped line by line
+        }
+
+        mInCalendar = false;
+        reminderMinutes.clear();
+        return null;
+    }
+
+    public void close() throws IOException {
+        mReader.close();
+    }
+
+    /**
+     * Reads the properties of an event up to END:VEVENT
+     * 
+     * @return null if the event has no date or the file ends in it
+     */
+    private CalendarEvent readEvent(List<Integer> reminderMinutes) throws IOException {
+        long start = -1;
+        String title = null;
+        String lookupKey = null;
+        String fingerprint = null;
+
+        boolean inAlarm = false;
+        Integer alarmMinutes = null;
+        String line;
+        while ((line = readContentLine()) != null) {
+            int colon = VCardReader.indexOfValue(line);
+            if (colon == -1) {
+                continue;
+            }
+            String nameAndParameters = line.substring(0, colon);
+            String name = VCardReader.getPropertyName(nameAndParameters);
+            String value = line.substring(colon + 1);
+
+            if (name.equals("END") && value.equalsIgnoreCase("VEVENT")) {
+                return start == -1 ? null : new CalendarEvent(-1, -1, fingerprint, lookupKey,
+                        start, title);
+            } else if (name.equals("BEGIN") && value.equalsIgnoreCase("VALARM")) {
+                inAlarm = true;
+                alarmMinutes = null;
+            } else if (name.equals("END") && value.equalsIgnoreCase("VALARM")) {
+                inAlarm = false;
+                if (alarmMinutes != null) {
+                    reminderMinutes.add(alarmMinutes);
+                }
+            } else if (inAlarm) {
+                if (name.equals("TRIGGER")) {
+                    alarmMinutes = parseTrigger(nameAndParameters, value);
+                }
+            } else if (name.equals("DTSTART")) {
+                start = parseDate(value);
+            } else if (name.equals("SUMMARY")) {
+                title = VCardReader.unescape(value);
+            } else if (name.equals(ICalendarWriter.PROPERTY_LOOKUP_KEY)) {
+                lookupKey = VCardReader.unescape(value);
+            } else if (name.equals(ICalendarWriter.PROPERTY_FINGERPRINT)) {
+                fingerprint = VCardReader.unescape(value);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Start of the all-day event of a DATE or the date of a DATE-TIME, -1 if it is malformed
+     */
+    private long parseDate(String value) {
+        if (value.length() < 8) {
+            return -1;
+        }
+        int date = 0;
+        for (int i = 0; i < 8; i++) {
+            int digit = Character.digit(value.charAt(i), 10);
+            if (digit == -1) {
+                return -1;
+            }
+            date = date * 10 + digit;
+        }
+
+        mUtc.clear();
+        mUtc.set(date / 10000, date / 100 % 100 - 1, date % 100);
+        return mUtc.getTimeInMillis();
+    }
+
+    /**
+     * Minutes before the start of the event of a TRIGGER with a duration, e.g., 900 for -PT900M.
+     * Triggers related to the end are converted with the end of the all-day event.
+     * 
+     * @return null for absolute triggers or malformed durations
+     */
+    private static Integer parseTrigger(String nameAndParameters, String value) {
+        String parameters = nameAndParameters.toUpperCase(Locale.US);
+        if (parameters.contains("VALUE=DATE-TIME")) {
+            return null;
+        }
+
+        int i = 0;
+        int sign = 1;
+        if (i < value.length() && (value.charAt(i) == '-' || value.charAt(i) == '+')) {
+            sign = value.charAt(i) == '-' ? -1 : 1;
+            i++;
+        }
+        if (i >= value.length() || value.charAt(i) != 'P') {
+            return null;
+        }
+        i++;
+
+        long seconds = 0;
+        long number = -1;
+        for (; i < value.length(); i++) {
+            char c = value.charAt(i);
+            int digit = Character.digit(c, 10);
+            if (digit != -1) {
+                number = (number == -1 ? 0 : number * 10) + digit;
+                continue;
+            }
+            if (c == 'T') {
+                continue;
+            }
+            if (number == -1) {
+                return null;
+            }
+            switch (c) {
+            case 'W':
+                seconds += number * 7 * 24 * 60 * 60;
+                break;
+            case 'D':
+                seconds += number * 24 * 60 * 60;
+                break;
+            case 'H':
+                seconds += number * 60 * 60;
+                break;
+            case 'M':
+                seconds += number * 60;
+                break;
+            case 'S':
+                seconds += number;
+                break;
+            default:
+                return null;
+            }
+            number = -1;
+        }
+        if (number != -1) {
+            return null;
+        }
+
+        long minutes = -sign * seconds / 60;
+        if (parameters.contains("RELATED=END")) {
+            minutes -= SyncRules.DAY_IN_MILLIS / (60 * 1000);
+        }
+        return (int) minutes;
+    }
+
+    /**
+     * Reads one content line, joining folded lines. The pending line of nextCalendar() comes
+     * first.
+     */
+    private String readContentLine() throws IOException {
+        if (mPendingLine != null) {
+            String line = mPendingLine;
+            mPendingLine = null;
+            return line;
+        }
+
+        String line = mNextLine != null ? mNextLine : mReader.readLine();
+        mNextLine = null;
+        if (line == null) {
+            return null;
+        }
+
+        StringBuilder builder = null;
+        String next;
+        while ((next = mReader.readLine()) != null) {
+            if (next.length() > 0 && (next.charAt(0) == ' ' || next.charAt(0) == '\t')) {
+                if (builder == null) {
+                    builder = new StringBuilder(line);
+                }
+                builder.append(next, 1, next.length());
+            } else {
+                mNextLine = next;
+                break;
+            }
+        }
+        return builder == null ? line : builder.toString();
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2012-2013 Dominik Schürmann <dominik@dominikschuermann.de>
+ *
+ * This file is part of Birthday Adapter.
+ * 
+ * Birthday Adapter is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Birthday Adapter is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Birthday Adapter.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.birthdayadapter.engine;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * CalendarSink writing inserted events to an iCalendar file instead of a calendar, so that the
+ * sync generates the same events for a file as for the calendar on the device. The file starts
+ * empty and is only appended to, so only inserts are supported and no events are read.
+ */
+public class ICalendarSink implements CalendarSink {
+    private final ICalendarWriter mWriter;
+    private IOException mError;
+    private int mEventCount;
+
+    public ICalendarSink(ICalendarWriter writer) {
+        mWriter = writer;
+    }
+
+    @Override
+    public List<CalendarEvent> getEvents(long calendarId, String lookupKey) {
+        return new ArrayList<CalendarEvent>();
+    }
+
+    @Override
+    public int[] applyBatch(List<SinkOperation> operations) {
+        if (mError != null) {
+            return null;
+        }
+
+        // reminders follow their event in the batch, events are written when all are known
+        LinkedHashMap<CalendarEvent, List<Integer>> events =
+                new LinkedHashMap<CalendarEvent, List<Integer>>();
+        CalendarEvent[] eventsByPosition = new CalendarEvent[operations.size()];
+        int[] results = new int[operations.size()];
+
+        for (int i = 0; i < operations.size(); i++) {
+            SinkOperation operation = operations.get(i);
+            if (operation.type == SinkOperation.TYPE_INSERT_EVENT) {
+                CalendarEvent event = new CalendarEvent(i, operation.calendarId,
+                        operation.fingerprint, operation.lookupKey, operation.start,
+                        operation.title);
+                eventsByPosition[i] = event;
+                events.put(event, new ArrayList<Integer>());
+                results[i] = 1;
+            } else if (operation.type == SinkOperation.TYPE_INSERT_REMINDER) {
+                int backReference = operation.eventBackReference;
+                if (backReference >= 0 && backReference < i
+                        && eventsByPosition[backReference] != null) {
+                    events.get(eventsByPosition[backReference]).add(operation.minutes);
+                    results[i] = 1;
+                }
+            }
+        }
+
+        try {
+            for (Map.Entry<CalendarEvent, List<Integer>> entry : events.entrySet()) {
+                mWriter.writeEvent(entry.getKey(), entry.getValue());
+                mEventCount++;
+            }
+        } catch (IOException e) {
+            mError = e;
+            return null;
+        }
+        return results;
+    }
+
+    public int getEventCount() {
+        return mEventCount;
+    }
+
+    /**
+     * First error writing the file, later batches are not written anymore
+     * 
+     * @return null if there was no error
+     */
+    public IOException getError() {
+        return mError;
+    }
+}
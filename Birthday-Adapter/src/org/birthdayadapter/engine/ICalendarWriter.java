@@ -0,0 +1,223 @@
+/*
+ * Copyright (C) 2012-2013 Dominik Schürmann <dominik@dominikschuermann.de>
+ *
+ * This file is part of Birthday Adapter.
+ * 
+ * Birthday Adapter is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Birthday Adapter is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Birthday Adapter.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.birthdayadapter.engine;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Calendar;
+import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * Writes events as iCalendar (RFC 5545) to a stream, one event at a time, so that calendars of
+ * any size are written with constant memory. Events are all-day events with their reminders as
+ * display alarms. Lookup key and fingerprint are kept in X-properties, so that imported events
+ * are recognized by the incremental sync like the ones it wrote itself.
+ */
+public class ICalendarWriter {
+    public static final String PRODUCT_ID = "-//Birthday Adapter//NONSGML Birthday Adapter//EN";
+    public static final String PROPERTY_LOOKUP_KEY = "X-BIRTHDAYADAPTER-LOOKUP-KEY";
+    public static final String PROPERTY_FINGERPRINT = "X-BIRTHDAYADAPTER-FINGERPRINT";
+    public static final String PROPERTY_CALENDAR = "X-BIRTHDAYADAPTER-CALENDAR";
+
+    /* maximum length of content lines in octets without line break */
+    private static final int MAX_LINE_OCTETS = 75;
+
+    private final Writer mWriter;
+    private final String mTimestamp;
+    private final Calendar mUtc = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+    private final StringBuilder mLine = new StringBuilder();
+    private char[] mChars = new char[256];
+
+    /**
+     * @param writer
+     * @param timestamp
+     *            creation time of the events in milliseconds since the epoch, written as DTSTAMP
+     */
+    public ICalendarWriter(Writer writer, long timestamp) {
+        mWriter = writer;
+        mUtc.setTimeInMillis(timestamp);
+        mTimestamp = String.format(Locale.US, "%04d%02d%02dT%02d%02d%02dZ", mUtc.get(Calendar.YEAR),
+                mUtc.get(Calendar.MONTH) + 1, mUtc.get(Calendar.DAY_OF_MONTH),
+                mUtc.get(Calendar.HOUR_OF_DAY), mUtc.get(Calendar.MINUTE),
+                mUtc.get(Calendar.SECOND));
+    }
+
+    /**
+     * @param calendarName
+     *            shown by calendar apps when importing, null for none
+     * @throws IOException
+     */
+    public void writeHeader(String calendarName) throws IOException {
+        writeHeader(calendarName, null);
+    }
+
+    /**
+     * Starts a calendar of Birthday Adapter. Files may contain several calendars, each starting
+     * with a header and ending with a footer.
+     * 
+     * @param calendarName
+     *            shown by calendar apps when importing, null for none
+     * @param name
+     *            Calendars.NAME of the calendar, used by ICalendarReader to restore events into
+     *            the same calendar, null for none
+     * @throws IOException
+     */
+    public void writeHeader(String calendarName, String name) throws IOException {
+        writeLine("BEGIN:VCALENDAR");
+        writeLine("VERSION:2.0");
+        writeLine("PRODID:" + PRODUCT_ID);
+        writeLine("CALSCALE:GREGORIAN");
+        if (calendarName != null) {
+            writeProperty("X-WR-CALNAME", calendarName);
+        }
+        if (name != null) {
+            writeProperty(PROPERTY_CALENDAR, name);
+        }
+    }
+
+    /**
+     * Writes an all-day event with its reminders. The UID is derived from the fingerprint and the
+     * year, so that the same event gets the same UID in every export.
+     * 
+     * @param event
+     * @param reminderMinutes
+     *            minutes before the start of the event, negative for reminders after it
+     * @throws IOException
+     */
+    public void writeEvent(CalendarEvent event, List<Integer> reminderMinutes)
+            throws IOException {
+        mUtc.setTimeInMillis(event.start);
+        int year = mUtc.get(Calendar.YEAR);
+        String start = formatDate(year, mUtc.get(Calendar.MONTH) + 1,
+                mUtc.get(Calendar.DAY_OF_MONTH));
+        mUtc.setTimeInMillis(event.start + SyncRules.DAY_IN_MILLIS);
+        String end = formatDate(mUtc.get(Calendar.YEAR), mUtc.get(Calendar.MONTH) + 1,
+                mUtc.get(Calendar.DAY_OF_MONTH));
+
+        writeLine("BEGIN:VEVENT");
+        if (event.fingerprint != null) {
+            writeLine("UID:" + event.fingerprint + "-" + year + "@birthdayadapter.org");
+        } else {
+            writeLine("UID:event-" + event.id + "@birthdayadapter.org");
+        }
+        writeLine("DTSTAMP:" + mTimestamp);
+        writeLine("DTSTART;VALUE=DATE:" + start);
+        writeLine("DTEND;VALUE=DATE:" + end);
+        writeProperty("SUMMARY", event.title);
+        writeLine("TRANSP:TRANSPARENT");
+        if (event.lookupKey != null) {
+            writeProperty(PROPERTY_LOOKUP_KEY, event.lookupKey);
+        }
+        if (event.fingerprint != null) {
+            writeProperty(PROPERTY_FINGERPRINT, event.fingerprint);
+        }
+
+        for (int minutes : reminderMinutes) {
+            writeLine("BEGIN:VALARM");
+            writeLine("ACTION:DISPLAY");
+            writeProperty("DESCRIPTION", event.title);
+            writeLine("TRIGGER:" + (minutes >= 0 ? "-PT" + minutes : "PT" + -minutes) + "M");
+            writeLine("END:VALARM");
+        }
+        writeLine("END:VEVENT");
+    }
+
+    public void writeFooter() throws IOException {
+        writeLine("END:VCALENDAR");
+    }
+
+    public void flush() throws IOException {
+        mWriter.flush();
+    }
+
+    private static String formatDate(int year, int month, int day) {
+        char[] date = new char[8];
+        for (int i = 3; i >= 0; i--) {
+            date[i] = (char) ('0' + year % 10);
+            year /= 10;
+        }
+        date[4] = (char) ('0' + month / 10);
+        date[5] = (char) ('0' + month % 10);
+        date[6] = (char) ('0' + day / 10);
+        date[7] = (char) ('0' + day % 10);
+        return new String(date);
+    }
+
+    /**
+     * Writes a property with a text value, escaping it
+     */
+    private void writeProperty(String name, String text) throws IOException {
+        mLine.setLength(0);
+        mLine.append(name).append(':');
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '\\' || c == ';' || c == ',') {
+                mLine.append('\\').append(c);
+            } else if (c == '\n') {
+                mLine.append("\\n");
+            } else if (c != '\r') {
+                mLine.append(c);
+            }
+        }
+        writeFolded(mLine);
+    }
+
+    private void writeLine(String line) throws IOException {
+        mLine.setLength(0);
+        mLine.append(line);
+        writeFolded(mLine);
+    }
+
+    /**
+     * Writes a content line, folded after MAX_LINE_OCTETS octets of UTF-8 without splitting
+     * characters
+     */
+    private void writeFolded(StringBuilder line) throws IOException {
+        // written from an array, appending parts of the builder would copy them to strings
+        if (mChars.length < line.length()) {
+            mChars = new char[line.length() * 2];
+        }
+        line.getChars(0, line.length(), mChars, 0);
+
+        int octets = 0;
+        int start = 0;
+        for (int i = 0; i < line.length(); i++) {
+            char c = mChars[i];
+            int length = c < 0x80 ? 1 : c < 0x800 ? 2 : Character.isHighSurrogate(c) ? 4 : 3;
+            if (octets + length > MAX_LINE_OCTETS) {
+                mWriter.write(mChars, start, i - start);
+                mWriter.write("\r\n ");
+                start = i;
+                // the space of the continuation line counts as well
+                octets = 1;
+            }
+            octets += length;
+            if (length == 4) {
+                // low surrogate belongs to the same character
+                i++;
+            }
+        }
+        mWriter.write(mChars, start, line.length() - start);
+        mWriter.write("\r\n");
+    }
+}
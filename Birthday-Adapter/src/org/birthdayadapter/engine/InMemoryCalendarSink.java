@@ -0,0 +1,259 @@
+/*
+ * Copyright (C) 2012-2013 Dominik Schürmann <dominik@dominikschuermann.de>
+ *
+ * This file is part of Birthday Adapter.
+ * 
+ * Birthday Adapter is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Birthday Adapter is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Birthday Adapter.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.birthdayadapter.engine;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * CalendarSink keeping events and reminders in memory, stands in for the calendar provider when
+ * the sync runs without Android. It follows the semantics the sync relies on:
+ * 
+ * - Reminders reference their event by a back reference into the same batch.
+ * 
+ * - Deleting an event deletes its reminders.
+ * 
+ * - A batch is applied completely or not at all. Batches with more than the maximum number of
+ * operations are rejected, like a failing binder transaction.
+ * 
+ * The number of batches and operations is counted to compare the costs of syncs.
+ */
+public class InMemoryCalendarSink implements CalendarSink {
+    private final int mMaxBatchSize;
+
+    private final LinkedHashMap<Long, CalendarEvent> mEvents =
+            new LinkedHashMap<Long, CalendarEvent>();
+    private final HashMap<Long, ArrayList<Integer>> mReminders =
+            new HashMap<Long, ArrayList<Integer>>();
+    private final HashMap<Long, Integer> mCalendarColors = new HashMap<Long, Integer>();
+    private long mNextEventId = 1;
+
+    private int mBatchCount;
+    private int mOperationCount;
+    private int mRejectedBatchCount;
+    private int mQueryCount;
+
+    /**
+     * @param maxBatchSize
+     *            batches with more operations are rejected, 0 for no limit
+     */
+    public InMemoryCalendarSink(int maxBatchSize) {
+        mMaxBatchSize = maxBatchSize;
+    }
+
+    @Override
+    public synchronized List<CalendarEvent> getEvents(long calendarId, String lookupKey) {
+        mQueryCount++;
+
+        ArrayList<CalendarEvent> result = new ArrayList<CalendarEvent>();
+        for (CalendarEvent event : mEvents.values()) {
+            if (event.calendarId == calendarId
+                    && (lookupKey == null || lookupKey.equals(event.lookupKey))) {
+                result.add(event);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public synchronized int[] applyBatch(List<SinkOperation> operations) {
+        if ((mMaxBatchSize > 0 && operations.size() > mMaxBatchSize) || !isValid(operations)) {
+            mRejectedBatchCount++;
+            return null;
+        }
+
+        mBatchCount++;
+        mOperationCount += operations.size();
+
+        int[] results = new int[operations.size()];
+        long[] insertedIds = new long[operations.size()];
+        for (int i = 0; i < operations.size(); i++) {
+            SinkOperation operation = operations.get(i);
+            switch (operation.type) {
+            case SinkOperation.TYPE_INSERT_EVENT:
+                insertedIds[i] = mNextEventId++;
+                mEvents.put(insertedIds[i], new CalendarEvent(insertedIds[i],
+                        operation.calendarId, operation.fingerprint, operation.lookupKey,
+                        operation.start, operation.title));
+                results[i] = 1;
+                break;
+
+            case SinkOperation.TYPE_INSERT_REMINDER:
+                addReminder(insertedIds[operation.eventBackReference], operation.minutes);
+                results[i] = 1;
+                break;
+
+            case SinkOperation.TYPE_DELETE_EVENT:
+                results[i] = deleteEvent(operation.eventId) ? 1 : 0;
+                break;
+
+            case SinkOperation.TYPE_DELETE_EVENTS:
+                ArrayList<Long> eventIds = new ArrayList<Long>();
+                for (CalendarEvent event : mEvents.values()) {
+                    if (event.calendarId == operation.calendarId
+                            && (operation.fingerprint == null ? event.fingerprint == null
+                                    : operation.fingerprint.equals(event.fingerprint))) {
+                        eventIds.add(event.id);
+                    }
+                }
+                for (long id : eventIds) {
+                    deleteEvent(id);
+                }
+                results[i] = eventIds.size();
+                break;
+
+            case SinkOperation.TYPE_DELETE_ALL_EVENTS:
+                ArrayList<Long> calendarEventIds = new ArrayList<Long>();
+                for (CalendarEvent event : mEvents.values()) {
+                    if (event.calendarId == operation.calendarId) {
+                        calendarEventIds.add(event.id);
+                    }
+                }
+                for (long id : calendarEventIds) {
+                    deleteEvent(id);
+                }
+                results[i] = calendarEventIds.size();
+                break;
+
+            case SinkOperation.TYPE_DELETE_REMINDERS:
+                ArrayList<Integer> deletedMinutes = mReminders.remove(operation.eventId);
+                results[i] = (deletedMinutes != null) ? deletedMinutes.size() : 0;
+                break;
+
+            case SinkOperation.TYPE_ADD_REMINDER:
+                if (mEvents.containsKey(operation.eventId)) {
+                    addReminder(operation.eventId, operation.minutes);
+                    results[i] = 1;
+                }
+                break;
+
+            case SinkOperation.TYPE_UPDATE_COLOR:
+                mCalendarColors.put(operation.calendarId, operation.color);
+                results[i] = 1;
+                break;
+
+            case SinkOperation.TYPE_UPDATE_TITLE:
+                CalendarEvent event = mEvents.get(operation.eventId);
+                if (event != null) {
+                    mEvents.put(event.id, new CalendarEvent(event.id, event.calendarId,
+                            event.fingerprint, event.lookupKey, event.start, operation.title));
+                    results[i] = 1;
+                }
+                break;
+
+            default:
+                break;
+            }
+        }
+
+        return results;
+    }
+
+    /**
+     * Back references must point to events inserted earlier in the same batch
+     */
+    private static boolean isValid(List<SinkOperation> operations) {
+        for (int i = 0; i < operations.size(); i++) {
+            SinkOperation operation = operations.get(i);
+            if (operation.type != SinkOperation.TYPE_INSERT_REMINDER) {
+                continue;
+            }
+            int backRef = operation.eventBackReference;
+            if (backRef < 0 || backRef >= i
+                    || operations.get(backRef).type != SinkOperation.TYPE_INSERT_EVENT) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void addReminder(long eventId, int minutes) {
+        ArrayList<Integer> eventMinutes = mReminders.get(eventId);
+        if (eventMinutes == null) {
+            eventMinutes = new ArrayList<Integer>();
+            mReminders.put(eventId, eventMinutes);
+        }
+        eventMinutes.add(minutes);
+    }
+
+    private boolean deleteEvent(long eventId) {
+        mReminders.remove(eventId);
+        return mEvents.remove(eventId) != null;
+    }
+
+    /**
+     * Reminder minutes of an event, empty if it has none
+     */
+    public synchronized List<Integer> getReminders(long eventId) {
+        ArrayList<Integer> minutes = mReminders.get(eventId);
+        if (minutes == null) {
+            return new ArrayList<Integer>();
+        }
+        return new ArrayList<Integer>(minutes);
+    }
+
+    /**
+     * Color of a calendar, null if it was never set
+     */
+    public synchronized Integer getCalendarColor(long calendarId) {
+        return mCalendarColors.get(calendarId);
+    }
+
+    public synchronized int getEventCount() {
+        return mEvents.size();
+    }
+
+    public synchronized int getReminderCount() {
+        int count = 0;
+        for (ArrayList<Integer> minutes : mReminders.values()) {
+            count += minutes.size();
+        }
+        return count;
+    }
+
+    public synchronized int getBatchCount() {
+        return mBatchCount;
+    }
+
+    public synchronized int getOperationCount() {
+        return mOperationCount;
+    }
+
+    public synchronized int getRejectedBatchCount() {
+        return mRejectedBatchCount;
+    }
+
+    public synchronized int getQueryCount() {
+        return mQueryCount;
+    }
+
+    /**
+     * Resets the counters, e.g., after setting up the calendar for a measurement
+     */
+    public synchronized void resetCounters() {
+        mBatchCount = 0;
+        mOperationCount = 0;
+        mRejectedBatchCount = 0;
+        mQueryCount = 0;
+    }
+}
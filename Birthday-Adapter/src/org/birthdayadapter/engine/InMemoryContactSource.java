@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2012-2013 Dominik Schürmann <dominik@dominikschuermann.de>
+ *
+ * This file is part of Birthday Adapter.
+ * 
+ * Birthday Adapter is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Birthday Adapter is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Birthday Adapter.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.birthdayadapter.engine;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * ContactSource keeping contact events in memory, stands in for the contacts provider when the
+ * sync runs without Android. Filters of the preferences are not applied, only contact events that
+ * would pass them should be added.
+ */
+public class InMemoryContactSource implements ContactSource {
+    private final ArrayList<ContactEvent> mContactEvents = new ArrayList<ContactEvent>();
+
+    /**
+     * Adds an event to a contact, like a row of the data table of the contacts provider
+     * 
+     * @param contactId
+     * @param lookupKey
+     * @param displayName
+     * @param eventType
+     *            one of ContactEvent.TYPE_*
+     * @param eventCustomLabel
+     *            label of TYPE_CUSTOM, otherwise null
+     * @param eventDateString
+     *            date as stored in contacts, see SyncRules.parseEventDateString()
+     * @param accountType
+     *            null for local contacts
+     * @param accountName
+     */
+    public synchronized void addContactEvent(long contactId, String lookupKey, String displayName,
+            int eventType, String eventCustomLabel, String eventDateString, String accountType,
+            String accountName) {
+        ContactEvent contactEvent = new ContactEvent();
+        contactEvent.contactId = contactId;
+        contactEvent.lookupKey = lookupKey;
+        contactEvent.displayName = displayName;
+        contactEvent.eventType = eventType;
+        contactEvent.eventCustomLabel = eventCustomLabel;
+        contactEvent.eventDateString = eventDateString;
+        contactEvent.accountType = accountType;
+        contactEvent.accountName = accountName;
+        mContactEvents.add(contactEvent);
+    }
+
+    /**
+     * Removes all events of a contact
+     * 
+     * @param lookupKey
+     * @return number of removed contact events
+     */
+    public synchronized int removeContact(String lookupKey) {
+        int removed = 0;
+        for (int i = mContactEvents.size() - 1; i >= 0; i--) {
+            if (lookupKey.equals(mContactEvents.get(i).lookupKey)) {
+                mContactEvents.remove(i);
+                removed++;
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Renames a contact, i.e., changes the display name of all its events
+     */
+    public synchronized void renameContact(String lookupKey, String displayName) {
+        for (ContactEvent contactEvent : mContactEvents) {
+            if (lookupKey.equals(contactEvent.lookupKey)) {
+                contactEvent.displayName = displayName;
+            }
+        }
+    }
+
+    public synchronized int size() {
+        return mContactEvents.size();
+    }
+
+    /**
+     * Returns new objects on every call, because the sync sets dates, calendars, and years on them
+     */
+    @Override
+    public synchronized List<ContactEvent> getContactEvents(String lookupKey) {
+        ArrayList<ContactEvent> result = new ArrayList<ContactEvent>();
+        for (ContactEvent contactEvent : mContactEvents) {
+            if (lookupKey != null && !lookupKey.equals(contactEvent.lookupKey)) {
+                continue;
+            }
+
+            ContactEvent copy = new ContactEvent();
+            copy.contactId = contactEvent.contactId;
+            copy.lookupKey = contactEvent.lookupKey;
+            copy.displayName = contactEvent.displayName;
+            copy.eventType = contactEvent.eventType;
+            copy.eventCustomLabel = contactEvent.eventCustomLabel;
+            copy.eventDateString = contactEvent.eventDateString;
+            copy.accountType = contactEvent.accountType;
+            copy.accountName = contactEvent.accountName;
+            result.add(copy);
+        }
+        return result;
+    }
+}
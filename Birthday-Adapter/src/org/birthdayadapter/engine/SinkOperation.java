@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2012-2013 Dominik Schürmann <dominik@dominikschuermann.de>
+ *
+ * This file is part of Birthday Adapter.
+ * 
+ * Birthday Adapter is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Birthday Adapter is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Birthday Adapter.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.birthdayadapter.engine;
+
+/**
+ * Write operation on a CalendarSink, created by the static methods. The sink may yield between
+ * operations, but never between the operations on the reminders of one event and the operation
+ * before them on the same event.
+ */
+public class SinkOperation {
+    public static final int TYPE_INSERT_EVENT = 0;
+    public static final int TYPE_INSERT_REMINDER = 1;
+    public static final int TYPE_DELETE_EVENT = 2;
+    public static final int TYPE_DELETE_EVENTS = 3;
+    public static final int TYPE_UPDATE_TITLE = 4;
+    public static final int TYPE_DELETE_ALL_EVENTS = 5;
+    public static final int TYPE_DELETE_REMINDERS = 6;
+    public static final int TYPE_ADD_REMINDER = 7;
+    public static final int TYPE_UPDATE_COLOR = 8;
+
+    public final int type;
+    public final long calendarId;
+
+    /* event id of operations on an existing event */
+    public final long eventId;
+
+    /* position of the event in the same batch a reminder belongs to */
+    public final int eventBackReference;
+
+    public final long start;
+    public final String title;
+    public final String fingerprint;
+    public final String lookupKey;
+    public final int minutes;
+    public final int color;
+
+    private SinkOperation(int type, long calendarId, long eventId, int eventBackReference,
+            long start, String title, String fingerprint, String lookupKey, int minutes,
+            int color) {
+        this.type = type;
+        this.calendarId = calendarId;
+        this.eventId = eventId;
+        this.eventBackReference = eventBackReference;
+        this.start = start;
+        this.title = title;
+        this.fingerprint = fingerprint;
+        this.lookupKey = lookupKey;
+        this.minutes = minutes;
+        this.color = color;
+    }
+
+    /**
+     * Inserts an all-day event starting at start
+     */
+    public static SinkOperation insertEvent(long calendarId, long start, String title,
+            String lookupKey, String fingerprint) {
+        return new SinkOperation(TYPE_INSERT_EVENT, calendarId, -1, -1, start, title,
+                fingerprint, lookupKey, 0, 0);
+    }
+
+    /**
+     * Inserts a reminder for the event inserted at position eventBackReference of the batch
+     */
+    public static SinkOperation insertReminder(int eventBackReference, int minutes) {
+        return new SinkOperation(TYPE_INSERT_REMINDER, -1, -1, eventBackReference, 0, null, null,
+                null, minutes, 0);
+    }
+
+    public static SinkOperation deleteEvent(long eventId) {
+        return new SinkOperation(TYPE_DELETE_EVENT, -1, eventId, -1, 0, null, null, null, 0, 0);
+    }
+
+    /**
+     * Deletes all events of a calendar generated from the contact event with the fingerprint. If
+     * fingerprint is null, events written by older versions without fingerprint are deleted.
+     */
+    public static SinkOperation deleteEvents(long calendarId, String fingerprint) {
+        return new SinkOperation(TYPE_DELETE_EVENTS, calendarId, -1, -1, 0, null, fingerprint,
+                null, 0, 0);
+    }
+
+    public static SinkOperation updateTitle(long eventId, String title) {
+        return new SinkOperation(TYPE_UPDATE_TITLE, -1, eventId, -1, 0, title, null, null, 0,
+                0);
+    }
+
+    /**
+     * Deletes all events of a calendar together with their reminders
+     */
+    public static SinkOperation deleteAllEvents(long calendarId) {
+        return new SinkOperation(TYPE_DELETE_ALL_EVENTS, calendarId, -1, -1, 0, null, null, null,
+                0, 0);
+    }
+
+    public static SinkOperation deleteReminders(long eventId) {
+        return new SinkOperation(TYPE_DELETE_REMINDERS, -1, eventId, -1, 0, null, null, null, 0,
+                0);
+    }
+
+    /**
+     * Inserts a reminder for an existing event, see insertReminder() for events of the same batch
+     */
+    public static SinkOperation addReminder(long eventId, int minutes) {
+        return new SinkOperation(TYPE_ADD_REMINDER, -1, eventId, -1, 0, null, null, null, minutes,
+                0);
+    }
+
+    public static SinkOperation updateColor(long calendarId, int color) {
+        return new SinkOperation(TYPE_UPDATE_COLOR, calendarId, -1, -1, 0, null, null, null, 0,
+                color);
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright (C) 2012-2013 Dominik Schürmann <dominik@dominikschuermann.de>
+ *
+ * This file is part of Birthday Adapter.
+ * 
+ * Birthday Adapter is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Birthday Adapter is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Birthday Adapter.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.birthdayadapter.engine;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Immutable snapshot of all preferences used by a sync. It is loaded once at the start of a sync,
+ * see PreferencesHelper.getSyncConfig(), and passed through the sync, so that the sync does not
+ * read preferences per contact or per event. Without Android, it is created directly.
+ */
+public class SyncConfig {
+    /* minutes of a disabled reminder */
+    public static final int DISABLED_REMINDER = -99999;
+
+    private final int[] mReminderMinutes;
+    private final int mColor;
+    private final boolean mPreferddSlashMM;
+
+    /* indexed like ContactEvent.EVENT_TYPES */
+    private final int[] mYearsBefore;
+    private final int[] mYearsAfter;
+    private final boolean[] mSyncEventTypes;
+
+    private final boolean mStarredOnly;
+    private final Set<String> mSyncedGroups;
+    private final Set<String> mSyncedAccountTypes;
+    private final int mSharding;
+    private final int mScrubBudget;
+
+    /**
+     * Arrays are indexed like ContactEvent.EVENT_TYPES. All values are copied.
+     * 
+     * @param reminderMinutes
+     *            minutes of the three reminders, DISABLED_REMINDER if disabled
+     * @param color
+     * @param preferddSlashMM
+     * @param yearsBefore
+     * @param yearsAfter
+     * @param syncEventTypes
+     * @param starredOnly
+     * @param syncedGroups
+     *            empty to sync all contacts
+     * @param syncedAccountTypes
+     *            empty to sync all accounts
+     * @param sharding
+     *            one of Constants.SHARDING_NONE, SHARDING_EVENT_TYPE, or SHARDING_ACCOUNT
+     * @param scrubBudget
+     *            share of time in percent the scrub may take, clamped to 1..100
+     */
+    public SyncConfig(int[] reminderMinutes, int color, boolean preferddSlashMM,
+            int[] yearsBefore, int[] yearsAfter, boolean[] syncEventTypes, boolean starredOnly,
+            Set<String> syncedGroups, Set<String> syncedAccountTypes, int sharding,
+            int scrubBudget) {
+        mReminderMinutes = reminderMinutes.clone();
+        mColor = color;
+        mPreferddSlashMM = preferddSlashMM;
+        mYearsBefore = yearsBefore.clone();
+        mYearsAfter = yearsAfter.clone();
+        mSyncEventTypes = syncEventTypes.clone();
+        mStarredOnly = starredOnly;
+        // copied, string sets returned by SharedPreferences must not be kept
+        mSyncedGroups = Collections.unmodifiableSet(new HashSet<String>(syncedGroups));
+        mSyncedAccountTypes = Collections.unmodifiableSet(new HashSet<String>(
+                syncedAccountTypes));
+        mSharding = sharding;
+        // the scrub pauses for (100 - budget) / budget of its time, so 0 would divide by zero
+        mScrubBudget = Math.max(1, Math.min(100, scrubBudget));
+    }
+
+    /**
+     * @return minutes of the three reminders, DISABLED_REMINDER if disabled
+     */
+    public int[] getReminderMinutes() {
+        return mReminderMinutes.clone();
+    }
+
+    public int getColor() {
+        return mColor;
+    }
+
+    public boolean getPreferddSlashMM() {
+        return mPreferddSlashMM;
+    }
+
+    /**
+     * @return years before the current year that are synced, indexed like
+     *         ContactEvent.EVENT_TYPES
+     */
+    public int[] getYearsBefore() {
+        return mYearsBefore.clone();
+    }
+
+    /**
+     * @return years after the current year that are synced, indexed like
+     *         ContactEvent.EVENT_TYPES
+     */
+    public int[] getYearsAfter() {
+        return mYearsAfter.clone();
+    }
+
+    /**
+     * Like getYearsBefore()[typeIndex], without copying the array for every contact event
+     * 
+     * @param typeIndex
+     *            index in ContactEvent.EVENT_TYPES, see SyncRules.getEventTypeIndex()
+     */
+    public int getYearsBefore(int typeIndex) {
+        return mYearsBefore[typeIndex];
+    }
+
+    /**
+     * Like getYearsAfter()[typeIndex], without copying the array for every contact event
+     * 
+     * @param typeIndex
+     *            index in ContactEvent.EVENT_TYPES, see SyncRules.getEventTypeIndex()
+     */
+    public int getYearsAfter(int typeIndex) {
+        return mYearsAfter[typeIndex];
+    }
+
+    /**
+     * Filter: Are events of eventType synced? Types without own preferences are always synced.
+     */
+    public boolean getSyncEventType(int eventType) {
+        for (int i = 0; i < ContactEvent.EVENT_TYPES.length; i++) {
+            if (ContactEvent.EVENT_TYPES[i] == eventType) {
+                return mSyncEventTypes[i];
+            }
+        }
+
+        return true;
+    }
+
+    public boolean getStarredOnly() {
+        return mStarredOnly;
+    }
+
+    public Set<String> getSyncedGroups() {
+        return mSyncedGroups;
+    }
+
+    public Set<String> getSyncedAccountTypes() {
+        return mSyncedAccountTypes;
+    }
+
+    public int getSharding() {
+        return mSharding;
+    }
+
+    public int getScrubBudget() {
+        return mScrubBudget;
+    }
+}
@@ -0,0 +1,831 @@
+/*
+ * Copyright (C) 2012-2013 Dominik Schürmann <dominik@dominikschuermann.de>
+ *
+ * This file is part of Birthday Adapter.
+ * 
+ * Birthday Adapter is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Birthday Adapter is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Birthday Adapter.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.birthdayadapter.engine;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TimeZone;
+
+/**
+ * Reconciles the events in a calendar with the contact events. It only talks to a ContactSource
+ * and a CalendarSink, so the same code runs against the Android providers and against the
+ * in-memory stand-ins on a plain JVM.
+ * 
+ * Calendars and sharding are handled by the caller, every method works on one calendar given by
+ * its id and the contact events belonging to it.
+ */
+public class SyncEngine {
+    /* events within this many days are inserted before all others */
+    public static final int UPCOMING_DAYS = 30;
+
+    /* intermediate commit - otherwise the binder transaction fails on large batches */
+    public static final int MAX_BATCH_SIZE = 200;
+
+    /*
+     * An import only inserts into an empty calendar, so it uses larger batches and needs fewer
+     * transactions. Inserts are small, these batches still fit into a binder transaction.
+     */
+    public static final int MAX_IMPORT_BATCH_SIZE = 500;
+
+    /* cards of a vCard file whose events are inserted together, see syncVCardFile() */
+    public static final int MAX_IMPORT_CARDS = 1000;
+
+    private final ContactSource mContactSource;
+    private final CalendarSink mCalendarSink;
+    private final SyncConfig mConfig;
+    private final TitleFormat mTitleFormat;
+
+    public SyncEngine(ContactSource contactSource, CalendarSink calendarSink, SyncConfig config,
+            TitleFormat titleFormat) {
+        mContactSource = contactSource;
+        mCalendarSink = calendarSink;
+        mConfig = config;
+        mTitleFormat = titleFormat;
+    }
+
+    public SyncConfig getConfig() {
+        return mConfig;
+    }
+
+    /**
+     * Reads all events from contacts and parses their dates. Contact events whose date can not be
+     * parsed are skipped.
+     * 
+     * Aggregated contacts often contain the same event several times, stored in the raw contacts
+     * of different accounts and in different date formats. These duplicates are identified by
+     * contact, event type, day of year, and label, and only the preferred one is returned, see
+     * ContactEvent.isPreferredOver().
+     * 
+     * @param lookupKey
+     *            only get events of the contact with this lookup key, null for all contacts
+     * @param statistics
+     *            counts the suppressed duplicates
+     * @return contact events with fingerprint, null on error
+     */
+    public List<ContactEvent> readContactEvents(String lookupKey, SyncStatistics statistics) {
+        List<ContactEvent> rawContactEvents = mContactSource.getContactEvents(lookupKey);
+        if (rawContactEvents == null) {
+            return null;
+        }
+
+        return parseContactEvents(rawContactEvents, statistics);
+    }
+
+    /**
+     * Parses the dates of raw contact events of a source and suppresses duplicates, see
+     * readContactEvents()
+     */
+    private List<ContactEvent> parseContactEvents(List<ContactEvent> rawContactEvents,
+            SyncStatistics statistics) {
+        HashMap<String, ContactEvent> contactEvents = new HashMap<String, ContactEvent>();
+        int duplicates = 0;
+        boolean preferddSlashMM = mConfig.getPreferddSlashMM();
+
+        Calendar cal = Calendar.getInstance();
+        for (ContactEvent contactEvent : rawContactEvents) {
+            Date eventDate = SyncRules.parseEventDateString(contactEvent.eventDateString,
+                    preferddSlashMM);
+
+            // only proceed when parsing didn't fail
+            if (eventDate == null) {
+                continue;
+            }
+            contactEvent.eventDate = eventDate;
+
+            cal.setTime(eventDate);
+            String key = contactEvent.contactId + "/" + contactEvent.eventType + "/"
+                    + cal.get(Calendar.MONTH) + "-" + cal.get(Calendar.DAY_OF_MONTH) + "/"
+                    + (contactEvent.eventCustomLabel == null ? "" : contactEvent.eventCustomLabel);
+
+            ContactEvent duplicate = contactEvents.get(key);
+            if (duplicate != null) {
+                duplicates++;
+                if (!contactEvent.isPreferredOver(duplicate)) {
+                    continue;
+                }
+            }
+            contactEvents.put(key, contactEvent);
+        }
+
+        for (ContactEvent contactEvent : contactEvents.values()) {
+            contactEvent.fingerprint = SyncRules.getFingerprint(contactEvent.lookupKey,
+                    contactEvent.eventDateString, contactEvent.eventType,
+                    contactEvent.eventCustomLabel, preferddSlashMM);
+        }
+
+        statistics.addSuppressedDuplicates(duplicates);
+
+        return new ArrayList<ContactEvent>(contactEvents.values());
+    }
+
+    /**
+     * Title of the event of a contact event in the given year, null if it has no title
+     */
+    public String getEventTitle(ContactEvent contactEvent, int year) {
+        return SyncRules.getEventTitle(mTitleFormat, contactEvent, year);
+    }
+
+    /**
+     * First year of the window of synced years of a contact event
+     */
+    public int getStartYear(ContactEvent contactEvent, int currYear) {
+        return currYear
+                - mConfig.getYearsBefore(SyncRules.getEventTypeIndex(contactEvent.eventType));
+    }
+
+    /**
+     * Last year of the window of synced years of a contact event
+     */
+    public int getEndYear(ContactEvent contactEvent, int currYear) {
+        return currYear
+                + mConfig.getYearsAfter(SyncRules.getEventTypeIndex(contactEvent.eventType));
+    }
+
+    /**
+     * Incremental sync of one calendar: Only events of contact events that have been added,
+     * changed or removed since the last sync are written. Events of renamed contacts only get new
+     * titles.
+     * 
+     * @param calendarId
+     * @param contactEvents
+     *            contact events of this calendar
+     * @param lookupKey
+     *            only sync the contact with this lookup key, null for all contacts. Events
+     *            without fingerprint are only deleted when all contacts are synced.
+     * @param statistics
+     * @return false if the events of the calendar could not be read
+     */
+    public boolean syncCalendar(long calendarId, List<ContactEvent> contactEvents,
+            String lookupKey, SyncStatistics statistics) {
+        List<CalendarEvent> events = mCalendarSink.getEvents(calendarId, lookupKey);
+        if (events == null) {
+            return false;
+        }
+
+        // get fingerprints of all contact events currently in the calendar
+        HashSet<String> existingFingerprints = new HashSet<String>();
+        boolean untrackedEvents = false;
+        for (CalendarEvent event : events) {
+            if (event.fingerprint == null) {
+                // written by an older version of Birthday Adapter
+                untrackedEvents = lookupKey == null;
+            } else {
+                existingFingerprints.add(event.fingerprint);
+            }
+        }
+
+        // update titles of events that are kept, e.g., of renamed contacts
+        updateEventTitles(events, contactEvents, statistics);
+
+        // insert events of new or changed contact events, existingFingerprints afterwards only
+        // contains fingerprints of events that are outdated
+        insertContactEvents(contactEvents, existingFingerprints, statistics);
+
+        deleteOutdatedEvents(calendarId, existingFingerprints, untrackedEvents, statistics);
+        return true;
+    }
+
+    /**
+     * Incremental import of a vCard file into a calendar of its own. The events of a card carry
+     * the key of the card as lookup key, see VCardFileSource. Cards whose key is already in the
+     * calendar are skipped without being parsed, so a large file that changed by a few cards only
+     * rewrites the events of these cards. Events of cards that changed or are not in the file
+     * anymore are deleted.
+     * 
+     * The settings the events depend on are part of the keys, so the events of all cards are
+     * rewritten when they change, e.g., when an event type is not synced anymore. The window of
+     * synced years is not part of them, see updateVCardSyncedYears(). The events of the
+     * changed cards are read and inserted in chunks of MAX_IMPORT_CARDS cards, so that the first
+     * import of a large file does not keep all its events in memory.
+     * 
+     * @param calendarId
+     * @param source
+     * @param statistics
+     * @return false if the events of the calendar could not be read
+     * @throws IOException
+     *             if the file could not be read, the events of the cards read so far are kept
+     */
+    public boolean syncVCardFile(long calendarId, VCardFileSource source,
+            SyncStatistics statistics) throws IOException {
+        List<CalendarEvent> events = mCalendarSink.getEvents(calendarId, null);
+        if (events == null) {
+            return false;
+        }
+
+        // get fingerprints of the events of each card in the calendar
+        HashMap<String, HashSet<String>> fingerprintsByCard =
+                new HashMap<String, HashSet<String>>();
+        boolean untrackedEvents = false;
+        for (CalendarEvent event : events) {
+            if (event.lookupKey == null || event.fingerprint == null) {
+                untrackedEvents = true;
+                continue;
+            }
+            HashSet<String> fingerprints = fingerprintsByCard.get(event.lookupKey);
+            if (fingerprints == null) {
+                fingerprints = new HashSet<String>();
+                fingerprintsByCard.put(event.lookupKey, fingerprints);
+            }
+            fingerprints.add(event.fingerprint);
+        }
+
+        source.setKnownCards(fingerprintsByCard.keySet(), getCardSettings());
+        source.open();
+        try {
+            List<ContactEvent> rawContactEvents;
+            while ((rawContactEvents = source.nextContactEvents(MAX_IMPORT_CARDS, null)) != null) {
+                List<ContactEvent> contactEvents = parseContactEvents(rawContactEvents,
+                        statistics);
+                for (ContactEvent contactEvent : contactEvents) {
+                    contactEvent.calendarId = calendarId;
+                }
+
+                insertContactEvents(contactEvents, null, statistics);
+            }
+        } finally {
+            source.close();
+        }
+
+        HashSet<String> outdatedFingerprints = new HashSet<String>();
+        for (Map.Entry<String, HashSet<String>> card : fingerprintsByCard.entrySet()) {
+            if (!source.getCards().contains(card.getKey())) {
+                outdatedFingerprints.addAll(card.getValue());
+            }
+        }
+        deleteOutdatedEvents(calendarId, outdatedFingerprints, untrackedEvents, statistics);
+
+        return true;
+    }
+
+    /**
+     * Values of the settings the events of a card depend on, see syncVCardFile(). The window of
+     * synced years is left out, it is moved by updateVCardSyncedYears() without rewriting the
+     * cards.
+     */
+    private String getCardSettings() {
+        StringBuilder settings = new StringBuilder();
+        settings.append(mConfig.getPreferddSlashMM());
+        for (int i = 0; i < ContactEvent.EVENT_TYPES.length; i++) {
+            settings.append(',').append(mConfig.getSyncEventType(ContactEvent.EVENT_TYPES[i]));
+        }
+        return settings.toString();
+    }
+
+    /**
+     * Deletes all events of a calendar, used before all events are inserted again
+     * 
+     * @param calendarId
+     * @param statistics
+     * @return number of deleted events
+     */
+    public int clearCalendar(long calendarId, SyncStatistics statistics) {
+        ArrayList<SinkOperation> operationList = new ArrayList<SinkOperation>();
+        operationList.add(SinkOperation.deleteAllEvents(calendarId));
+
+        int deletedEvents = getAffectedRows(applyBatch(operationList));
+        statistics.addDeletedEvents(deletedEvents);
+        return deletedEvents;
+    }
+
+    /**
+     * Inserts the events of the current calendar of an iCalendar file, used to restore an export
+     * into an empty calendar. Titles and reminders are inserted as they are in the file, so
+     * nothing has to be read from contacts. As lookup keys and fingerprints are restored as well,
+     * the next incremental sync only writes what changed since the export.
+     * 
+     * @param calendarId
+     * @param reader
+     *            positioned at a calendar by ICalendarReader.nextCalendar()
+     * @param statistics
+     * @return number of inserted events
+     * @throws IOException
+     *             if reading the file fails, the events read until then are inserted anyway
+     */
+    public int importEvents(long calendarId, ICalendarReader reader, SyncStatistics statistics)
+            throws IOException {
+        ArrayList<SinkOperation> operationList = new ArrayList<SinkOperation>();
+        ArrayList<Integer> reminderMinutes = new ArrayList<Integer>();
+        int insertedEvents = 0;
+
+        try {
+            CalendarEvent event;
+            while ((event = reader.nextEvent(reminderMinutes)) != null) {
+                // the operations of an event have to be in the same batch
+                if (operationList.size() + 1 + reminderMinutes.size() > MAX_IMPORT_BATCH_SIZE) {
+                    applyEventsBatch(operationList, statistics);
+                }
+
+                int backRef = operationList.size();
+                operationList.add(SinkOperation.insertEvent(calendarId, event.start, event.title,
+                        event.lookupKey, event.fingerprint));
+                insertedEvents++;
+
+                for (int minutes : reminderMinutes) {
+                    operationList.add(SinkOperation.insertReminder(backRef, minutes));
+                }
+            }
+        } finally {
+            applyEventsBatch(operationList, statistics);
+            statistics.addInsertedEvents(insertedEvents);
+        }
+
+        return insertedEvents;
+    }
+
+    /**
+     * Replaces the reminders of all events in a calendar. The reminders of each event are deleted
+     * with one operation, without reading them first.
+     * 
+     * @param calendarId
+     * @param reminderMinutes
+     *            minutes of the reminders, DISABLED_REMINDER for unused ones
+     * @return false if the events of the calendar could not be read
+     */
+    public boolean updateReminders(long calendarId, int[] reminderMinutes) {
+        List<CalendarEvent> events = mCalendarSink.getEvents(calendarId, null);
+        if (events == null) {
+            return false;
+        }
+
+        ArrayList<SinkOperation> operationList = new ArrayList<SinkOperation>();
+        for (CalendarEvent event : events) {
+            operationList.add(SinkOperation.deleteReminders(event.id));
+            for (int minutes : reminderMinutes) {
+                if (minutes != SyncConfig.DISABLED_REMINDER) {
+                    operationList.add(SinkOperation.addReminder(event.id, minutes));
+                }
+            }
+
+            if (operationList.size() > MAX_BATCH_SIZE) {
+                applyBatch(operationList);
+            }
+        }
+        applyBatch(operationList);
+        return true;
+    }
+
+    /**
+     * Sets the color of calendars
+     * 
+     * @param calendarIds
+     * @param color
+     */
+    public void updateCalendarColor(Collection<Long> calendarIds, int color) {
+        ArrayList<SinkOperation> operationList = new ArrayList<SinkOperation>();
+        for (long calendarId : calendarIds) {
+            operationList.add(SinkOperation.updateColor(calendarId, color));
+        }
+        applyBatch(operationList);
+    }
+
+    /**
+     * Deletes the events of outdated contact events, their reminders are deleted by the sink
+     * 
+     * @param calendarId
+     * @param fingerprints
+     *            fingerprints of outdated contact events
+     * @param untrackedEvents
+     *            also delete events without fingerprint
+     * @param statistics
+     */
+    private void deleteOutdatedEvents(long calendarId, Set<String> fingerprints,
+            boolean untrackedEvents, SyncStatistics statistics) {
+        ArrayList<SinkOperation> operationList = new ArrayList<SinkOperation>();
+        if (untrackedEvents) {
+            operationList.add(SinkOperation.deleteEvents(calendarId, null));
+        }
+        for (String fingerprint : fingerprints) {
+            operationList.add(SinkOperation.deleteEvents(calendarId, fingerprint));
+
+            if (operationList.size() > MAX_BATCH_SIZE) {
+                statistics.addDeletedEvents(getAffectedRows(applyBatch(operationList)));
+            }
+        }
+        statistics.addDeletedEvents(getAffectedRows(applyBatch(operationList)));
+    }
+
+    /**
+     * Goes through the contact events and inserts events with reminders for them.
+     * 
+     * To show useful events as fast as possible, the events in the next UPCOMING_DAYS are inserted
+     * first ordered by their occurrence. Afterwards, the other years of all contact events are
+     * backfilled.
+     * 
+     * @param allContactEvents
+     *            contact events from readContactEvents() with their calendar set
+     * @param existingFingerprints
+     *            Fingerprints of contact events that are already in the calendar. These are
+     *            skipped and removed from the set, so that afterwards it only contains the
+     *            fingerprints of outdated events. null to insert all contact events.
+     * @param statistics
+     */
+    public void insertContactEvents(List<ContactEvent> allContactEvents,
+            Set<String> existingFingerprints, SyncStatistics statistics) {
+        int[] reminderMinutes = mConfig.getReminderMinutes();
+        int currYear = Calendar.getInstance().get(Calendar.YEAR);
+
+        Calendar today = Calendar.getInstance();
+        today.set(Calendar.HOUR_OF_DAY, 0);
+        today.set(Calendar.MINUTE, 0);
+        today.set(Calendar.SECOND, 0);
+        today.set(Calendar.MILLISECOND, 0);
+
+        // contact events that will later be added to the calendar
+        ArrayList<ContactEvent> contactEvents = new ArrayList<ContactEvent>();
+
+        for (ContactEvent contactEvent : allContactEvents) {
+            if (existingFingerprints != null
+                    && existingFingerprints.remove(contactEvent.fingerprint)) {
+                // events of this contact event are up to date
+                continue;
+            }
+
+            contactEvent.startYear = getStartYear(contactEvent, currYear);
+            contactEvent.endYear = getEndYear(contactEvent, currYear);
+
+            SyncRules.setNextOccurrence(contactEvent, today);
+
+            contactEvents.add(contactEvent);
+        }
+
+        ArrayList<SinkOperation> operationList = new ArrayList<SinkOperation>();
+
+        /* Create upcoming events ordered by their occurrence */
+        ArrayList<ContactEvent> upcomingEvents = new ArrayList<ContactEvent>();
+        for (ContactEvent contactEvent : contactEvents) {
+            if (contactEvent.isUpcoming()) {
+                upcomingEvents.add(contactEvent);
+            }
+        }
+        Collections.sort(upcomingEvents, new Comparator<ContactEvent>() {
+            @Override
+            public int compare(ContactEvent lhs, ContactEvent rhs) {
+                return lhs.daysUntilNext - rhs.daysUntilNext;
+            }
+        });
+
+        for (ContactEvent contactEvent : upcomingEvents) {
+            statistics.addInsertedEvents(addEventOperations(operationList, reminderMinutes,
+                    contactEvent, contactEvent.nextYear, contactEvent.nextYear));
+
+            if (operationList.size() > MAX_BATCH_SIZE) {
+                applyEventsBatch(operationList, statistics);
+            }
+        }
+        applyEventsBatch(operationList, statistics);
+
+        /* Backfill all other years */
+        for (ContactEvent contactEvent : contactEvents) {
+            boolean upcoming = contactEvent.isUpcoming();
+            if (upcoming) {
+                statistics.addInsertedEvents(addEventOperations(operationList, reminderMinutes,
+                        contactEvent, contactEvent.startYear, contactEvent.nextYear - 1));
+                statistics.addInsertedEvents(addEventOperations(operationList, reminderMinutes,
+                        contactEvent, contactEvent.nextYear + 1, contactEvent.endYear));
+            } else {
+                statistics.addInsertedEvents(addEventOperations(operationList, reminderMinutes,
+                        contactEvent, contactEvent.startYear, contactEvent.endYear));
+            }
+            statistics.addInsertedContactEvent(upcoming);
+
+            if (operationList.size() > MAX_BATCH_SIZE) {
+                applyEventsBatch(operationList, statistics);
+            }
+        }
+        applyEventsBatch(operationList, statistics);
+    }
+
+    /**
+     * Updates the titles of all events whose contact event is still in contacts, if they differ
+     * from the generated ones. Event ids and reminders are kept.
+     * 
+     * @param calendarId
+     * @param contactEvents
+     *            contact events from readContactEvents()
+     * @param lookupKey
+     *            only update events of the contact with this lookup key, null for all contacts
+     * @param statistics
+     * @return false if the events of the calendar could not be read
+     */
+    public boolean updateEventTitles(long calendarId, List<ContactEvent> contactEvents,
+            String lookupKey, SyncStatistics statistics) {
+        List<CalendarEvent> events = mCalendarSink.getEvents(calendarId, lookupKey);
+        if (events == null) {
+            return false;
+        }
+
+        updateEventTitles(events, contactEvents, statistics);
+        return true;
+    }
+
+    /**
+     * updateEventTitles() for events that have already been read
+     */
+    private void updateEventTitles(List<CalendarEvent> events, List<ContactEvent> contactEvents,
+            SyncStatistics statistics) {
+        HashMap<String, ContactEvent> contactEventsByFingerprint =
+                new HashMap<String, ContactEvent>();
+        for (ContactEvent contactEvent : contactEvents) {
+            contactEventsByFingerprint.put(contactEvent.fingerprint, contactEvent);
+        }
+
+        ArrayList<SinkOperation> operationList = new ArrayList<SinkOperation>();
+        Calendar utcCal = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+        for (CalendarEvent event : events) {
+            ContactEvent contactEvent = contactEventsByFingerprint.get(event.fingerprint);
+            if (contactEvent == null) {
+                // outdated or untracked events are deleted anyway
+                continue;
+            }
+
+            utcCal.setTimeInMillis(event.start);
+            String title = getEventTitle(contactEvent, utcCal.get(Calendar.YEAR));
+            if (title == null || title.equals(event.title)) {
+                continue;
+            }
+
+            operationList.add(SinkOperation.updateTitle(event.id, title));
+
+            if (operationList.size() > MAX_BATCH_SIZE) {
+                statistics.addUpdatedEvents(getAffectedRows(applyBatch(operationList)));
+            }
+        }
+        statistics.addUpdatedEvents(getAffectedRows(applyBatch(operationList)));
+    }
+
+    /**
+     * Moves the window of synced years of one calendar to currYear. For each contact event, only
+     * events of years that left the window are deleted and only events of years missing in the
+     * window are inserted. Contact events without any events in the calendar are skipped.
+     * 
+     * @param calendarId
+     * @param contactEvents
+     *            contact events of this calendar
+     * @param currYear
+     * @param statistics
+     * @return false if the events of the calendar could not be read
+     */
+    public boolean updateSyncedYears(long calendarId, List<ContactEvent> contactEvents,
+            int currYear, SyncStatistics statistics) {
+        HashMap<String, HashMap<Integer, ArrayList<Long>>> existingEvents =
+                getEventYears(calendarId);
+        if (existingEvents == null) {
+            return false;
+        }
+
+        ArrayList<SinkOperation> operationList = new ArrayList<SinkOperation>();
+        addSyncedYearsOperations(operationList, existingEvents, contactEvents, currYear,
+                statistics);
+        applyBatch(operationList);
+        return true;
+    }
+
+    /**
+     * Moves the window of synced years of the calendar of a vCard file to currYear, like
+     * updateSyncedYears(). The events of the cards depend on the window, but their keys do not, so
+     * the whole file is read again, in chunks of MAX_IMPORT_CARDS cards like syncVCardFile().
+     * 
+     * @param calendarId
+     * @param source
+     *            file imported by syncVCardFile()
+     * @param currYear
+     * @param statistics
+     * @return false if the events of the calendar could not be read
+     * @throws IOException
+     *             if the file could not be read, events of the cards read so far are moved
+     */
+    public boolean updateVCardSyncedYears(long calendarId, VCardFileSource source, int currYear,
+            SyncStatistics statistics) throws IOException {
+        HashMap<String, HashMap<Integer, ArrayList<Long>>> existingEvents =
+                getEventYears(calendarId);
+        if (existingEvents == null) {
+            return false;
+        }
+
+        ArrayList<SinkOperation> operationList = new ArrayList<SinkOperation>();
+        Set<String> noKnownCards = Collections.emptySet();
+        source.setKnownCards(noKnownCards, getCardSettings());
+        source.open();
+        try {
+            List<ContactEvent> rawContactEvents;
+            while ((rawContactEvents = source.nextContactEvents(MAX_IMPORT_CARDS, null)) != null) {
+                List<ContactEvent> contactEvents = parseContactEvents(rawContactEvents,
+                        statistics);
+                for (ContactEvent contactEvent : contactEvents) {
+                    contactEvent.calendarId = calendarId;
+                }
+
+                addSyncedYearsOperations(operationList, existingEvents, contactEvents, currYear,
+                        statistics);
+            }
+        } finally {
+            source.close();
+            applyBatch(operationList);
+        }
+
+        return true;
+    }
+
+    /**
+     * Gets the ids of the events of a calendar by year for each fingerprint
+     * 
+     * @param calendarId
+     * @return null if the events could not be read
+     */
+    private HashMap<String, HashMap<Integer, ArrayList<Long>>> getEventYears(long calendarId) {
+        List<CalendarEvent> events = mCalendarSink.getEvents(calendarId, null);
+        if (events == null) {
+            return null;
+        }
+
+        HashMap<String, HashMap<Integer, ArrayList<Long>>> existingEvents =
+                new HashMap<String, HashMap<Integer, ArrayList<Long>>>();
+        Calendar utcCal = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+        for (CalendarEvent event : events) {
+            if (event.fingerprint == null) {
+                continue;
+            }
+
+            utcCal.setTimeInMillis(event.start);
+            int year = utcCal.get(Calendar.YEAR);
+
+            HashMap<Integer, ArrayList<Long>> years = existingEvents.get(event.fingerprint);
+            if (years == null) {
+                years = new HashMap<Integer, ArrayList<Long>>();
+                existingEvents.put(event.fingerprint, years);
+            }
+            ArrayList<Long> eventIds = years.get(year);
+            if (eventIds == null) {
+                eventIds = new ArrayList<Long>();
+                years.put(year, eventIds);
+            }
+            eventIds.add(event.id);
+        }
+
+        return existingEvents;
+    }
+
+    /**
+     * Adds the operations moving the window of synced years of the contact events to
+     * operationList, see updateSyncedYears(). Full batches are applied.
+     * 
+     * @param operationList
+     * @param existingEvents
+     *            event ids by year for each fingerprint, see getEventYears()
+     * @param contactEvents
+     * @param currYear
+     * @param statistics
+     */
+    private void addSyncedYearsOperations(ArrayList<SinkOperation> operationList,
+            HashMap<String, HashMap<Integer, ArrayList<Long>>> existingEvents,
+            List<ContactEvent> contactEvents, int currYear, SyncStatistics statistics) {
+        int[] reminderMinutes = mConfig.getReminderMinutes();
+
+        for (ContactEvent contactEvent : contactEvents) {
+            HashMap<Integer, ArrayList<Long>> years = existingEvents.get(contactEvent.fingerprint);
+            if (years == null) {
+                continue;
+            }
+
+            int startYear = getStartYear(contactEvent, currYear);
+            int endYear = getEndYear(contactEvent, currYear);
+
+            // delete events of years outside the window, reminders are deleted by the sink
+            for (Map.Entry<Integer, ArrayList<Long>> year : years.entrySet()) {
+                if (year.getKey() < startYear || year.getKey() > endYear) {
+                    for (long eventId : year.getValue()) {
+                        operationList.add(SinkOperation.deleteEvent(eventId));
+                        statistics.addDeletedEvents(1);
+                    }
+                }
+            }
+
+            // insert events of years missing in the window
+            for (int year = startYear; year <= endYear; year++) {
+                if (!years.containsKey(year)) {
+                    statistics.addInsertedEvents(addEventOperations(operationList,
+                            reminderMinutes, contactEvent, year, year));
+                }
+            }
+
+            if (operationList.size() > MAX_BATCH_SIZE) {
+                applyBatch(operationList);
+            }
+        }
+
+    }
+
+    /**
+     * Adds operations to insert the events of one contact event for the years from startYear to
+     * endYear together with their reminders to operationList.
+     * 
+     * Events are not inserted as recurring events to have different titles with birthday age in
+     * it.
+     * 
+     * @param operationList
+     * @param reminderMinutes
+     * @param contactEvent
+     *            the events are inserted into its calendar
+     * @param startYear
+     * @param endYear
+     * @return number of inserted events
+     */
+    public int addEventOperations(List<SinkOperation> operationList, int[] reminderMinutes,
+            ContactEvent contactEvent, int startYear, int endYear) {
+        int insertedEvents = 0;
+
+        for (int iteratedYear = startYear; iteratedYear <= endYear; iteratedYear++) {
+            String title = getEventTitle(contactEvent, iteratedYear);
+            if (title == null) {
+                continue;
+            }
+
+            // the reminders reference the event by its position in operationList
+            int backRef = operationList.size();
+
+            operationList.add(SinkOperation.insertEvent(contactEvent.calendarId,
+                    SyncRules.getEventStart(contactEvent.eventDate, iteratedYear), title,
+                    contactEvent.lookupKey, contactEvent.fingerprint));
+            insertedEvents++;
+
+            for (int minutes : reminderMinutes) {
+                if (minutes != SyncConfig.DISABLED_REMINDER) {
+                    operationList.add(SinkOperation.insertReminder(backRef, minutes));
+                }
+            }
+        }
+
+        return insertedEvents;
+    }
+
+    /**
+     * Applies operationList as one batch and clears it afterwards. Back references in the batch
+     * are only valid inside the same batch, so operationList must never end in the middle of the
+     * operations of one event.
+     * 
+     * @param operationList
+     * @return affected rows of the operations, null if there were no operations or on error
+     */
+    private int[] applyBatch(List<SinkOperation> operationList) {
+        if (operationList.isEmpty()) {
+            return null;
+        }
+
+        int[] results = mCalendarSink.applyBatch(operationList);
+        operationList.clear();
+
+        return results;
+    }
+
+    /**
+     * Applies a batch inserting events and notes the time of the first inserted events in
+     * statistics
+     */
+    private void applyEventsBatch(List<SinkOperation> operationList, SyncStatistics statistics) {
+        if (applyBatch(operationList) != null) {
+            statistics.onEventsApplied();
+        }
+    }
+
+    /**
+     * Sum of the affected rows of a batch of deletes or updates
+     */
+    private static int getAffectedRows(int[] results) {
+        int rows = 0;
+        if (results != null) {
+            for (int result : results) {
+                rows += result;
+            }
+        }
+
+        return rows;
+    }
+}
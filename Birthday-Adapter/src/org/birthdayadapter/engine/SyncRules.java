@@ -0,0 +1,353 @@
+/*
+ * Copyright (C) 2012-2013 Dominik Schürmann <dominik@dominikschuermann.de>
+ *
+ * This file is part of Birthday Adapter.
+ * 
+ * Birthday Adapter is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Birthday Adapter is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Birthday Adapter.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.birthdayadapter.engine;
+
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.ParsePosition;
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * Rules deriving events from contact events: date parsing, fingerprints, titles, and times of
+ * events. They only depend on their arguments, so they work the same on Android and without it.
+ */
+public final class SyncRules {
+    public static final long DAY_IN_MILLIS = 24 * 60 * 60 * 1000;
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private SyncRules() {
+    }
+
+    /**
+     * Because no year is defined in address book, set year to 1700
+     * 
+     * When year < 1800 it is not displayed in brackets in the actual calendar event
+     * 
+     * @param eventDate
+     * @return
+     */
+    private static Date setYearTo1700(Date eventDate) {
+        Calendar cal = Calendar.getInstance();
+        cal.setTime(eventDate);
+        cal.set(Calendar.YEAR, 1700);
+        return cal.getTime();
+    }
+
+    /* formats are expensive to create and not thread-safe, so they are kept per thread */
+    private static final ThreadLocal<HashMap<String, SimpleDateFormat>> sDateFormats =
+            new ThreadLocal<HashMap<String, SimpleDateFormat>>() {
+                @Override
+                protected HashMap<String, SimpleDateFormat> initialValue() {
+                    return new HashMap<String, SimpleDateFormat>();
+                }
+            };
+
+    /**
+     * Parses eventDateString with format, null if it does not match. Like
+     * SimpleDateFormat.parse(String), but without throwing an exception for every date string that
+     * does not match, which are most of them.
+     */
+    private static Date parse(String format, String eventDateString) {
+        HashMap<String, SimpleDateFormat> dateFormats = sDateFormats.get();
+        SimpleDateFormat dateFormat = dateFormats.get(format);
+        if (dateFormat == null) {
+            dateFormat = new SimpleDateFormat(format, Locale.US);
+            dateFormats.put(format, dateFormat);
+        }
+        dateFormat.setTimeZone(TimeZone.getDefault());
+
+        ParsePosition position = new ParsePosition(0);
+        Date eventDate = dateFormat.parse(eventDateString, position);
+        return position.getIndex() == 0 ? null : eventDate;
+    }
+
+    /**
+     * Checks if Long.parseLong() would accept the string, apart from overflows
+     */
+    private static boolean isInteger(String string) {
+        char first = string.length() > 1 ? string.charAt(0) : 0;
+        int start = first == '-' || first == '+' ? 1 : 0;
+        if (string.length() == start) {
+            return false;
+        }
+        for (int i = start; i < string.length(); i++) {
+            if (Character.digit(string.charAt(i), 10) == -1) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * The date format in the contact events is not standardized! See
+     * http://dmfs.org/carddav/?date_format . This method will try to parse it trying different date
+     * formats.
+     * 
+     * @param eventDateString
+     * @param preferddSlashMM
+     *            prefer dd/MM/yyyy over MM/dd/yyyy
+     * @return eventDate as Date object, null if it could not be parsed
+     */
+    public static Date parseEventDateString(String eventDateString, boolean preferddSlashMM) {
+        if (eventDateString == null) {
+            return null;
+        }
+
+        /* yyyy-MM-dd */
+        Date eventDate = parse("yyyy-MM-dd", eventDateString);
+
+        /* --MM-dd */
+        if (eventDate == null) {
+            eventDate = parse("--MM-dd", eventDateString);
+
+            // dont display year
+            if (eventDate != null) {
+                eventDate = setYearTo1700(eventDate);
+            }
+        }
+
+        /* yyyyMMdd */
+        if (eventDate == null && eventDateString.length() == 8) {
+            eventDate = parse("yyyyMMdd", eventDateString);
+        }
+
+        /* Unix timestamp */
+        if (eventDate == null && isInteger(eventDateString)) {
+            try {
+                eventDate = new Date(Long.parseLong(eventDateString));
+            } catch (NumberFormatException e) {
+                eventDate = null;
+            }
+        }
+
+        /* dd.MM.yyyy */
+        if (eventDate == null) {
+            eventDate = parse("dd.MM.yyyy", eventDateString);
+        }
+
+        /* yyyy.MM.dd */
+        if (eventDate == null) {
+            eventDate = parse("yyyy.MM.dd", eventDateString);
+        }
+
+        /*
+         * dd/MM/yyyy and dd/MM, or MM/dd/yyyy and MM/dd used by Facebook
+         */
+        String slashFormat = preferddSlashMM ? "dd/MM" : "MM/dd";
+        if (eventDate == null) {
+            eventDate = parse(slashFormat + "/yyyy", eventDateString);
+        }
+        if (eventDate == null) {
+            eventDate = parse(slashFormat, eventDateString);
+
+            // dont display year
+            if (eventDate != null) {
+                eventDate = setYearTo1700(eventDate);
+            }
+        }
+
+        return eventDate;
+    }
+
+    /**
+     * Checks if the meaning of the date string depends on the dd/MM preference, see
+     * parseEventDateString(). Dates with slashes are only parsed by the slash formats, which are
+     * chosen by this preference.
+     * 
+     * @param eventDateString
+     * @return
+     */
+    public static boolean isAmbiguousDateString(String eventDateString) {
+        return eventDateString != null && eventDateString.indexOf('/') != -1;
+    }
+
+    /**
+     * Generates a fingerprint of a contact event. Events in the calendar are tagged with the
+     * fingerprint of the contact event they were generated from. When any of the values
+     * influencing the dates of the events changes, the fingerprint changes and the events are
+     * rewritten on the next incremental sync. The display name is not part of it, because it only
+     * changes the titles, which are updated in place by SyncEngine.updateEventTitles().
+     * 
+     * For ambiguous date strings the dd/MM preference is part of the fingerprint, so that only
+     * their events are rewritten when the preference changes.
+     * 
+     * @param lookupKey
+     * @param eventDateString
+     * @param eventType
+     * @param eventCustomLabel
+     * @param preferddSlashMM
+     * @return
+     */
+    public static String getFingerprint(String lookupKey, String eventDateString, int eventType,
+            String eventCustomLabel, boolean preferddSlashMM) {
+        StringBuilder input = new StringBuilder();
+        input.append(lookupKey).append('\u0000');
+        input.append(eventDateString).append('\u0000');
+        input.append(eventType).append('\u0000');
+        input.append(eventCustomLabel);
+        if (isAmbiguousDateString(eventDateString)) {
+            input.append('\u0000').append(preferddSlashMM ? "dd/MM" : "MM/dd");
+        }
+
+        try {
+            MessageDigest digest = MessageDigest.getInstance("MD5");
+            byte[] hash = digest.digest(input.toString().getBytes("UTF-8"));
+
+            // first 8 bytes are enough to distinguish contact events
+            return toHex(hash, 8);
+        } catch (NoSuchAlgorithmException e) {
+            // MD5 is available everywhere, hashCode is still a usable fingerprint
+        } catch (UnsupportedEncodingException e) {
+            // same for UTF-8
+        }
+        return Integer.toHexString(input.toString().hashCode());
+    }
+
+    /**
+     * Encodes the first bytes of a hash as lower case hex digits, without String.format(), which
+     * is slow for the many hashes of a sync
+     * 
+     * @param hash
+     * @param length
+     *            number of bytes to encode
+     * @return
+     */
+    public static String toHex(byte[] hash, int length) {
+        char[] hex = new char[2 * length];
+        for (int i = 0; i < length; i++) {
+            hex[2 * i] = HEX_DIGITS[(hash[i] >> 4) & 0xF];
+            hex[2 * i + 1] = HEX_DIGITS[hash[i] & 0xF];
+        }
+        return new String(hex);
+    }
+
+    /**
+     * Index of event type in ContactEvent.EVENT_TYPES and the arrays of synced years. Unknown event
+     * types are handled like TYPE_OTHER, the same way as in TitleFormat.format().
+     * 
+     * @param eventType
+     * @return
+     */
+    public static int getEventTypeIndex(int eventType) {
+        for (int i = 0; i < ContactEvent.EVENT_TYPES.length; i++) {
+            if (ContactEvent.EVENT_TYPES[i] == eventType) {
+                return i;
+            }
+        }
+
+        return getEventTypeIndex(ContactEvent.TYPE_OTHER);
+    }
+
+    /**
+     * Generates the title of the event of a contact event in the given year
+     * 
+     * @param titleFormat
+     * @param contactEvent
+     * @param year
+     * @return
+     */
+    public static String getEventTitle(TitleFormat titleFormat, ContactEvent contactEvent,
+            int year) {
+        // get year from event
+        Calendar eventCal = Calendar.getInstance();
+        eventCal.setTime(contactEvent.eventDate);
+        int eventYear = eventCal.get(Calendar.YEAR);
+
+        /*
+         * If year < 1800 don't show brackets with age behind name.
+         * 
+         * When no year is defined parseEventDateString() sets it to 1700
+         * 
+         * Also iCloud for example sets year to 1604 if no year is defined in their user interface
+         */
+        boolean hasYear = false;
+        if (eventYear >= 1800) {
+            hasYear = true;
+        }
+
+        // calculate age
+        int age = year - eventYear;
+
+        // if birthday has year and age of this event >= 0, display age in title
+        boolean includeAge = false;
+        if (hasYear && age >= 0) {
+            includeAge = true;
+        }
+
+        return titleFormat.format(contactEvent.eventType, contactEvent.eventCustomLabel,
+                includeAge, contactEvent.displayName, age);
+    }
+
+    /**
+     * Start of the all-day event of eventDate in the given year. All-day events have to start at
+     * 00:00 UTC, otherwise CalendarProvider2 warns "allDay is true but sec, min, hour were not 0",
+     * see http://stackoverflow.com/questions/3440172
+     * 
+     * @param eventDate
+     * @param year
+     * @return start in milliseconds since the epoch
+     */
+    public static long getEventStart(Date eventDate, int year) {
+        Calendar cal = Calendar.getInstance();
+        cal.setTime(eventDate);
+        cal.set(Calendar.YEAR, year);
+        cal.set(Calendar.HOUR, 0);
+        cal.set(Calendar.MINUTE, 0);
+        cal.set(Calendar.SECOND, 0);
+        cal.set(Calendar.MILLISECOND, 0);
+        cal.setTimeZone(TimeZone.getTimeZone("UTC"));
+
+        return cal.getTimeInMillis();
+    }
+
+    /**
+     * Sets the year of the next occurrence of the contact event and the days until it, starting
+     * from today
+     * 
+     * @param contactEvent
+     * @param today
+     *            Today at 00:00
+     */
+    public static void setNextOccurrence(ContactEvent contactEvent, Calendar today) {
+        Calendar next = Calendar.getInstance();
+        next.setTime(contactEvent.eventDate);
+        next.set(Calendar.YEAR, today.get(Calendar.YEAR));
+        next.set(Calendar.HOUR_OF_DAY, 0);
+        next.set(Calendar.MINUTE, 0);
+        next.set(Calendar.SECOND, 0);
+        next.set(Calendar.MILLISECOND, 0);
+        if (next.before(today)) {
+            next.add(Calendar.YEAR, 1);
+        }
+
+        contactEvent.nextYear = next.get(Calendar.YEAR);
+        // round, because days are not always 24 hours long on daylight saving time changes
+        contactEvent.daysUntilNext = Math.round((float) (next.getTimeInMillis() - today
+                .getTimeInMillis()) / DAY_IN_MILLIS);
+    }
+}
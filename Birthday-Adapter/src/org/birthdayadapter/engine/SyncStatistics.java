@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2012-2013 Dominik Schürmann <dominik@dominikschuermann.de>
+ *
+ * This file is part of Birthday Adapter.
+ * 
+ * Birthday Adapter is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Birthday Adapter is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Birthday Adapter.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.birthdayadapter.engine;
+
+import java.util.Locale;
+
+/**
+ * Statistics of one sync. On Android, they are logged and saved in the preferences when the sync
+ * is finished, see CalendarSyncAdapterService.finishStatistics().
+ */
+public class SyncStatistics {
+    private final String mSyncName;
+    private final long mStartTime;
+    private long mFirstEventTime = -1;
+
+    private int mInsertedContactEvents;
+    private int mUpcomingContactEvents;
+    private int mInsertedEvents;
+    private int mDeletedEvents;
+    private int mUpdatedEvents;
+    private int mSuppressedDuplicates;
+    private int mScrubbedContacts;
+    private int mRepairedContacts;
+
+    public SyncStatistics(String syncName) {
+        mSyncName = syncName;
+        mStartTime = getTime();
+    }
+
+    /**
+     * Called when events have been written to the calendar. The first call marks the time until
+     * the first useful event is visible to the user.
+     */
+    public void onEventsApplied() {
+        if (mFirstEventTime == -1) {
+            mFirstEventTime = getTime();
+        }
+    }
+
+    public void addInsertedContactEvent(boolean upcoming) {
+        mInsertedContactEvents++;
+        if (upcoming) {
+            mUpcomingContactEvents++;
+        }
+    }
+
+    public void addInsertedEvents(int count) {
+        mInsertedEvents += count;
+    }
+
+    public void addDeletedEvents(int count) {
+        mDeletedEvents += count;
+    }
+
+    public void addUpdatedEvents(int count) {
+        mUpdatedEvents += count;
+    }
+
+    /**
+     * Duplicates of contact events that are not synced, because they are stored in several raw
+     * contacts
+     */
+    public void addSuppressedDuplicates(int count) {
+        mSuppressedDuplicates += count;
+    }
+
+    /**
+     * Contact whose events have been verified by the scrub
+     */
+    public void addScrubbedContact() {
+        mScrubbedContacts++;
+    }
+
+    /**
+     * Contact whose events were inconsistent and have been rewritten by the scrub
+     */
+    public void addRepairedContact() {
+        mRepairedContacts++;
+    }
+
+    public int getInsertedContactEvents() {
+        return mInsertedContactEvents;
+    }
+
+    /**
+     * Time from start of sync until the first events were written, -1 if no events were written
+     */
+    public long getTimeToFirstEvent() {
+        if (mFirstEventTime == -1) {
+            return -1;
+        }
+        return mFirstEventTime - mStartTime;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "%s: %d ms, first event after %d ms, "
+                + "%d contact events inserted (%d upcoming), %d events inserted, "
+                + "%d events deleted, %d events updated, %d duplicate contact events suppressed, "
+                + "%d contacts scrubbed (%d repaired)", mSyncName, getTime() - mStartTime,
+                getTimeToFirstEvent(), mInsertedContactEvents, mUpcomingContactEvents,
+                mInsertedEvents, mDeletedEvents, mUpdatedEvents, mSuppressedDuplicates,
+                mScrubbedContacts, mRepairedContacts);
+    }
+
+    /**
+     * Monotonic time in milliseconds
+     */
+    private static long getTime() {
+        return System.nanoTime() / 1000000;
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2012-2013 Dominik Schürmann <dominik@dominikschuermann.de>
+ *
+ * This file is part of Birthday Adapter.
+ * 
+ * Birthday Adapter is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Birthday Adapter is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Birthday Adapter.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.birthdayadapter.engine;
+
+/**
+ * Formats of the event titles. On Android they are the localized string resources, without
+ * Android getDefault() returns the English ones.
+ */
+public class TitleFormat {
+    private final String mBirthdayWithAge;
+    private final String mBirthdayWithoutAge;
+    private final String mAnniversaryWithAge;
+    private final String mAnniversaryWithoutAge;
+    private final String mOtherWithAge;
+    private final String mOtherWithoutAge;
+    private final String mCustomWithAge;
+    private final String mCustomWithoutAge;
+
+    /**
+     * Formats get the display name as first argument. The custom formats get the label as second
+     * argument, all formats with age get the age as last argument.
+     */
+    public TitleFormat(String birthdayWithAge, String birthdayWithoutAge,
+            String anniversaryWithAge, String anniversaryWithoutAge, String otherWithAge,
+            String otherWithoutAge, String customWithAge, String customWithoutAge) {
+        mBirthdayWithAge = birthdayWithAge;
+        mBirthdayWithoutAge = birthdayWithoutAge;
+        mAnniversaryWithAge = anniversaryWithAge;
+        mAnniversaryWithoutAge = anniversaryWithoutAge;
+        mOtherWithAge = otherWithAge;
+        mOtherWithoutAge = otherWithoutAge;
+        mCustomWithAge = customWithAge;
+        mCustomWithoutAge = customWithoutAge;
+    }
+
+    /**
+     * English formats, same as the default string resources
+     */
+    public static TitleFormat getDefault() {
+        return new TitleFormat("%1$s's Birthday (%2$d)", "%1$s's Birthday",
+                "%1$s's Anniversary (%2$d)", "%1$s's Anniversary", "Other Event with %1$s (%2$d)",
+                "Other Event with %1$s", "%1$s: %2$s (%3$d)", "%1$s: %2$s");
+    }
+
+    /**
+     * Generates title for events
+     * 
+     * @param eventType
+     * @param eventCustomLabel
+     * @param includeAge
+     * @param displayName
+     * @param age
+     * @return null if there is no display name
+     */
+    public String format(int eventType, String eventCustomLabel, boolean includeAge,
+            String displayName, int age) {
+        if (displayName == null) {
+            return null;
+        }
+
+        switch (eventType) {
+        case ContactEvent.TYPE_CUSTOM:
+            if (eventCustomLabel != null) {
+                if (includeAge) {
+                    return String.format(mCustomWithAge, displayName, eventCustomLabel, age);
+                } else {
+                    return String.format(mCustomWithoutAge, displayName, eventCustomLabel);
+                }
+            }
+            break;
+
+        case ContactEvent.TYPE_ANNIVERSARY:
+            if (includeAge) {
+                return String.format(mAnniversaryWithAge, displayName, age);
+            } else {
+                return String.format(mAnniversaryWithoutAge, displayName);
+            }
+
+        case ContactEvent.TYPE_BIRTHDAY:
+            if (includeAge) {
+                return String.format(mBirthdayWithAge, displayName, age);
+            } else {
+                return String.format(mBirthdayWithoutAge, displayName);
+            }
+
+        default:
+            break;
+        }
+
+        // TYPE_OTHER, custom events without label, and unknown types
+        if (includeAge) {
+            return String.format(mOtherWithAge, displayName, age);
+        } else {
+            return String.format(mOtherWithoutAge, displayName);
+        }
+    }
+}
@@ -0,0 +1,243 @@
+/*
+ * Copyright (C) 2012-2013 Dominik Schürmann <dominik@dominikschuermann.de>
+ *
+ * This file is part of Birthday Adapter.
+ * 
+ * Birthday Adapter is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Birthday Adapter is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Birthday Adapter.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.birthdayadapter.engine;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * ContactSource reading the cards of a vCard file, for birthday lists that are not in contacts.
+ * The file is streamed with VCardReader, so only one card is in memory while reading, and its
+ * events can be read in chunks of cards.
+ * 
+ * Every card is identified by a hash of its content, which is used as lookup key of its events.
+ * Cards whose hash is known, because their events are already in the calendar, are skipped
+ * without being parsed, see SyncEngine.syncVCardFile().
+ */
+public class VCardFileSource implements ContactSource {
+    private final File mFile;
+    private final SyncConfig mConfig;
+
+    private Set<String> mKnownCards = Collections.emptySet();
+    private String mSettings = "";
+
+    /* keys of all cards in the file and number of new or changed cards, set by reading it */
+    private final HashSet<String> mCards = new HashSet<String>();
+    private int mChangedCards;
+    private IOException mError;
+
+    /* file opened by open() and the number of cards read from it */
+    private VCardReader mReader;
+    private long mContactId;
+
+    /**
+     * @param file
+     *            UTF-8 encoded vCard file, null if openReader() is overridden
+     * @param config
+     *            only events of synced event types are read
+     */
+    public VCardFileSource(File file, SyncConfig config) {
+        mFile = file;
+        mConfig = config;
+    }
+
+    /**
+     * Opens the file. Can be overridden for files that are not in the file system, e.g., content
+     * URIs on Android.
+     * 
+     * @throws IOException
+     */
+    protected Reader openReader() throws IOException {
+        return new InputStreamReader(new FileInputStream(mFile), "UTF-8");
+    }
+
+    /**
+     * Cards that are skipped by getContactEvents()
+     * 
+     * @param cards
+     *            keys of the cards, i.e., lookup keys of their events
+     * @param settings
+     *            values of the settings the events of a card depend on, hashed with every card so
+     *            that all cards count as changed when the settings change
+     */
+    public void setKnownCards(Set<String> cards, String settings) {
+        mKnownCards = cards;
+        mSettings = settings;
+    }
+
+    /**
+     * Reads the events of all cards in the file that are not known. Identical cards are only read
+     * once. All events are returned at once, SyncEngine.syncVCardFile() reads them in chunks with
+     * nextContactEvents() instead.
+     * 
+     * @param lookupKey
+     *            only get events of the card with this key, null for all cards
+     * @return contact events, null if the file could not be read, see getError()
+     */
+    @Override
+    public List<ContactEvent> getContactEvents(String lookupKey) {
+        mError = null;
+
+        ArrayList<ContactEvent> contactEvents = new ArrayList<ContactEvent>();
+        try {
+            open();
+            List<ContactEvent> chunk;
+            while ((chunk = nextContactEvents(Integer.MAX_VALUE, lookupKey)) != null) {
+                contactEvents.addAll(chunk);
+            }
+        } catch (IOException e) {
+            mError = e;
+            return null;
+        } finally {
+            close();
+        }
+
+        return contactEvents;
+    }
+
+    /**
+     * Opens the file to read its events with nextContactEvents(), starting with the first card
+     * 
+     * @throws IOException
+     */
+    public void open() throws IOException {
+        close();
+        mCards.clear();
+        mChangedCards = 0;
+        mContactId = 0;
+
+        mReader = new VCardReader(openReader());
+    }
+
+    /**
+     * Reads the events of the next cards that are not known, so that only the events of a chunk of
+     * cards are in memory at once. Events of a card are never split across chunks.
+     * 
+     * @param maxCards
+     *            maximum number of unknown cards to read
+     * @param lookupKey
+     *            only get events of the card with this key, null for all cards
+     * @return contact events, null at the end of the file
+     * @throws IOException
+     */
+    public List<ContactEvent> nextContactEvents(int maxCards, String lookupKey)
+            throws IOException {
+        ArrayList<ContactEvent> contactEvents = new ArrayList<ContactEvent>();
+        int cards = 0;
+        List<String> card = null;
+        while (cards < maxCards && (card = mReader.nextCard()) != null) {
+            mContactId++;
+            String key = getCardKey(card);
+            if (!mCards.add(key) || mKnownCards.contains(key)
+                    || (lookupKey != null && !lookupKey.equals(key))) {
+                continue;
+            }
+            cards++;
+
+            int events = contactEvents.size();
+            for (ContactEvent contactEvent : VCardReader.getContactEvents(card, mContactId, key)) {
+                if (mConfig.getSyncEventType(contactEvent.eventType)) {
+                    // the key changes with the card, unlike the UID used by VCardReader
+                    contactEvent.lookupKey = key;
+                    contactEvents.add(contactEvent);
+                }
+            }
+            // cards without synced events never become known, as they have no events in the
+            // calendar, so they would count as changed on every import
+            if (contactEvents.size() > events) {
+                mChangedCards++;
+            }
+        }
+
+        if (card == null && cards == 0) {
+            return null;
+        }
+        return contactEvents;
+    }
+
+    /**
+     * Closes the file opened by open()
+     */
+    public void close() {
+        if (mReader != null) {
+            try {
+                mReader.close();
+            } catch (IOException e) {
+                // nothing is written, the events have been read
+            }
+            mReader = null;
+        }
+    }
+
+    /**
+     * Keys of all cards in the file read so far, set by getContactEvents() and
+     * nextContactEvents()
+     */
+    public Set<String> getCards() {
+        return mCards;
+    }
+
+    /**
+     * Number of cards whose events were read so far, because they are not known. Cards without
+     * events of synced event types are not counted.
+     */
+    public int getChangedCardCount() {
+        return mChangedCards;
+    }
+
+    /**
+     * @return error of the last getContactEvents(), null if there was none
+     */
+    public IOException getError() {
+        return mError;
+    }
+
+    /**
+     * Hash of the settings and the content lines of a card
+     */
+    private String getCardKey(List<String> card) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("MD5");
+            digest.update(mSettings.getBytes("UTF-8"));
+            for (String line : card) {
+                digest.update((byte) '\n');
+                digest.update(line.getBytes("UTF-8"));
+            }
+            return "vcard-" + SyncRules.toHex(digest.digest(), 16);
+        } catch (NoSuchAlgorithmException e) {
+            // MD5 is available everywhere, hashCode is still a usable key
+        } catch (UnsupportedEncodingException e) {
+            // same for UTF-8
+        }
+        return "vcard-" + Integer.toHexString((mSettings + card).hashCode());
+    }
+}
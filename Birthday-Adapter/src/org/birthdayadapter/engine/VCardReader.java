@@ -0,0 +1,304 @@
+/*
+ * Copyright (C) 2012-2013 Dominik Schürmann <dominik@dominikschuermann.de>
+ *
+ * This file is part of Birthday Adapter.
+ * 
+ * Birthday Adapter is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Birthday Adapter is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Birthday Adapter.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.birthdayadapter.engine;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Streaming reader of vCard files (versions 2.1, 3.0, and 4.0). Cards are read one after another,
+ * so only one card is in memory at a time, and their events are returned as the raw contact events
+ * a ContactSource returns. Dates are passed on as written, except for the vCard forms without year
+ * or with time, which are normalized to forms SyncRules.parseEventDateString() understands.
+ * 
+ * Reading cards and parsing them are separate, so that cards can be parsed in parallel.
+ */
+public class VCardReader {
+    private final BufferedReader mReader;
+
+    /* line read ahead to find folded continuation lines */
+    private String mNextLine;
+
+    public VCardReader(Reader reader) {
+        mReader = reader instanceof BufferedReader ? (BufferedReader) reader
+                : new BufferedReader(reader, 64 * 1024);
+    }
+
+    /**
+     * Reads the next card
+     * 
+     * @return unfolded content lines between BEGIN:VCARD and END:VCARD, null at the end of the
+     *         file
+     * @throws IOException
+     */
+    public List<String> nextCard() throws IOException {
+        String line;
+        do {
+            line = readContentLine();
+            if (line == null) {
+                return null;
+            }
+        } while (!line.equalsIgnoreCase("BEGIN:VCARD"));
+
+        ArrayList<String> card = new ArrayList<String>();
+        while ((line = readContentLine()) != null && !line.equalsIgnoreCase("END:VCARD")) {
+            if (line.length() > 0) {
+                card.add(line);
+            }
+        }
+        return card;
+    }
+
+    public void close() throws IOException {
+        mReader.close();
+    }
+
+    /**
+     * Reads one content line, joining folded lines and soft line breaks of quoted-printable values
+     */
+    private String readContentLine() throws IOException {
+        String line = mNextLine != null ? mNextLine : mReader.readLine();
+        mNextLine = null;
+        if (line == null) {
+            return null;
+        }
+
+        StringBuilder builder = new StringBuilder(line);
+        boolean quotedPrintable = containsIgnoreCase(line, "QUOTED-PRINTABLE");
+        String next;
+        while ((next = mReader.readLine()) != null) {
+            int last = builder.length() - 1;
+            if (quotedPrintable && last >= 0 && builder.charAt(last) == '=') {
+                // soft line break
+                builder.setLength(last);
+                builder.append(next);
+            } else if (next.length() > 0 && (next.charAt(0) == ' ' || next.charAt(0) == '\t')) {
+                builder.append(next, 1, next.length());
+            } else {
+                mNextLine = next;
+                break;
+            }
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Raw contact events of a card, see nextCard(). BDAY is read as birthday, ANNIVERSARY and
+     * X-ANNIVERSARY as anniversary. The name is taken from FN, or N if there is no FN.
+     * 
+     * @param card
+     * @param contactId
+     *            id of the card in its file
+     * @param lookupKey
+     *            used if the card has no UID
+     * @return
+     */
+    public static List<ContactEvent> getContactEvents(List<String> card, long contactId,
+            String lookupKey) {
+        String displayName = null;
+        String structuredName = null;
+        String uid = null;
+        ArrayList<ContactEvent> contactEvents = new ArrayList<ContactEvent>();
+
+        for (String line : card) {
+            int colon = indexOfValue(line);
+            if (colon == -1) {
+                continue;
+            }
+            String nameAndParameters = line.substring(0, colon);
+            String name = getPropertyName(nameAndParameters);
+            String value = line.substring(colon + 1);
+
+            if (name.equals("FN")) {
+                displayName = unescape(decode(nameAndParameters, value));
+            } else if (name.equals("N")) {
+                structuredName = getStructuredName(decode(nameAndParameters, value));
+            } else if (name.equals("UID")) {
+                uid = value.trim();
+            } else if (name.equals("BDAY")) {
+                contactEvents.add(newContactEvent(ContactEvent.TYPE_BIRTHDAY, value));
+            } else if (name.equals("ANNIVERSARY") || name.equals("X-ANNIVERSARY")) {
+                contactEvents.add(newContactEvent(ContactEvent.TYPE_ANNIVERSARY, value));
+            }
+        }
+
+        if (displayName == null || displayName.length() == 0) {
+            displayName = structuredName;
+        }
+        if (uid != null && uid.length() > 0) {
+            lookupKey = uid;
+        }
+        for (ContactEvent contactEvent : contactEvents) {
+            contactEvent.contactId = contactId;
+            contactEvent.lookupKey = lookupKey;
+            contactEvent.displayName = displayName;
+        }
+        return contactEvents;
+    }
+
+    private static ContactEvent newContactEvent(int eventType, String value) {
+        ContactEvent contactEvent = new ContactEvent();
+        contactEvent.eventType = eventType;
+        contactEvent.eventDateString = normalizeDate(value.trim());
+        return contactEvent;
+    }
+
+    /**
+     * Cuts off times and adds the dash missing in --MMdd of vCard 4.0
+     */
+    private static String normalizeDate(String date) {
+        int time = date.indexOf('T');
+        if (time > 0) {
+            date = date.substring(0, time);
+        }
+        if (date.length() == 6 && date.startsWith("--")) {
+            date = date.substring(0, 4) + "-" + date.substring(4);
+        }
+        return date;
+    }
+
+    /**
+     * Position of the colon separating name and parameters from the value, colons in quoted
+     * parameter values are skipped
+     */
+    static int indexOfValue(String line) {
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c == '"') {
+                quoted = !quoted;
+            } else if (c == ':' && !quoted) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Upper case property name without group, e.g., BDAY of "item1.BDAY;VALUE=date"
+     */
+    static String getPropertyName(String nameAndParameters) {
+        int semicolon = nameAndParameters.indexOf(';');
+        String name = semicolon == -1 ? nameAndParameters : nameAndParameters.substring(0,
+                semicolon);
+        int dot = name.lastIndexOf('.');
+        if (dot != -1) {
+            name = name.substring(dot + 1);
+        }
+        return name.trim().toUpperCase(Locale.US);
+    }
+
+    /**
+     * "Given Family" of N:Family;Given;Additional;Prefix;Suffix
+     */
+    private static String getStructuredName(String value) {
+        String[] parts = value.split(";", -1);
+        StringBuilder name = new StringBuilder();
+        int[] order = new int[] { 3, 1, 2, 0, 4 };
+        for (int index : order) {
+            if (index < parts.length) {
+                String part = unescape(parts[index]).trim();
+                if (part.length() > 0) {
+                    if (name.length() > 0) {
+                        name.append(' ');
+                    }
+                    name.append(part);
+                }
+            }
+        }
+        return name.length() > 0 ? name.toString() : null;
+    }
+
+    /**
+     * Decodes quoted-printable values of vCard 2.1 in their charset, UTF-8 if none is given
+     */
+    private static String decode(String nameAndParameters, String value) {
+        if (!containsIgnoreCase(nameAndParameters, "QUOTED-PRINTABLE")) {
+            return value;
+        }
+        String parameters = nameAndParameters.toUpperCase(Locale.US);
+
+        String charset = "UTF-8";
+        int charsetStart = parameters.indexOf("CHARSET=");
+        if (charsetStart != -1) {
+            int charsetEnd = parameters.indexOf(';', charsetStart);
+            charset = nameAndParameters.substring(charsetStart + 8,
+                    charsetEnd == -1 ? parameters.length() : charsetEnd);
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '=' && i + 2 < value.length() && isHex(value.charAt(i + 1))
+                    && isHex(value.charAt(i + 2))) {
+                bytes.write(Integer.parseInt(value.substring(i + 1, i + 3), 16));
+                i += 2;
+            } else {
+                bytes.write(c);
+            }
+        }
+        try {
+            return bytes.toString(charset);
+        } catch (UnsupportedEncodingException e) {
+            return value;
+        }
+    }
+
+    private static boolean containsIgnoreCase(String string, String part) {
+        for (int i = 0; i + part.length() <= string.length(); i++) {
+            if (string.regionMatches(true, i, part, 0, part.length())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isHex(char c) {
+        return Character.digit(c, 16) != -1;
+    }
+
+    /**
+     * Removes the escaping of text values
+     */
+    static String unescape(String value) {
+        if (value.indexOf('\\') == -1) {
+            return value;
+        }
+
+        StringBuilder builder = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\\' && i + 1 < value.length()) {
+                char next = value.charAt(++i);
+                builder.append(next == 'n' || next == 'N' ? '\n' : next);
+            } else {
+                builder.append(c);
+            }
+        }
+        return builder.toString();
+    }
+}
@@ -21,27 +21,61 @@
 
 package org.birthdayadapter.service;
 
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
 import java.util.ArrayList;
 import java.util.Calendar;
-import java.util.Date;
-import java.util.Locale;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.TimeZone;
+import java.util.TreeSet;
 
 import org.birthdayadapter.R;
+import org.birthdayadapter.engine.BirthdayIndex;
+import org.birthdayadapter.engine.CalendarEvent;
+import org.birthdayadapter.engine.ContactEvent;
+import org.birthdayadapter.engine.ContactTrace;
+import org.birthdayadapter.engine.ICalendarReader;
+import org.birthdayadapter.engine.ICalendarWriter;
+import org.birthdayadapter.engine.SyncConfig;
+import org.birthdayadapter.engine.SyncEngine;
+import org.birthdayadapter.engine.SyncRules;
+import org.birthdayadapter.engine.SyncStatistics;
+import org.birthdayadapter.engine.TitleFormat;
+import org.birthdayadapter.engine.VCardFileSource;
+import org.birthdayadapter.util.AccountHelper;
 import org.birthdayadapter.util.Constants;
 import org.birthdayadapter.util.Log;
 import org.birthdayadapter.util.PreferencesHelper;
+import org.birthdayadapter.util.TokenBucket;
 
 import android.accounts.Account;
 import android.accounts.OperationCanceledException;
 import android.annotation.SuppressLint;
+import android.annotation.TargetApi;
 import android.app.Service;
 import android.content.AbstractThreadedSyncAdapter;
 import android.content.ContentProviderClient;
 import android.content.ContentProviderOperation;
-import android.content.ContentResolver;
+import android.content.ContentProviderResult;
 import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Context;
@@ -52,7 +86,8 @@ import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
 import android.os.IBinder;
-import android.os.RemoteException;
+import android.os.Process;
+import android.os.SystemClock;
 import android.provider.BaseColumns;
 import android.provider.CalendarContract;
 import android.provider.CalendarContract.Calendars;
@@ -67,10 +102,72 @@ public class CalendarSyncAdapterService extends Service {
 
     private static String CALENDAR_COLUMN_NAME = "birthday_adapter";
 
+    /* calendar of the events imported from a vCard file, see importVCardFile() */
+    private static final String VCARD_CALENDAR_NAME = CALENDAR_COLUMN_NAME + "_vcard";
+
+    /* calendar of iCalendar files not exported by Birthday Adapter, see importCalendars() */
+    private static final String IMPORT_CALENDAR_NAME = CALENDAR_COLUMN_NAME + "_import";
+
+    /* appended to CALENDAR_COLUMN_NAME when sharding by event type, indexed like EVENT_TYPES */
+    private static final String[] SHARD_EVENT_TYPE_NAMES = new String[] { "birthday",
+            "anniversary", "other", "custom" };
+
+    /*
+     * Every event written by Birthday Adapter carries the fingerprint of the contact event it was
+     * generated from and the lookup key of its contact. This makes it possible to find out which
+     * events are outdated on incremental syncs.
+     */
+    static final String EVENT_FINGERPRINT_COLUMN = Events._SYNC_ID;
+    static final String EVENT_LOOKUP_KEY_COLUMN = Events.SYNC_DATA1;
+
+    /* actions that can be planned by performDryRun() */
+    public static final int DRY_RUN_FULL_SYNC = 0;
+    public static final int DRY_RUN_INCREMENTAL_SYNC = 1;
+    public static final int DRY_RUN_SYNCED_YEARS = 2;
+    public static final int DRY_RUN_REMINDERS = 3;
+    public static final int DRY_RUN_COLOR = 4;
+    public static final int DRY_RUN_ACTION_COUNT = 5;
+
+    /*
+     * Limits the rate of written operations while a background sync is performed, null if
+     * unlimited. Only the sync adapter thread uses it, as the sync adapter runs in its own process.
+     */
+    private static TokenBucket sWriteLimit;
+
+    /* stands in for calendars that would be created in a dry run */
+    private static final long DRY_RUN_CALENDAR_ID = Long.MAX_VALUE;
+
+    /* the calendars are scrubbed once a week, see performScrub() */
+    private static final long SCRUB_INTERVAL = 7 * DateUtils.DAY_IN_MILLIS;
+    private static final int SCRUB_CHUNK_SIZE = 50;
+
+    /* events of one page of an export, their ids are arguments of one query of reminders */
+    private static final int EXPORT_PAGE_SIZE = 500;
+
+    /*
+     * more changed contacts are synced incrementally, see performChangedContactsSync() and
+     * performRepair()
+     */
+    private static final int MAX_CHANGED_CONTACTS = 50;
+
+    /* index of upcoming contact events in the files directory, see saveBirthdayIndex() */
+    private static final String BIRTHDAY_INDEX_FILE = "birthday.index";
+
+    /* copy of the last imported vCard file in the files directory, see importVCardFile() */
+    private static final String VCARD_FILE = "import.vcf";
+
     public CalendarSyncAdapterService() {
         super();
     }
 
+    /**
+     * Thrown by applyBatch() when the sync has been canceled while waiting for the write limit,
+     * aborts the sync instead of writing the batch
+     */
+    private static class SyncInterruptedException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+    }
+
     private static class SyncAdapterImpl extends AbstractThreadedSyncAdapter {
         private Context mContext;
 
@@ -82,11 +179,37 @@ public class CalendarSyncAdapterService extends Service {
         @Override
         public void onPerformSync(Account account, Bundle extras, String authority,
                 ContentProviderClient provider, SyncResult syncResult) {
+            AccountHelper accountHelper = new AccountHelper(mContext);
+
+            // sync has been disabled, but the account is kept
+            if (!accountHelper.isSyncEnabled()) {
+                Log.d(Constants.TAG, "Sync is disabled, skipping sync!");
+                return;
+            }
+
+            // (re)start observing contacts, e.g., if the boot broadcast was missed
+            accountHelper.startContactsObserver();
+
+            // background syncs should not slow down calendar apps in the foreground
+            int priority = Process.getThreadPriority(Process.myTid());
+            if (PreferencesHelper.getLowPrioritySync(mContext)) {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+            }
+            int writeLimit = PreferencesHelper.getWriteLimit(mContext);
+            if (writeLimit > 0) {
+                sWriteLimit = new TokenBucket(writeLimit);
+            }
+
             try {
                 CalendarSyncAdapterService.performSync(mContext, account, extras, authority,
                         provider, syncResult);
             } catch (OperationCanceledException e) {
                 Log.e(Constants.TAG, "OperationCanceledException", e);
+            } catch (SyncInterruptedException e) {
+                Log.d(Constants.TAG, "Sync has been interrupted while waiting for the write limit");
+            } finally {
+                sWriteLimit = null;
+                Process.setThreadPriority(priority);
             }
         }
     }
@@ -118,52 +241,143 @@ public class CalendarSyncAdapterService extends Service {
     }
 
     /**
-     * Updates calendar color
+     * Updates color of all calendars
      * 
      * @param context
      * @param color
      */
     public static void updateCalendarColor(Context context, int color) {
-        ContentResolver contentResolver = context.getContentResolver();
+        ProviderSession session = new ProviderSession(context);
+        try {
+            updateCalendarColor(context, session, color);
+        } finally {
+            session.release();
+        }
+    }
 
-        Uri uri = ContentUris.withAppendedId(getBirthdayAdapterUri(Calendars.CONTENT_URI),
-                getCalendar(context));
+    /**
+     * updateCalendarColor(Context, int) within a session
+     */
+    private static void updateCalendarColor(Context context, ProviderSession session, int color) {
+        Log.d(Constants.TAG, "Updating calendar color to " + color);
 
-        Log.d(Constants.TAG, "Updating calendar color to " + color + " with uri " + uri.toString());
+        SyncEngine engine = getSyncEngine(context, session,
+                PreferencesHelper.getSyncConfig(context));
+        engine.updateCalendarColor(getCalendars(context, session).values(), color);
+    }
 
-        ContentProviderClient client = contentResolver
-                .acquireContentProviderClient(CalendarContract.AUTHORITY);
+    /**
+     * Shows or hides all calendars in calendar apps without touching their events
+     * 
+     * @param context
+     * @param visible
+     */
+    public static void updateCalendarVisibility(Context context, boolean visible) {
+        ProviderSession session = new ProviderSession(context);
+        try {
+            updateCalendarVisibility(context, session, visible);
+        } finally {
+            session.release();
+        }
+    }
 
+    /**
+     * updateCalendarVisibility(Context, boolean) within a session
+     */
+    private static void updateCalendarVisibility(Context context, ProviderSession session,
+            boolean visible) {
         ContentValues values = new ContentValues();
-        values.put(Calendars.CALENDAR_COLOR, color);
+        values.put(Calendars.VISIBLE, visible ? 1 : 0);
+        for (long calendarId : getCalendars(context, session).values()) {
+            Uri uri = ContentUris.withAppendedId(getBirthdayAdapterUri(Calendars.CONTENT_URI),
+                    calendarId);
+
+            Log.d(Constants.TAG, "Updating calendar visibility to " + visible + " with uri "
+                    + uri.toString());
+
+            if (isDryRun()) {
+                DryRunPlan.getActive().addCall(uri, DryRunPlan.TYPE_UPDATE, values);
+                continue;
+            }
+
+            if (session.update(uri, values, null, null) < 0) {
+                Log.e(Constants.TAG, "Error while updating calendar visibility!");
+            }
+        }
+    }
+
+    /**
+     * Gets all calendars of Birthday Adapter. Without sharding this is only one, otherwise there is
+     * one calendar for each shard, see getShards().
+     * 
+     * @param context
+     * @return calendar ids by calendar name (Calendars.NAME)
+     */
+    private static HashMap<String, Long> getCalendars(Context context, ProviderSession session) {
+        HashMap<String, Long> calendars = new HashMap<String, Long>();
+
+        // be sure to select the birthday calendars only (additionally to appendQueries in
+        // getBirthdayAdapterUri for Android < 4)
+        Cursor cursor = session.query(getBirthdayAdapterUri(Calendars.CONTENT_URI),
+                new String[] { BaseColumns._ID, Calendars.NAME }, Calendars.ACCOUNT_NAME
+                        + " = ? AND " + Calendars.ACCOUNT_TYPE + " = ?", new String[] {
+                        Constants.ACCOUNT_NAME, Constants.ACCOUNT_TYPE }, null);
+
+        if (cursor == null) {
+            Log.e(Constants.TAG, "Unable to get calendars! Cursor returns null!");
+            return calendars;
+        }
+
         try {
-            client.update(uri, values, null, null);
-        } catch (RemoteException e) {
-            Log.e(Constants.TAG, "Error while updating calendar color!");
-            e.printStackTrace();
+            while (cursor.moveToNext()) {
+                calendars.put(cursor.getString(1), cursor.getLong(0));
+            }
+        } finally {
+            cursor.close();
         }
-        client.release();
+
+        return calendars;
+    }
+
+    /**
+     * Gets the calendars of contacts, i.e., all calendars except the ones imported from a vCard
+     * file or a foreign iCalendar file, which are only changed by importVCardFile() and
+     * importCalendars(), and for the vCard file by updateSyncedYears()
+     * 
+     * @param context
+     * @return calendar ids by calendar name (Calendars.NAME)
+     */
+    private static HashMap<String, Long> getContactCalendars(Context context,
+            ProviderSession session) {
+        HashMap<String, Long> calendars = getCalendars(context, session);
+        calendars.remove(VCARD_CALENDAR_NAME);
+        calendars.remove(IMPORT_CALENDAR_NAME);
+        return calendars;
     }
 
     /**
      * Gets calendar id, when no calendar is present, create one!
      * 
      * @param context
+     * @param name
+     *            name of the calendar (Calendars.NAME)
+     * @param displayName
+     *            shown in calendar apps, only used when creating the calendar
      * @return
      */
-    private static long getCalendar(Context context) {
+    private static long getCalendar(Context context, ProviderSession session, SyncConfig config,
+            String name, String displayName) {
         Log.d(Constants.TAG, "getCalendar Method...");
 
-        ContentResolver contentResolver = context.getContentResolver();
-
         // Find the calendar if we've got one
         Uri calenderUri = getBirthdayAdapterUri(Calendars.CONTENT_URI);
 
         // be sure to select the birthday calendar only (additionally to appendQueries in
         // getBirthdayAdapterUri for Android < 4)
-        Cursor c1 = contentResolver.query(calenderUri, new String[] { BaseColumns._ID },
-                Calendars.ACCOUNT_NAME + " = ? AND " + Calendars.ACCOUNT_TYPE + " = ?",
-                new String[] { Constants.ACCOUNT_NAME, Constants.ACCOUNT_TYPE }, null);
+        Cursor c1 = session.query(calenderUri, new String[] { BaseColumns._ID },
+                Calendars.ACCOUNT_NAME + " = ? AND " + Calendars.ACCOUNT_TYPE + " = ? AND "
+                        + Calendars.NAME + " = ?", new String[] { Constants.ACCOUNT_NAME,
+                        Constants.ACCOUNT_TYPE, name }, null);
 
         try {
             if (c1.moveToNext()) {
@@ -175,23 +389,26 @@ public class CalendarSyncAdapterService extends Service {
                         .newInsert(calenderUri);
                 builder.withValue(Calendars.ACCOUNT_NAME, Constants.ACCOUNT_NAME);
                 builder.withValue(Calendars.ACCOUNT_TYPE, Constants.ACCOUNT_TYPE);
-                builder.withValue(Calendars.NAME, CALENDAR_COLUMN_NAME);
-                builder.withValue(Calendars.CALENDAR_DISPLAY_NAME,
-                        context.getString(R.string.calendar_display_name));
-                builder.withValue(Calendars.CALENDAR_COLOR, PreferencesHelper.getColor(context));
+                builder.withValue(Calendars.NAME, name);
+                builder.withValue(Calendars.CALENDAR_DISPLAY_NAME, displayName);
+                builder.withValue(Calendars.CALENDAR_COLOR, config.getColor());
                 builder.withValue(Calendars.CALENDAR_ACCESS_LEVEL, Calendars.CAL_ACCESS_READ);
                 builder.withValue(Calendars.OWNER_ACCOUNT, Constants.ACCOUNT_NAME);
                 builder.withValue(Calendars.SYNC_EVENTS, 1);
                 builder.withValue(Calendars.VISIBLE, 1);
                 operationList.add(builder.build());
+                if (isDryRun()) {
+                    DryRunPlan.getActive().addBatch(operationList);
+                    return DRY_RUN_CALENDAR_ID;
+                }
                 try {
-                    contentResolver.applyBatch(CalendarContract.AUTHORITY, operationList);
+                    session.applyBatch(CalendarContract.AUTHORITY, operationList);
                 } catch (Exception e) {
                     Log.e(Constants.TAG, "Error: " + e.getMessage());
                     e.printStackTrace();
                     return -1;
                 }
-                return getCalendar(context);
+                return getCalendar(context, session, config, name, displayName);
             }
         } finally {
             c1.close();
@@ -199,91 +416,56 @@ public class CalendarSyncAdapterService extends Service {
     }
 
     /**
-     * Delete all reminders of birthday adapter by going through all events and delete corresponding
-     * reminders.
-     * 
-     * TODO: Can this be done better with a join?
+     * Deletes calendars that belong to no shard anymore, e.g., after the sharding preference
+     * changed. Their events and reminders are deleted by the provider.
      * 
      * @param context
+     * @param shards
      */
-    private static void deleteAllReminders(Context context) {
-        Log.d(Constants.TAG, "Going through all events and deleting all reminders...");
-
-        ContentResolver contentResolver = context.getContentResolver();
-
-        // get cursor for all events
-        Cursor eventsCursor = contentResolver.query(getBirthdayAdapterUri(Events.CONTENT_URI),
-                new String[] { Events._ID }, Events.CALENDAR_ID + "= ?",
-                new String[] { String.valueOf(getCalendar(context)) }, null);
-        int eventIdColumn = eventsCursor.getColumnIndex(Events._ID);
-
-        ArrayList<ContentProviderOperation> operationList = new ArrayList<ContentProviderOperation>();
-
-        Uri remindersUri = getBirthdayAdapterUri(Reminders.CONTENT_URI);
-
-        ContentProviderOperation.Builder builder = null;
-
-        // go through all events
-        try {
-            while (eventsCursor.moveToNext()) {
-                long eventId = eventsCursor.getLong(eventIdColumn);
-
-                Log.d(Constants.TAG, "Delete reminders for event id: " + eventId);
-
-                // get all reminders for this specific event
-                Cursor remindersCursor = contentResolver.query(remindersUri, new String[] {
-                        Reminders._ID, Reminders.MINUTES }, Reminders.EVENT_ID + "= ?",
-                        new String[] { String.valueOf(eventId) }, null);
-                int remindersIdColumn = remindersCursor.getColumnIndex(Reminders._ID);
-
-                /* Delete reminders for this event */
-                try {
-                    while (remindersCursor.moveToNext()) {
-                        long currentReminderId = remindersCursor.getLong(remindersIdColumn);
-                        Uri currentReminderUri = ContentUris.withAppendedId(remindersUri,
-                                currentReminderId);
+    private static void deleteUnusedCalendars(Context context, ProviderSession session,
+            ArrayList<Shard> shards) {
+        HashMap<String, Long> calendars = getContactCalendars(context, session);
+        for (Shard shard : shards) {
+            calendars.remove(shard.calendarName);
+        }
 
-                        builder = ContentProviderOperation.newDelete(currentReminderUri);
+        for (Map.Entry<String, Long> calendar : calendars.entrySet()) {
+            Log.i(Constants.TAG, "Deleting unused calendar " + calendar.getKey());
 
-                        // add operation to list, later executed
-                        if (builder != null) {
-                            operationList.add(builder.build());
-                        }
-                    }
-                } finally {
-                    remindersCursor.close();
-                }
+            Uri uri = ContentUris.withAppendedId(getBirthdayAdapterUri(Calendars.CONTENT_URI),
+                    calendar.getValue());
+            if (isDryRun()) {
+                DryRunPlan.getActive().addCall(uri, DryRunPlan.TYPE_DELETE, null);
+            } else {
+                session.delete(uri, null, null);
             }
-        } finally {
-            eventsCursor.close();
-        }
-
-        try {
-            contentResolver.applyBatch(CalendarContract.AUTHORITY, operationList);
-        } catch (Exception e) {
-            Log.e(Constants.TAG, "Error: " + e.getMessage());
-            e.printStackTrace();
         }
     }
 
     /**
-     * Get all reminder minutes from preferences as int array
+     * Saves the names of the calendars of the shards, so that performRepair() notices when one of
+     * them goes missing
      * 
      * @param context
-     * @return
+     * @param shards
      */
-    private static int[] getReminderMinutes(Context context) {
-        // get all reminders
-        int[] minutes = new int[3];
-        for (int i = 0; i < 3; i++) {
-            minutes[i] = PreferencesHelper.getReminder(context, i);
+    private static void saveShardCalendars(Context context, ArrayList<Shard> shards) {
+        // nothing is saved in a dry run
+        if (isDryRun()) {
+            return;
         }
 
-        return minutes;
+        HashSet<String> names = new HashSet<String>();
+        for (Shard shard : shards) {
+            names.add(shard.calendarName);
+        }
+        if (!names.equals(PreferencesHelper.getShardCalendars(context))) {
+            PreferencesHelper.setShardCalendars(context, names);
+        }
     }
 
     /**
-     * Set all reminders in birthday calendar.
+     * Set all reminders in all birthday calendars.
      * 
      * newMinutes are given for reminder preference with number reminderNo. All other values are
      * retrieved from current preferences.
@@ -293,658 +475,1679 @@ public class CalendarSyncAdapterService extends Service {
      * @param newMinutes
      */
     public static void updateAllReminders(Context context, int reminderNo, int newMinutes) {
-        // before adding reminders, delete all existing ones
-        deleteAllReminders(context);
-
-        ContentResolver contentResolver = context.getContentResolver();
+        SyncConfig config = PreferencesHelper.getSyncConfig(context);
+        ProviderSession session = new ProviderSession(context);
+        try {
+            updateAllReminders(context, session, config, reminderNo, newMinutes);
+        } finally {
+            session.release();
+        }
+    }
 
+    /**
+     * updateAllReminders(Context, int, int) within a session
+     */
+    private static void updateAllReminders(Context context, ProviderSession session,
+            SyncConfig config, int reminderNo, int newMinutes) {
         // get all reminder minutes from prefs
-        int[] minutes = getReminderMinutes(context);
+        int[] minutes = config.getReminderMinutes();
         // override reminder with new value from preference
         minutes[reminderNo] = newMinutes;
 
-        // get cursor for all events
-        String[] eventsProjection = new String[] { Events._ID };
-        String eventsWhere = Events.CALENDAR_ID + " = ?";
-        String[] eventsSelectionArgs = new String[] { String.valueOf(getCalendar(context)) };
-        Cursor eventsCursor = contentResolver.query(getBirthdayAdapterUri(Events.CONTENT_URI),
-                eventsProjection, eventsWhere, eventsSelectionArgs, null);
-        int eventIdColumn = eventsCursor.getColumnIndex(Events._ID);
-
-        ArrayList<ContentProviderOperation> operationList = new ArrayList<ContentProviderOperation>();
+        SyncEngine engine = getSyncEngine(context, session, config);
+        for (long calendarId : getCalendars(context, session).values()) {
+            Log.d(Constants.TAG, "Updating reminders of calendar " + calendarId);
+            engine.updateReminders(calendarId, minutes);
+        }
+    }
 
-        Uri remindersUri = getBirthdayAdapterUri(Reminders.CONTENT_URI);
+    /**
+     * @return "?,?,..." with count placeholders
+     */
+    static String getPlaceholders(int count) {
+        StringBuilder placeholders = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                placeholders.append(",");
+            }
+            placeholders.append("?");
+        }
+        return placeholders.toString();
+    }
 
-        ContentProviderOperation.Builder builder = null;
+    /**
+     * Applies operationList as one batch and clears it afterwards. Back references in the batch
+     * are only valid inside the same batch, so operationList must never end in the middle of the
+     * operations of one event.
+     * 
+     * @param session
+     * @param operationList
+     * @return results of the operations, null if there were no operations or on error
+     */
+    static ContentProviderResult[] applyBatch(ProviderSession session,
+            ArrayList<ContentProviderOperation> operationList) {
+        if (operationList.size() == 0) {
+            return null;
+        }
 
-        // go through all events
-        try {
-            while (eventsCursor.moveToNext()) {
-                long eventId = eventsCursor.getLong(eventIdColumn);
+        if (isDryRun()) {
+            DryRunPlan.getActive().addBatch(operationList);
+            operationList.clear();
+            return null;
+        }
 
-                Log.d(Constants.TAG, "Insert reminders for event id: " + eventId);
+        // a canceled sync is interrupted while waiting, the batch is dropped and the sync aborted
+        if (sWriteLimit != null && !sWriteLimit.acquire(operationList.size())) {
+            operationList.clear();
+            throw new SyncInterruptedException();
+        }
 
-                for (int i = 0; i < 3; i++) {
-                    if (minutes[i] != Constants.DISABLED_REMINDER) {
-                        Log.d(Constants.TAG,
-                                "Create new reminder with uri " + remindersUri.toString());
-                        builder = ContentProviderOperation.newInsert(remindersUri);
-                        builder.withValue(Reminders.EVENT_ID, eventId);
-                        builder.withValue(Reminders.MINUTES, minutes[i]);
+        ContentProviderResult[] results = null;
+        try {
+            Log.d(Constants.TAG, "Start applying the batch...");
+            results = session.applyBatch(CalendarContract.AUTHORITY, operationList);
+            Log.d(Constants.TAG, "Applying the batch was successful!");
+        } catch (Exception e) {
+            Log.e(Constants.TAG, "Applying batch error!", e);
+        }
+        operationList.clear();
 
-                        // add operation to list, later executed
-                        operationList.add(builder.build());
-                    }
-                }
+        return results;
+    }
 
-                /*
-                 * intermediate commit - otherwise the binder transaction fails on large
-                 * operationList
-                 */
-                if (operationList.size() > 200) {
-                    try {
-                        Log.d(Constants.TAG, "Start applying the batch...");
-                        contentResolver.applyBatch(CalendarContract.AUTHORITY, operationList);
-                        Log.d(Constants.TAG, "Applying the batch was successful!");
-                        operationList.clear();
-                    } catch (Exception e) {
-                        Log.e(Constants.TAG, "Applying batch error!", e);
-                    }
+    /**
+     * Sum of the number of affected rows of delete or update results
+     * 
+     * @param results
+     * @return
+     */
+    private static int getAffectedRows(ContentProviderResult[] results) {
+        int rows = 0;
+        if (results != null) {
+            for (ContentProviderResult result : results) {
+                if (result.count != null) {
+                    rows += result.count;
                 }
             }
-        } finally {
-            eventsCursor.close();
         }
 
-        /* Create reminders */
-        if (operationList.size() > 0) {
-            try {
-                Log.d(Constants.TAG, "Start applying the batch...");
-                contentResolver.applyBatch(CalendarContract.AUTHORITY, operationList);
-                Log.d(Constants.TAG, "Applying the batch was successful!");
-            } catch (Exception e) {
-                Log.e(Constants.TAG, "Applying batch error!", e);
+        return rows;
+    }
+
+    private static void performSync(Context context, Account account, Bundle extras,
+            String authority, ContentProviderClient provider, SyncResult syncResult)
+            throws OperationCanceledException {
+        // all steps share one session and one snapshot of the preferences
+        SyncConfig config = PreferencesHelper.getSyncConfig(context);
+        ProviderSession session = new ProviderSession(context);
+        try {
+            // move the window of synced years first, if the year rollover was missed
+            if (PreferencesHelper.getWindowYear(context) != Calendar.getInstance().get(
+                    Calendar.YEAR)) {
+                updateSyncedYears(context, session, config);
             }
-        }
 
+            performIncrementalSync(context, session, config);
+
+            long lastScrub = PreferencesHelper.getLastScrub(context);
+            if (System.currentTimeMillis() - lastScrub > SCRUB_INTERVAL) {
+                performScrub(context, session, config);
+            }
+        } finally {
+            session.release();
+        }
     }
 
     /**
-     * Get a new ContentProviderOperation to insert a event
+     * Full sync: Deletes all events of the birthday calendars and recreates them from contacts.
      * 
      * @param context
-     * @param calendarId
-     * @param eventDate
-     * @param year
-     *            The event is inserted for this year
-     * @param title
-     * @return
      */
-    private static ContentProviderOperation insertEvent(Context context, long calendarId,
-            Date eventDate, int year, String title, String lookupKey) {
-        ContentProviderOperation.Builder builder;
+    public static void performSync(Context context) {
+        SyncConfig config = PreferencesHelper.getSyncConfig(context);
+        ProviderSession session = new ProviderSession(context);
+        try {
+            performSync(context, session, config);
+        } finally {
+            session.release();
+        }
+    }
+
+    /**
+     * performSync(Context) within a session
+     */
+    private static void performSync(Context context, ProviderSession session, SyncConfig config) {
+        Log.d(Constants.TAG, "Starting sync...");
 
-        builder = ContentProviderOperation.newInsert(getBirthdayAdapterUri(Events.CONTENT_URI));
+        SyncStatistics statistics = new SyncStatistics("Full sync");
+
+        // Okay, now this works as follows:
+        // 1. Get birthdays from contacts
+        // 2. Clear events table of each calendar completely
+        // 3. Create events for each birthday
 
-        Calendar cal = Calendar.getInstance();
-        cal.setTime(eventDate);
-        cal.set(Calendar.YEAR, year);
-        cal.set(Calendar.HOUR, 0);
-        cal.set(Calendar.MINUTE, 0);
-        cal.set(Calendar.SECOND, 0);
-        cal.set(Calendar.MILLISECOND, 0);
+        // Known limitations:
+        // - birthdays may be stored in other ways on some phones
+        // see
+        // http://stackoverflow.com/questions/8579883/get-birthday-for-each-contact-in-android-application
 
-        // allday events have to be set in UTC!
-        // without UTC it results in:
-        // CalendarProvider2 W insertInTransaction: allDay is true but sec, min, hour were not 0.
-        // http://stackoverflow.com/questions/3440172/getting-exception-when-inserting-events-in-android-calendar
-        cal.setTimeZone(TimeZone.getTimeZone("UTC"));
+        SyncEngine engine = getSyncEngine(context, session, config);
+        List<ContactEvent> contactEvents = engine.readContactEvents(null, statistics);
+        if (contactEvents == null) {
+            return;
+        }
+        saveBirthdayIndex(context, contactEvents);
 
-        // define over entire day. ALL_DAY is enough on original Android calendar, but some calendar
-        // apps, e.g., Business Calendar, will not display the event if time between dtstart and
-        // dtend is 0
-        long dtstart = cal.getTimeInMillis();
-        long dtend = dtstart + DateUtils.DAY_IN_MILLIS;
+        ArrayList<Shard> shards = getShards(context, session, config, contactEvents);
+        if (shards == null) {
+            return;
+        }
+        deleteUnusedCalendars(context, session, shards);
+        saveShardCalendars(context, shards);
 
-        builder.withValue(Events.CALENDAR_ID, calendarId);
-        builder.withValue(Events.DTSTART, dtstart);
-        builder.withValue(Events.DTEND, dtend);
-        builder.withValue(Events.TITLE, title);
-        builder.withValue(Events.ALL_DAY, 1);
-        // set availability to free. If not set HTC calendar will show a conflict with other events
-        builder.withValue(Events.AVAILABILITY, Events.AVAILABILITY_FREE);
-        builder.withValue(Events.STATUS, Events.STATUS_CONFIRMED);
+        for (Shard shard : shards) {
+            int delEventsRows = engine.clearCalendar(shard.calendarId, statistics);
+            Log.i(Constants.TAG, "Events of calendar " + shard.calendarName
+                    + " is now empty, deleted " + delEventsRows + " rows!");
+        }
 
-        // add button to open contact
-        if (Build.VERSION.SDK_INT >= 16 && lookupKey != null) {
-            builder.withValue(Events.CUSTOM_APP_PACKAGE, "org.birthdayadapter");
-            Uri contactLookupUri = Uri.withAppendedPath(
-                    ContactsContract.Contacts.CONTENT_LOOKUP_URI, lookupKey);
-            builder.withValue(Events.CUSTOM_APP_URI, contactLookupUri.toString());
+        // insert events of all shards together, so that upcoming events come first
+        engine.insertContactEvents(contactEvents, null, statistics);
+        if (!isDryRun()) {
+            PreferencesHelper.setWindowYear(context, Calendar.getInstance().get(Calendar.YEAR));
         }
 
-        return builder.build();
+        finishStatistics(context, statistics);
     }
 
     /**
-     * Because no year is defined in address book, set year to 1700
+     * Incremental sync: Only events of contact events that have been added, changed or removed
+     * since the last sync are written. Used for the automatic syncs triggered by the periodic sync
+     * and by changes in contacts. Renamed contacts only get new titles.
      * 
-     * When year < 1800 it is not displayed in brackets in the actual calendar event
-     * 
-     * @param eventDate
-     * @return
+     * @param context
      */
-    private static Date setYearTo1700(Date eventDate) {
-        Calendar cal = Calendar.getInstance();
-        cal.setTime(eventDate);
-        cal.set(Calendar.YEAR, 1700);
-        return cal.getTime();
+    public static void performIncrementalSync(Context context) {
+        SyncConfig config = PreferencesHelper.getSyncConfig(context);
+        ProviderSession session = new ProviderSession(context);
+        try {
+            performIncrementalSync(context, session, config);
+        } finally {
+            session.release();
+        }
     }
 
     /**
-     * The date format in the contact events is not standardized! See
-     * http://dmfs.org/carddav/?date_format . This method will try to parse it trying different date
-     * formats.
-     * 
-     * @param eventDateString
-     * @return eventDate as Date object
+     * performIncrementalSync(Context) within a session
      */
-    private static Date parseEventDateString(Context context, String eventDateString) {
-        if (eventDateString != null) {
-            Date eventDate = null;
-            boolean success = false;
-
-            /* yyyy-MM-dd */
-            Log.d(Constants.TAG, "Trying to parse Event Date String " + eventDateString
-                    + " with yyyy-MM-dd!");
-            SimpleDateFormat dateFormat1 = new SimpleDateFormat("yyyy-MM-dd", Locale.US);
-            dateFormat1.setTimeZone(TimeZone.getDefault());
-            try {
-                eventDate = dateFormat1.parse(eventDateString);
-                success = true;
-            } catch (ParseException e) {
-                Log.d(Constants.TAG, "Parsing failed!");
-            }
-
-            /* --MM-dd */
-            if (!success) {
-                Log.d(Constants.TAG, "Trying to parse Event Date String " + eventDateString
-                        + " with --MM-dd!");
-                SimpleDateFormat dateFormat2 = new SimpleDateFormat("--MM-dd", Locale.US);
-                dateFormat2.setTimeZone(TimeZone.getDefault());
-                try {
-                    eventDate = dateFormat2.parse(eventDateString);
+    private static void performIncrementalSync(Context context, ProviderSession session,
+            SyncConfig config) {
+        Log.d(Constants.TAG, "Starting incremental sync...");
 
-                    // dont display year
-                    eventDate = setYearTo1700(eventDate);
+        SyncStatistics statistics = new SyncStatistics("Incremental sync");
 
-                    success = true;
-                } catch (ParseException e) {
-                    Log.d(Constants.TAG, "Parsing failed!");
-                }
-            }
+        SyncEngine engine = getSyncEngine(context, session, config);
+        List<ContactEvent> contactEvents = engine.readContactEvents(null, statistics);
+        if (contactEvents == null) {
+            return;
+        }
+        saveBirthdayIndex(context, contactEvents);
 
-            /* yyyyMMdd */
-            if (!success) {
-                if (eventDateString.length() == 8) {
-                    Log.d(Constants.TAG, "Trying to parse Event Date String " + eventDateString
-                            + " with yyyyMMdd!");
-                    SimpleDateFormat dateFormat3 = new SimpleDateFormat("yyyyMMdd", Locale.US);
-                    dateFormat3.setTimeZone(TimeZone.getDefault());
-                    try {
-                        eventDate = dateFormat3.parse(eventDateString);
-                        success = true;
-                    } catch (ParseException e) {
-                        Log.d(Constants.TAG, "Parsing failed!");
-                    }
-                } else {
-                    Log.d(Constants.TAG, "Event Date String " + eventDateString
-                            + " could not be parsed with yyyyMMdd because length != 8!");
-                }
-            }
+        ArrayList<Shard> shards = getShards(context, session, config, contactEvents);
+        if (shards == null) {
+            return;
+        }
+        deleteUnusedCalendars(context, session, shards);
+        saveShardCalendars(context, shards);
 
-            /* Unix timestamp */
-            if (!success) {
-                Log.d(Constants.TAG, "Trying to parse Event Date String " + eventDateString
-                        + " as a unix timestamp!");
-                try {
-                    eventDate = new Date(Long.parseLong(eventDateString));
-                    success = true;
-                } catch (NumberFormatException e) {
-                    Log.d(Constants.TAG, "Parsing failed!");
-                }
-            }
+        for (Shard shard : shards) {
+            engine.syncCalendar(shard.calendarId, shard.contactEvents, null, statistics);
+        }
 
-            /* dd.MM.yyyy */
-            if (!success) {
-                Log.d(Constants.TAG, "Trying to parse Event Date String " + eventDateString
-                        + " with dd.MM.yyyy!");
-                SimpleDateFormat dateFormat4 = new SimpleDateFormat("dd.MM.yyyy", Locale.US);
-                dateFormat4.setTimeZone(TimeZone.getDefault());
-                try {
-                    eventDate = dateFormat4.parse(eventDateString);
-                    success = true;
-                } catch (ParseException e) {
-                    Log.d(Constants.TAG, "Parsing failed!");
-                }
-            }
+        finishStatistics(context, statistics);
+    }
 
-            /* yyyy.MM.dd */
-            if (!success) {
-                Log.d(Constants.TAG, "Trying to parse Event Date String " + eventDateString
-                        + " with yyyy.MM.dd!");
-                SimpleDateFormat dateFormat5 = new SimpleDateFormat("yyyy.MM.dd", Locale.US);
-                dateFormat5.setTimeZone(TimeZone.getDefault());
-                try {
-                    eventDate = dateFormat5.parse(eventDateString);
-                    success = true;
-                } catch (ParseException e) {
-                    Log.d(Constants.TAG, "Parsing failed!");
-                }
-            }
+    /**
+     * Contact sync: Only the events of one contact are reconciled with its contact events, like
+     * in the incremental sync. Used to push changes of a single contact through quickly.
+     * 
+     * @param context
+     * @param lookupKey
+     *            lookup key of the contact
+     */
+    public static void performContactSync(Context context, String lookupKey) {
+        SyncConfig config = PreferencesHelper.getSyncConfig(context);
+        ProviderSession session = new ProviderSession(context);
+        try {
+            performContactSync(context, session, config, lookupKey);
+        } finally {
+            session.release();
+        }
+    }
 
-            /**
-             * Prefer dd/MM/yyyy over MM/dd/yyyy ?
-             */
-            if (PreferencesHelper.getPreferddSlashMM(context)) {
-                /* dd/MM/yyyy */
-                if (!success) {
-                    Log.d(Constants.TAG, "Trying to parse Event Date String " + eventDateString
-                            + " with dd/MM/yyyy!");
-                    SimpleDateFormat dateFormat6 = new SimpleDateFormat("dd/MM/yyyy", Locale.US);
-                    dateFormat6.setTimeZone(TimeZone.getDefault());
-                    try {
-                        eventDate = dateFormat6.parse(eventDateString);
-                        success = true;
-                    } catch (ParseException e) {
-                        Log.d(Constants.TAG, "Parsing failed!");
-                    }
-                }
+    /**
+     * performContactSync(Context, String) within a session
+     */
+    private static void performContactSync(Context context, ProviderSession session,
+            SyncConfig config, String lookupKey) {
+        SyncStatistics statistics = new SyncStatistics("Contact sync");
 
-                /* dd/MM */
-                if (!success) {
-                    Log.d(Constants.TAG, "Trying to parse Event Date String " + eventDateString
-                            + " with dd/MM!");
-                    SimpleDateFormat dateFormat7 = new SimpleDateFormat("dd/MM", Locale.US);
-                    dateFormat7.setTimeZone(TimeZone.getDefault());
-                    try {
-                        eventDate = dateFormat7.parse(eventDateString);
-
-                        // dont display year
-                        eventDate = setYearTo1700(eventDate);
-
-                        success = true;
-                    } catch (ParseException e) {
-                        Log.d(Constants.TAG, "Parsing failed!");
-                    }
-                }
-            } else {
-                /*
-                 * MM/dd/yyyy
-                 * 
-                 * Used by Facebook!
-                 */
-                if (!success) {
-                    Log.d(Constants.TAG, "Trying to parse Event Date String " + eventDateString
-                            + " with MM/dd/yyyy!");
-                    SimpleDateFormat dateFormat6 = new SimpleDateFormat("MM/dd/yyyy", Locale.US);
-                    dateFormat6.setTimeZone(TimeZone.getDefault());
-                    try {
-                        eventDate = dateFormat6.parse(eventDateString);
-                        success = true;
-                    } catch (ParseException e) {
-                        Log.d(Constants.TAG, "Parsing failed!");
-                    }
-                }
+        if (syncContacts(context, session, config, Collections.singleton(lookupKey), statistics)) {
+            finishStatistics(context, statistics);
+        }
+    }
 
-                /*
-                 * MM/dd
-                 * 
-                 * Used by Facebook!
-                 */
-                if (!success) {
-                    Log.d(Constants.TAG, "Trying to parse Event Date String " + eventDateString
-                            + " with MM/dd!");
-                    SimpleDateFormat dateFormat7 = new SimpleDateFormat("MM/dd", Locale.US);
-                    dateFormat7.setTimeZone(TimeZone.getDefault());
-                    try {
-                        eventDate = dateFormat7.parse(eventDateString);
-
-                        // dont display year
-                        eventDate = setYearTo1700(eventDate);
-
-                        success = true;
-                    } catch (ParseException e) {
-                        Log.d(Constants.TAG, "Parsing failed!");
-                    }
-                }
+    /**
+     * Reconciles the events of the given contacts with their contact events, in all calendars of
+     * contacts, because events may have to be removed from calendars of other shards. The birthday
+     * index is patched with the contact events afterwards.
+     * 
+     * @param context
+     * @param lookupKeys
+     * @param statistics
+     * @return false on error
+     */
+    private static boolean syncContacts(Context context, ProviderSession session,
+            SyncConfig config, Collection<String> lookupKeys, SyncStatistics statistics) {
+        SyncEngine engine = getSyncEngine(context, session, config);
+        HashMap<String, Long> calendars = getContactCalendars(context, session);
+
+        ArrayList<ContactEvent> allContactEvents = new ArrayList<ContactEvent>();
+        for (String lookupKey : lookupKeys) {
+            Log.d(Constants.TAG, "Starting sync of contact " + lookupKey + "...");
+
+            List<ContactEvent> contactEvents = engine.readContactEvents(lookupKey, statistics);
+            if (contactEvents == null) {
+                return false;
             }
+            allContactEvents.addAll(contactEvents);
 
-            /* Return */
-            if (eventDate != null && success) {
-                Log.d(Constants.TAG, "Event Date String " + eventDateString + " was parsed as "
-                        + eventDate.toString());
+            ArrayList<Shard> shards = getShards(context, session, config, contactEvents);
+            if (shards == null) {
+                return false;
+            }
+            HashMap<String, Shard> shardsByName = new HashMap<String, Shard>();
+            for (Shard shard : shards) {
+                shardsByName.put(shard.calendarName, shard);
+                // calendars of new shards have just been created
+                calendars.put(shard.calendarName, shard.calendarId);
+            }
 
-                return eventDate;
-            } else {
-                Log.e(Constants.TAG, "Event Date String " + eventDateString
-                        + " could NOT be parsed! returning null!");
+            for (Map.Entry<String, Long> calendar : calendars.entrySet()) {
+                Shard shard = shardsByName.get(calendar.getKey());
+                List<ContactEvent> shardContactEvents = (shard != null) ? shard.contactEvents
+                        : new ArrayList<ContactEvent>();
 
-                return null;
+                engine.syncCalendar(calendar.getValue(), shardContactEvents, lookupKey,
+                        statistics);
             }
-        } else {
-            Log.d(Constants.TAG, "Event Date String is null!");
-
-            return null;
         }
+
+        updateBirthdayIndex(context, lookupKeys, allContactEvents);
+        return true;
     }
 
     /**
-     * Get Cursor of contacts with name, contact id, date of event, and type columns
+     * Changed contacts sync: Only the contacts updated since the last one are synced, like in
+     * performContactSync(). Used for changes in contacts seen by ContactsObserverService.
      * 
-     * @return
+     * Contacts are found by their last update timestamp, which exists since Android 4.3. Before,
+     * on the first run, and when contacts have been deleted, whose lookup keys are unknown
+     * afterwards, an incremental sync is performed instead. It is also used when more than
+     * MAX_CHANGED_CONTACTS changed, e.g., by a sync of an address book, as one read of all
+     * contacts is cheaper then.
+     * 
+     * @param context
      */
-    private static Cursor getContactsEvents(ContentResolver contentResolver) {
-        Uri uri = ContactsContract.Data.CONTENT_URI;
+    public static void performChangedContactsSync(Context context) {
+        SyncConfig config = PreferencesHelper.getSyncConfig(context);
+        ProviderSession session = new ProviderSession(context);
+        try {
+            // changes during this sync are synced by the next one
+            long now = System.currentTimeMillis();
+            long lastChange = PreferencesHelper.getLastContactsChange(context);
+
+            Set<String> lookupKeys = null;
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2 && lastChange > 0) {
+                lookupKeys = getChangedContacts(session, lastChange);
+            }
 
-        String[] projection = new String[] { ContactsContract.Contacts.DISPLAY_NAME,
-                ContactsContract.CommonDataKinds.Event.CONTACT_ID,
-                ContactsContract.CommonDataKinds.Event.LOOKUP_KEY,
-                ContactsContract.CommonDataKinds.Event.START_DATE,
-                ContactsContract.CommonDataKinds.Event.TYPE,
-                ContactsContract.CommonDataKinds.Event.LABEL };
+            if (lookupKeys == null) {
+                performIncrementalSync(context, session, config);
+            } else if (!lookupKeys.isEmpty()) {
+                Log.d(Constants.TAG, "Starting sync of " + lookupKeys.size()
+                        + " changed contacts...");
 
-        String where = ContactsContract.Data.MIMETYPE + "= ? AND "
-                + ContactsContract.CommonDataKinds.Event.TYPE + " IS NOT NULL";
-        String[] selectionArgs = new String[] { ContactsContract.CommonDataKinds.Event.CONTENT_ITEM_TYPE };
-        String sortOrder = null;
+                SyncStatistics statistics = new SyncStatistics("Changed contacts sync");
+                if (!syncContacts(context, session, config, lookupKeys, statistics)) {
+                    return;
+                }
+                finishStatistics(context, statistics);
+            }
 
-        return contentResolver.query(uri, projection, where, selectionArgs, sortOrder);
+            PreferencesHelper.setLastContactsChange(context, now);
+        } finally {
+            session.release();
+        }
     }
 
     /**
-     * Generates title for events
+     * Gets the lookup keys of the contacts updated after lastChange
      * 
-     * @param context
-     * @param eventType
-     * @param cursor
-     * @param eventCustomLabelColumn
-     * @param includeAge
-     * @param displayName
-     * @param age
-     * @return
+     * @param session
+     * @param lastChange
+     * @return null if contacts have been deleted, more than MAX_CHANGED_CONTACTS changed, or on
+     *         error
      */
-    private static String generateTitle(Context context, int eventType, Cursor cursor,
-            int eventCustomLabelColumn, boolean includeAge, String displayName, int age) {
-        String title = null;
-        if (displayName != null) {
-            switch (eventType) {
-            case ContactsContract.CommonDataKinds.Event.TYPE_CUSTOM:
-                String eventCustomLabel = cursor.getString(eventCustomLabelColumn);
-
-                if (eventCustomLabel != null) {
-                    if (includeAge) {
-                        title = String.format(
-                                context.getString(R.string.event_title_custom_with_age),
-                                displayName, eventCustomLabel, age);
-                    } else {
-                        title = String.format(
-                                context.getString(R.string.event_title_custom_without_age),
-                                displayName, eventCustomLabel);
-                    }
-                } else {
-                    if (includeAge) {
-                        title = String.format(
-                                context.getString(R.string.event_title_other_with_age),
-                                displayName, age);
-                    } else {
-                        title = String.format(
-                                context.getString(R.string.event_title_other_without_age),
-                                displayName);
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+    private static Set<String> getChangedContacts(ProviderSession session, long lastChange) {
+        String[] selectionArgs = new String[] { String.valueOf(lastChange) };
+
+        Cursor deletedCursor = session.query(ContactsContract.DeletedContacts.CONTENT_URI,
+                new String[] { ContactsContract.DeletedContacts.CONTACT_ID },
+                ContactsContract.DeletedContacts.CONTACT_DELETED_TIMESTAMP + " > ?",
+                selectionArgs, null);
+
+        if (deletedCursor == null) {
+            Log.e(Constants.TAG, "Unable to get deleted contacts! Cursor returns null!");
+            return null;
+        }
+
+        try {
+            if (deletedCursor.getCount() > 0) {
+                Log.d(Constants.TAG, "Contacts have been deleted");
+                return null;
+            }
+        } finally {
+            deletedCursor.close();
+        }
+
+        Cursor cursor = session.query(ContactsContract.Contacts.CONTENT_URI,
+                new String[] { ContactsContract.Contacts.LOOKUP_KEY },
+                ContactsContract.Contacts.CONTACT_LAST_UPDATED_TIMESTAMP + " > ?", selectionArgs,
+                null);
+
+        if (cursor == null) {
+            Log.e(Constants.TAG, "Unable to get changed contacts! Cursor returns null!");
+            return null;
+        }
+
+        HashSet<String> lookupKeys = new HashSet<String>();
+        try {
+            if (cursor.getCount() > MAX_CHANGED_CONTACTS) {
+                Log.d(Constants.TAG, cursor.getCount() + " contacts changed");
+                return null;
+            }
+
+            while (cursor.moveToNext()) {
+                lookupKeys.add(cursor.getString(0));
+            }
+        } finally {
+            cursor.close();
+        }
+
+        return lookupKeys;
+    }
+
+    /**
+     * Moves the window of synced years to the current year and applies changed numbers of synced
+     * years. For each contact event, only events of years that left the window are deleted and
+     * only events of years missing in the window are inserted. Years are determined from the
+     * events in the calendar, so running it late or more than once is fine.
+     * 
+     * Used for the year rollover and when the number of synced years is changed. Contact events
+     * that have no events in the calendar at all are left to the incremental sync. The calendar
+     * of an imported vCard file is moved as well.
+     * 
+     * @param context
+     */
+    public static void updateSyncedYears(Context context) {
+        SyncConfig config = PreferencesHelper.getSyncConfig(context);
+        ProviderSession session = new ProviderSession(context);
+        try {
+            updateSyncedYears(context, session, config);
+        } finally {
+            session.release();
+        }
+    }
+
+    /**
+     * updateSyncedYears(Context) within a session
+     */
+    private static void updateSyncedYears(Context context, ProviderSession session,
+            SyncConfig config) {
+        Log.d(Constants.TAG, "Updating synced years...");
+
+        SyncStatistics statistics = new SyncStatistics("Update of synced years");
+
+        SyncEngine engine = getSyncEngine(context, session, config);
+        List<ContactEvent> contactEvents = engine.readContactEvents(null, statistics);
+        if (contactEvents == null) {
+            return;
+        }
+
+        ArrayList<Shard> shards = getShards(context, session, config, contactEvents);
+        if (shards == null) {
+            return;
+        }
+
+        int currYear = Calendar.getInstance().get(Calendar.YEAR);
+        for (Shard shard : shards) {
+            engine.updateSyncedYears(shard.calendarId, shard.contactEvents, currYear,
+                    statistics);
+        }
+
+        // the events of an imported vCard file are moved with the copy kept by importVCardFile()
+        Long vCardCalendarId = getCalendars(context, session).get(VCARD_CALENDAR_NAME);
+        File vCardFile = new File(context.getFilesDir(), VCARD_FILE);
+        if (vCardCalendarId != null && vCardFile.exists()) {
+            SyncEngine vCardEngine = getSyncEngine(context, session, config, false);
+            try {
+                vCardEngine.updateVCardSyncedYears(vCardCalendarId, new VCardFileSource(
+                        vCardFile, config), currYear, statistics);
+            } catch (IOException e) {
+                Log.e(Constants.TAG, "Reading vCard file failed!", e);
+            }
+        }
+
+        if (!isDryRun()) {
+            PreferencesHelper.setWindowYear(context, currYear);
+        }
+
+        finishStatistics(context, statistics);
+    }
+
+    /**
+     * Calendar of Birthday Adapter together with the contact events written to it
+     */
+    private static class Shard {
+        String calendarName;
+        String calendarDisplayName;
+        long calendarId;
+        List<ContactEvent> contactEvents = new ArrayList<ContactEvent>();
+    }
+
+    /**
+     * Distributes the contact events to calendars depending on the sharding preference and sets
+     * their calendarId. Missing calendars are created. Without sharding, the single calendar is
+     * always returned, even if there are no contact events.
+     * 
+     * @param context
+     * @param contactEvents
+     * @return shards, null if a calendar could not be created
+     */
+    private static ArrayList<Shard> getShards(Context context, ProviderSession session,
+            SyncConfig config, List<ContactEvent> contactEvents) {
+        int sharding = config.getSharding();
+
+        LinkedHashMap<String, Shard> shards = new LinkedHashMap<String, Shard>();
+        if (sharding == Constants.SHARDING_NONE) {
+            Shard shard = new Shard();
+            shard.calendarName = CALENDAR_COLUMN_NAME;
+            shard.calendarDisplayName = context.getString(R.string.calendar_display_name);
+            shards.put(shard.calendarName, shard);
+        }
+
+        for (ContactEvent contactEvent : contactEvents) {
+            String calendarName = getCalendarName(sharding, contactEvent);
+            Shard shard = shards.get(calendarName);
+            if (shard == null) {
+                shard = new Shard();
+                shard.calendarName = calendarName;
+                shard.calendarDisplayName = getCalendarDisplayName(context, sharding,
+                        contactEvent);
+                shards.put(calendarName, shard);
+            }
+            shard.contactEvents.add(contactEvent);
+        }
+
+        for (Shard shard : shards.values()) {
+            shard.calendarId = getCalendar(context, session, config, shard.calendarName,
+                    shard.calendarDisplayName);
+            if (shard.calendarId == -1) {
+                Log.e(Constants.TAG, "Unable to create calendar " + shard.calendarName);
+                return null;
+            }
+            for (ContactEvent contactEvent : shard.contactEvents) {
+                contactEvent.calendarId = shard.calendarId;
+            }
+        }
+
+        return new ArrayList<Shard>(shards.values());
+    }
+
+    /**
+     * Name of the calendar (Calendars.NAME) of the contact event, identifies the shard
+     * 
+     * @param sharding
+     * @param contactEvent
+     * @return
+     */
+    private static String getCalendarName(int sharding, ContactEvent contactEvent) {
+        switch (sharding) {
+        case Constants.SHARDING_EVENT_TYPE:
+            return CALENDAR_COLUMN_NAME + "_type_"
+                    + SHARD_EVENT_TYPE_NAMES[SyncRules.getEventTypeIndex(contactEvent.eventType)];
+
+        case Constants.SHARDING_ACCOUNT:
+            return CALENDAR_COLUMN_NAME + "_account_" + contactEvent.accountType + "_"
+                    + contactEvent.accountName;
+
+        default:
+            return CALENDAR_COLUMN_NAME;
+        }
+    }
+
+    /**
+     * Display name of the calendar of the contact event
+     * 
+     * @param context
+     * @param sharding
+     * @param contactEvent
+     * @return
+     */
+    private static String getCalendarDisplayName(Context context, int sharding,
+            ContactEvent contactEvent) {
+        switch (sharding) {
+        case Constants.SHARDING_EVENT_TYPE:
+            switch (contactEvent.eventType) {
+            case ContactsContract.CommonDataKinds.Event.TYPE_BIRTHDAY:
+                return context.getString(R.string.calendar_display_name_birthday);
+
+            case ContactsContract.CommonDataKinds.Event.TYPE_ANNIVERSARY:
+                return context.getString(R.string.calendar_display_name_anniversary);
+
+            case ContactsContract.CommonDataKinds.Event.TYPE_OTHER:
+                return context.getString(R.string.calendar_display_name_other);
+
+            default:
+                return context.getString(R.string.calendar_display_name_custom);
+            }
+
+        case Constants.SHARDING_ACCOUNT:
+            if (contactEvent.accountName == null) {
+                return context.getString(R.string.calendar_display_name_local);
+            }
+            return context.getString(R.string.calendar_display_name_account,
+                    contactEvent.accountName);
+
+        default:
+            return context.getString(R.string.calendar_display_name);
+        }
+    }
+
+    /**
+     * Updates the titles of all events, e.g., after the locale changed
+     * 
+     * @param context
+     */
+    public static void updateAllTitles(Context context) {
+        SyncConfig config = PreferencesHelper.getSyncConfig(context);
+        ProviderSession session = new ProviderSession(context);
+        try {
+            updateAllTitles(context, session, config);
+        } finally {
+            session.release();
+        }
+    }
+
+    /**
+     * updateAllTitles(Context) within a session
+     */
+    private static void updateAllTitles(Context context, ProviderSession session,
+            SyncConfig config) {
+        Log.d(Constants.TAG, "Updating titles...");
+
+        SyncStatistics statistics = new SyncStatistics("Update of titles");
+
+        SyncEngine engine = getSyncEngine(context, session, config);
+        List<ContactEvent> contactEvents = engine.readContactEvents(null, statistics);
+        if (contactEvents == null) {
+            return;
+        }
+
+        ArrayList<Shard> shards = getShards(context, session, config, contactEvents);
+        if (shards == null) {
+            return;
+        }
+
+        for (Shard shard : shards) {
+            engine.updateEventTitles(shard.calendarId, shard.contactEvents, null, statistics);
+        }
+
+        finishStatistics(context, statistics);
+    }
+
+    /**
+     * Repair: Checks the calendars for changes made by others and rewrites only the contacts whose
+     * events were changed or deleted. Apps other than Birthday Adapter change events without
+     * CALLER_IS_SYNCADAPTER, which marks them as dirty or deleted, while our own writes never do.
+     * The events of these contacts are deleted and synced again like in performContactSync().
+     * 
+     * Calendars of contacts that the last sync wrote to, but which are missing now, e.g., after
+     * another app deleted one or the calendar storage was cleared, are recreated and filled.
+     * 
+     * @param context
+     */
+    public static void performRepair(Context context) {
+        SyncConfig config = PreferencesHelper.getSyncConfig(context);
+        ProviderSession session = new ProviderSession(context);
+        try {
+            performRepair(context, session, config);
+        } finally {
+            session.release();
+        }
+    }
+
+    /**
+     * performRepair(Context) within a session
+     */
+    private static void performRepair(Context context, ProviderSession session, SyncConfig config) {
+        Log.d(Constants.TAG, "Checking calendars for external changes...");
+
+        SyncStatistics statistics = new SyncStatistics("Repair");
+
+        HashMap<String, Long> calendars = getContactCalendars(context, session);
+        Set<String> expectedCalendars = PreferencesHelper.getShardCalendars(context);
+        boolean calendarsMissing = calendars.isEmpty();
+        for (String name : expectedCalendars) {
+            if (!calendars.containsKey(name)) {
+                calendarsMissing = true;
+            }
+        }
+
+        if (calendarsMissing) {
+            Log.i(Constants.TAG, "Birthday calendars are missing, recreating them...");
+
+            SyncEngine engine = getSyncEngine(context, session, config);
+            List<ContactEvent> contactEvents = engine.readContactEvents(null, statistics);
+            if (contactEvents == null) {
+                return;
+            }
+
+            // creates the missing calendars
+            ArrayList<Shard> shards = getShards(context, session, config, contactEvents);
+            if (shards == null) {
+                return;
+            }
+            for (Shard shard : shards) {
+                if (!calendars.containsKey(shard.calendarName)) {
+                    engine.syncCalendar(shard.calendarId, shard.contactEvents, null, statistics);
+                }
+            }
+            saveShardCalendars(context, shards);
+
+            // only the calendars that already existed are checked below
+            if (calendars.isEmpty()) {
+                finishStatistics(context, statistics);
+                return;
+            }
+        }
+
+        StringBuilder calendarIds = new StringBuilder();
+        for (long calendarId : calendars.values()) {
+            if (calendarIds.length() > 0) {
+                calendarIds.append(",");
+            }
+            calendarIds.append(calendarId);
+        }
+        String calendarSelection = Events.CALENDAR_ID + " IN (" + calendarIds + ")";
+
+        Uri eventsUri = getBirthdayAdapterUri(Events.CONTENT_URI);
+        Cursor eventsCursor = session.query(eventsUri, new String[] { Events._ID,
+                EVENT_LOOKUP_KEY_COLUMN }, calendarSelection + " AND (" + Events.DIRTY
+                + " = 1 OR " + Events.DELETED + " = 1)", null, null);
+
+        if (eventsCursor == null) {
+            Log.e(Constants.TAG, "Unable to get events of birthday calendar! Cursor returns null!");
+            return;
+        }
+
+        ArrayList<ContentProviderOperation> operationList = new ArrayList<ContentProviderOperation>();
+        HashSet<String> lookupKeys = new HashSet<String>();
+        try {
+            while (eventsCursor.moveToNext()) {
+                String lookupKey = eventsCursor.getString(1);
+                if (lookupKey == null) {
+                    operationList.add(ContentProviderOperation.newDelete(
+                            ContentUris.withAppendedId(eventsUri, eventsCursor.getLong(0)))
+                            .build());
+                } else {
+                    lookupKeys.add(lookupKey);
+                }
+            }
+        } finally {
+            eventsCursor.close();
+        }
+
+        if (operationList.isEmpty() && lookupKeys.isEmpty()) {
+            Log.d(Constants.TAG, "No external changes found");
+            if (calendarsMissing) {
+                finishStatistics(context, statistics);
+            }
+            return;
+        }
+
+        // delete all events of affected contacts, they are synced again below
+        for (String lookupKey : lookupKeys) {
+            operationList.add(ContentProviderOperation.newDelete(eventsUri)
+                    .withSelection(calendarSelection + " AND " + EVENT_LOOKUP_KEY_COLUMN + " = ?",
+                            new String[] { lookupKey }).withYieldAllowed(true).build());
+
+            if (operationList.size() > SyncEngine.MAX_BATCH_SIZE) {
+                statistics.addDeletedEvents(getAffectedRows(applyBatch(session, operationList)));
+            }
+        }
+        statistics.addDeletedEvents(getAffectedRows(applyBatch(session, operationList)));
+
+        Log.i(Constants.TAG, "Events of " + lookupKeys.size()
+                + " contacts were changed externally, repairing...");
+
+        // like for changed contacts, one read of all contacts is cheaper for many of them
+        if (lookupKeys.size() > MAX_CHANGED_CONTACTS) {
+            performIncrementalSync(context, session, config);
+            return;
+        }
+        if (syncContacts(context, session, config, lookupKeys, statistics)) {
+            finishStatistics(context, statistics);
+        }
+    }
+
+    /**
+     * Scrub: Verifies that the events and reminders in the calendars match the contact events and
+     * repairs only the contacts whose events differ, e.g., after events were lost by a wipe of the
+     * calendar provider or modified by other apps. For each contact, a checksum of the events and
+     * reminders it should have is compared with a checksum of the rows actually in the calendar.
+     * 
+     * The calendars are walked in chunks of SCRUB_CHUNK_SIZE contacts with low thread priority.
+     * After each chunk the scrub pauses, so that it only takes the share of time given by the
+     * scrub budget preference.
+     * 
+     * @param context
+     */
+    public static void performScrub(Context context) {
+        SyncConfig config = PreferencesHelper.getSyncConfig(context);
+        ProviderSession session = new ProviderSession(context);
+        try {
+            performScrub(context, session, config);
+        } finally {
+            session.release();
+        }
+    }
+
+    /**
+     * performScrub(Context) within a session
+     */
+    private static void performScrub(Context context, ProviderSession session, SyncConfig config) {
+        Log.d(Constants.TAG, "Starting scrub...");
+
+        SyncStatistics statistics = new SyncStatistics("Scrub");
+
+        SyncEngine engine = getSyncEngine(context, session, config);
+        List<ContactEvent> contactEvents = engine.readContactEvents(null, statistics);
+        if (contactEvents == null) {
+            return;
+        }
+
+        ArrayList<Shard> shards = getShards(context, session, config, contactEvents);
+        if (shards == null) {
+            return;
+        }
+
+        // the thread is owned by the sync manager, restore its priority afterwards
+        int priority = Process.getThreadPriority(Process.myTid());
+        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+        try {
+            boolean completed = true;
+            for (Shard shard : shards) {
+                if (!scrubCalendar(session, engine, shard, statistics)) {
+                    completed = false;
+                    break;
+                }
+            }
+
+            // an incomplete scrub is repeated on the next sync
+            if (completed) {
+                PreferencesHelper.setLastScrub(context, System.currentTimeMillis());
+            }
+        } finally {
+            Process.setThreadPriority(priority);
+        }
+
+        finishStatistics(context, statistics);
+    }
+
+    /**
+     * Scrubs the calendar of one shard, see performScrub(). Contacts that only have events in the
+     * calendar, but no contact events anymore, are checked as well and their events deleted.
+     * 
+     * @param session
+     * @param engine
+     * @param shard
+     * @param statistics
+     * @return false if the scrub failed or was interrupted
+     */
+    private static boolean scrubCalendar(ProviderSession session, SyncEngine engine, Shard shard,
+            SyncStatistics statistics) {
+        HashMap<String, ArrayList<ContactEvent>> contactEventsByLookupKey =
+                new HashMap<String, ArrayList<ContactEvent>>();
+        for (ContactEvent contactEvent : shard.contactEvents) {
+            ArrayList<ContactEvent> contactEvents = contactEventsByLookupKey
+                    .get(contactEvent.lookupKey);
+            if (contactEvents == null) {
+                contactEvents = new ArrayList<ContactEvent>();
+                contactEventsByLookupKey.put(contactEvent.lookupKey, contactEvents);
+            }
+            contactEvents.add(contactEvent);
+        }
+
+        TreeSet<String> lookupKeys = new TreeSet<String>(contactEventsByLookupKey.keySet());
+        Uri eventsUri = getBirthdayAdapterUri(Events.CONTENT_URI);
+        Cursor eventsCursor = session.query(eventsUri,
+                new String[] { EVENT_LOOKUP_KEY_COLUMN }, Events.CALENDAR_ID + " = ? AND "
+                        + EVENT_LOOKUP_KEY_COLUMN + " IS NOT NULL",
+                new String[] { String.valueOf(shard.calendarId) }, null);
+
+        if (eventsCursor == null) {
+            Log.e(Constants.TAG, "Unable to get events of birthday calendar! Cursor returns null!");
+            return false;
+        }
+
+        try {
+            while (eventsCursor.moveToNext()) {
+                lookupKeys.add(eventsCursor.getString(0));
+            }
+        } finally {
+            eventsCursor.close();
+        }
+
+        int budget = engine.getConfig().getScrubBudget();
+        int[] reminderMinutes = engine.getConfig().getReminderMinutes();
+        int currYear = Calendar.getInstance().get(Calendar.YEAR);
+
+        ArrayList<String> allLookupKeys = new ArrayList<String>(lookupKeys);
+        for (int start = 0; start < allLookupKeys.size(); start += SCRUB_CHUNK_SIZE) {
+            long chunkStartTime = SystemClock.elapsedRealtime();
+            List<String> chunk = allLookupKeys.subList(start,
+                    Math.min(start + SCRUB_CHUNK_SIZE, allLookupKeys.size()));
+
+            HashMap<String, ArrayList<String>> actualEntries = getActualScrubEntries(
+                    session, shard.calendarId, chunk);
+            if (actualEntries == null) {
+                return false;
+            }
+
+            ArrayList<ContentProviderOperation> operationList = new ArrayList<ContentProviderOperation>();
+            ArrayList<ContactEvent> repairedContactEvents = new ArrayList<ContactEvent>();
+            for (String lookupKey : chunk) {
+                ArrayList<ContactEvent> contactEvents = contactEventsByLookupKey.get(lookupKey);
+                if (contactEvents == null) {
+                    contactEvents = new ArrayList<ContactEvent>();
+                }
+
+                ArrayList<String> expected = new ArrayList<String>();
+                for (ContactEvent contactEvent : contactEvents) {
+                    int endYear = engine.getEndYear(contactEvent, currYear);
+                    for (int year = engine.getStartYear(contactEvent, currYear); year <= endYear;
+                            year++) {
+                        String title = engine.getEventTitle(contactEvent, year);
+                        if (title != null) {
+                            expected.add(getScrubEntry(contactEvent.fingerprint, year, title,
+                                    reminderMinutes));
+                        }
+                    }
+                }
+                ArrayList<String> actual = actualEntries.get(lookupKey);
+                if (actual == null) {
+                    actual = new ArrayList<String>();
+                }
+
+                statistics.addScrubbedContact();
+                if (getChecksum(expected).equals(getChecksum(actual))) {
+                    continue;
+                }
+
+                // rewrite all events of the contact, reminders are deleted by the provider
+                Log.i(Constants.TAG, "Events of contact " + lookupKey + " in calendar "
+                        + shard.calendarName + " are inconsistent, repairing...");
+                operationList.add(ContentProviderOperation
+                        .newDelete(eventsUri)
+                        .withSelection(
+                                Events.CALENDAR_ID + " = ? AND " + EVENT_LOOKUP_KEY_COLUMN
+                                        + " = ?",
+                                new String[] { String.valueOf(shard.calendarId), lookupKey })
+                        .withYieldAllowed(true).build());
+                repairedContactEvents.addAll(contactEvents);
+                statistics.addRepairedContact();
+            }
+            statistics.addDeletedEvents(getAffectedRows(applyBatch(session,
+                    operationList)));
+            engine.insertContactEvents(repairedContactEvents, null, statistics);
+
+            Log.d(Constants.TAG, "Scrubbed " + (start + chunk.size()) + " of "
+                    + allLookupKeys.size() + " contacts in calendar " + shard.calendarName);
+
+            // pause, so that scrubbing only takes the budgeted share of time
+            long chunkTime = SystemClock.elapsedRealtime() - chunkStartTime;
+            try {
+                Thread.sleep(chunkTime * (100 - budget) / budget);
+            } catch (InterruptedException e) {
+                Log.d(Constants.TAG, "Scrub has been interrupted");
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Reads the events and reminders of the given contacts from the calendar
+     * 
+     * @param session
+     * @param calendarId
+     * @param lookupKeys
+     * @return scrub entries by lookup key, null on error
+     */
+    private static HashMap<String, ArrayList<String>> getActualScrubEntries(
+            ProviderSession session, long calendarId, List<String> lookupKeys) {
+        String[] selectionArgs = new String[lookupKeys.size() + 1];
+        selectionArgs[0] = String.valueOf(calendarId);
+        for (int i = 0; i < lookupKeys.size(); i++) {
+            selectionArgs[i + 1] = lookupKeys.get(i);
+        }
+
+        Cursor eventsCursor = session.query(getBirthdayAdapterUri(Events.CONTENT_URI),
+                new String[] { Events._ID, EVENT_LOOKUP_KEY_COLUMN, EVENT_FINGERPRINT_COLUMN,
+                        Events.DTSTART, Events.TITLE }, Events.CALENDAR_ID + " = ? AND "
+                        + EVENT_LOOKUP_KEY_COLUMN + " IN ("
+                        + getPlaceholders(lookupKeys.size()) + ")", selectionArgs, null);
+
+        if (eventsCursor == null) {
+            Log.e(Constants.TAG, "Unable to get events of birthday calendar! Cursor returns null!");
+            return null;
+        }
+
+        ArrayList<Long> eventIds = new ArrayList<Long>();
+        ArrayList<String> eventLookupKeys = new ArrayList<String>();
+        ArrayList<String> eventEntries = new ArrayList<String>();
+        try {
+            Calendar utcCal = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+            while (eventsCursor.moveToNext()) {
+                utcCal.setTimeInMillis(eventsCursor.getLong(3));
+
+                eventIds.add(eventsCursor.getLong(0));
+                eventLookupKeys.add(eventsCursor.getString(1));
+                // reminders are appended below
+                eventEntries.add(eventsCursor.getString(2) + "/" + utcCal.get(Calendar.YEAR)
+                        + "/" + eventsCursor.getString(4));
+            }
+        } finally {
+            eventsCursor.close();
+        }
+
+        HashMap<Long, ArrayList<Integer>> reminders = new HashMap<Long, ArrayList<Integer>>();
+        if (!eventIds.isEmpty()) {
+            StringBuilder ids = new StringBuilder();
+            for (long eventId : eventIds) {
+                if (ids.length() > 0) {
+                    ids.append(",");
+                }
+                ids.append(eventId);
+            }
+
+            Cursor remindersCursor = session.query(
+                    getBirthdayAdapterUri(Reminders.CONTENT_URI), new String[] {
+                            Reminders.EVENT_ID, Reminders.MINUTES }, Reminders.EVENT_ID + " IN ("
+                            + ids + ")", null, null);
+
+            if (remindersCursor == null) {
+                Log.e(Constants.TAG, "Unable to get reminders! Cursor returns null!");
+                return null;
+            }
+
+            try {
+                while (remindersCursor.moveToNext()) {
+                    ArrayList<Integer> minutes = reminders.get(remindersCursor.getLong(0));
+                    if (minutes == null) {
+                        minutes = new ArrayList<Integer>();
+                        reminders.put(remindersCursor.getLong(0), minutes);
                     }
+                    minutes.add(remindersCursor.getInt(1));
                 }
+            } finally {
+                remindersCursor.close();
+            }
+        }
+
+        HashMap<String, ArrayList<String>> entries = new HashMap<String, ArrayList<String>>();
+        for (int i = 0; i < eventIds.size(); i++) {
+            ArrayList<Integer> minutes = reminders.get(eventIds.get(i));
+            if (minutes == null) {
+                minutes = new ArrayList<Integer>();
+            }
+            Collections.sort(minutes);
+
+            ArrayList<String> contactEntries = entries.get(eventLookupKeys.get(i));
+            if (contactEntries == null) {
+                contactEntries = new ArrayList<String>();
+                entries.put(eventLookupKeys.get(i), contactEntries);
+            }
+            contactEntries.add(eventEntries.get(i) + "/" + minutes);
+        }
+
+        return entries;
+    }
+
+    /**
+     * Entry of an expected event for the scrub checksum, must match the entries built by
+     * getActualScrubEntries()
+     */
+    private static String getScrubEntry(String fingerprint, int year, String title,
+            int[] reminderMinutes) {
+        ArrayList<Integer> minutes = new ArrayList<Integer>();
+        for (int reminder : reminderMinutes) {
+            if (reminder != Constants.DISABLED_REMINDER) {
+                minutes.add(reminder);
+            }
+        }
+        Collections.sort(minutes);
+
+        return fingerprint + "/" + year + "/" + title + "/" + minutes;
+    }
+
+    /**
+     * Checksum of scrub entries independent of their order
+     * 
+     * @param entries
+     *            sorted by this method
+     * @return
+     */
+    private static String getChecksum(ArrayList<String> entries) {
+        Collections.sort(entries);
+
+        StringBuilder input = new StringBuilder();
+        for (String entry : entries) {
+            input.append(entry).append('\u0000');
+        }
+
+        try {
+            MessageDigest digest = MessageDigest.getInstance("MD5");
+            byte[] hash = digest.digest(input.toString().getBytes("UTF-8"));
+
+            return SyncRules.toHex(hash, hash.length);
+        } catch (NoSuchAlgorithmException e) {
+            Log.e(Constants.TAG, "MD5 not available, comparing entries directly!", e);
+        } catch (UnsupportedEncodingException e) {
+            Log.e(Constants.TAG, "UTF-8 not available, comparing entries directly!", e);
+        }
+        return input.toString();
+    }
+
+    /**
+     * Dry run: Performs an action with all reads, parsing, and planning, but collects the writes in
+     * a plan instead of applying them. Reminders and color are planned with their current values
+     * from the preferences.
+     * 
+     * Must only be called from MainIntentService, see DryRunPlan.
+     * 
+     * @param context
+     * @param action
+     *            one of DRY_RUN_*
+     * @return the plan, also logged
+     */
+    public static DryRunPlan performDryRun(Context context, int action) {
+        String[] names = new String[] { "Full sync", "Incremental sync", "Update of synced years",
+                "Update of reminders", "Update of color" };
+        DryRunPlan plan = DryRunPlan.start(names[action]);
+        try {
+            switch (action) {
+            case DRY_RUN_FULL_SYNC:
+                performSync(context);
                 break;
-            case ContactsContract.CommonDataKinds.Event.TYPE_ANNIVERSARY:
-                if (includeAge) {
-                    title = String.format(
-                            context.getString(R.string.event_title_anniversary_with_age),
-                            displayName, age);
-                } else {
-                    title = String.format(
-                            context.getString(R.string.event_title_anniversary_without_age),
-                            displayName);
-                }
+
+            case DRY_RUN_INCREMENTAL_SYNC:
+                performIncrementalSync(context);
                 break;
-            case ContactsContract.CommonDataKinds.Event.TYPE_OTHER:
-                if (includeAge) {
-                    title = String.format(context.getString(R.string.event_title_other_with_age),
-                            displayName, age);
-                } else {
-                    title = String.format(
-                            context.getString(R.string.event_title_other_without_age), displayName);
-                }
+
+            case DRY_RUN_SYNCED_YEARS:
+                updateSyncedYears(context);
                 break;
-            case ContactsContract.CommonDataKinds.Event.TYPE_BIRTHDAY:
-                if (includeAge) {
-                    title = String.format(
-                            context.getString(R.string.event_title_birthday_with_age), displayName,
-                            age);
-                } else {
-                    title = String.format(
-                            context.getString(R.string.event_title_birthday_without_age),
-                            displayName);
-                }
+
+            case DRY_RUN_REMINDERS:
+                updateAllReminders(context, 0,
+                        PreferencesHelper.getSyncConfig(context).getReminderMinutes()[0]);
+                break;
+
+            case DRY_RUN_COLOR:
+                updateCalendarColor(context, PreferencesHelper.getSyncConfig(context).getColor());
                 break;
+
             default:
-                if (includeAge) {
-                    title = String.format(context.getString(R.string.event_title_other_with_age),
-                            displayName, age);
-                } else {
-                    title = String.format(
-                            context.getString(R.string.event_title_other_without_age), displayName);
-                }
                 break;
             }
+        } finally {
+            DryRunPlan.finish();
         }
 
-        return title;
+        Log.i(Constants.TAG, plan.toString());
+        return plan;
     }
 
-    private static void performSync(Context context, Account account, Bundle extras,
-            String authority, ContentProviderClient provider, SyncResult syncResult)
-            throws OperationCanceledException {
-        performSync(context);
+    /**
+     * Captures the rows read from contacts as anonymized trace in the app specific directory on
+     * external storage, see ContactTrace. The trace can be replayed by the benchmarks without the
+     * device, to reproduce slow syncs caused by the shape of an address book.
+     * 
+     * @param context
+     * @return report of the capture, also logged
+     */
+    public static String captureTrace(Context context) {
+        File dir = context.getExternalFilesDir(null);
+        if (dir == null) {
+            Log.e(Constants.TAG, "External storage not available, trace not captured!");
+            return context.getString(R.string.capture_trace_failed);
+        }
+        File file = new File(dir, "contacts-" + System.currentTimeMillis() + ".trace");
+
+        ProviderSession session = new ProviderSession(context);
+        try {
+            List<ContactEvent> contactEvents = new ProviderContactSource(session,
+                    PreferencesHelper.getSyncConfig(context)).getContactEvents(null);
+            if (contactEvents == null) {
+                return context.getString(R.string.capture_trace_failed);
+            }
+
+            ContactTrace.write(contactEvents, new FileOutputStream(file), new SecureRandom());
+
+            String report = context.getString(R.string.capture_trace_done, contactEvents.size(),
+                    file.getAbsolutePath());
+            Log.i(Constants.TAG, report);
+            return report;
+        } catch (IOException e) {
+            Log.e(Constants.TAG, "Writing trace failed!", e);
+            file.delete();
+            return context.getString(R.string.capture_trace_failed);
+        } finally {
+            session.release();
+        }
     }
 
-    public static void performSync(Context context) {
-        Log.d(Constants.TAG, "Starting sync...");
+    /**
+     * Exports all calendars of Birthday Adapter with their events and reminders to an iCalendar
+     * file in the external files directory, one VCALENDAR for each calendar. Events are read in
+     * pages ordered by their id and streamed to the file with the reminders of their page, so the
+     * export needs constant memory for calendars of any size.
+     * 
+     * @param context
+     * @return report shown to the user
+     */
+    public static String exportCalendars(Context context) {
+        File dir = context.getExternalFilesDir(null);
+        if (dir == null) {
+            Log.e(Constants.TAG, "External storage not available, calendars not exported!");
+            return context.getString(R.string.export_calendar_failed);
+        }
+        File file = new File(dir, "birthdays-" + System.currentTimeMillis() + ".ics");
 
-        ContentResolver contentResolver = context.getContentResolver();
+        ProviderSession session = new ProviderSession(context);
+        try {
+            Writer writer = new BufferedWriter(Channels.newWriter(
+                    new FileOutputStream(file).getChannel(), "UTF-8"), 64 * 1024);
+            int events;
+            try {
+                events = exportCalendars(session, new ICalendarWriter(writer,
+                        System.currentTimeMillis()));
+            } finally {
+                writer.close();
+            }
+            if (events == -1) {
+                file.delete();
+                return context.getString(R.string.export_calendar_failed);
+            }
 
-        if (contentResolver == null) {
-            Log.e(Constants.TAG, "Unable to get content resolver!");
-            return;
+            String report = context.getString(R.string.export_calendar_done, events,
+                    file.getAbsolutePath());
+            Log.i(Constants.TAG, report);
+            return report;
+        } catch (IOException e) {
+            Log.e(Constants.TAG, "Writing export failed!", e);
+            file.delete();
+            return context.getString(R.string.export_calendar_failed);
+        } finally {
+            session.release();
         }
+    }
 
-        long calendarId = getCalendar(context);
-        if (calendarId == -1) {
-            Log.e("CalendarSyncAdapter", "Unable to create calendar");
-            return;
+    /**
+     * exportCalendars(Context) to a writer
+     * 
+     * @return number of exported events, -1 if the calendars could not be read
+     */
+    private static int exportCalendars(ProviderSession session, ICalendarWriter calendarWriter)
+            throws IOException {
+        Cursor cursor = session.query(getBirthdayAdapterUri(Calendars.CONTENT_URI),
+                new String[] { BaseColumns._ID, Calendars.NAME, Calendars.CALENDAR_DISPLAY_NAME },
+                Calendars.ACCOUNT_NAME + " = ? AND " + Calendars.ACCOUNT_TYPE + " = ?",
+                new String[] { Constants.ACCOUNT_NAME, Constants.ACCOUNT_TYPE }, null);
+
+        if (cursor == null) {
+            Log.e(Constants.TAG, "Unable to get calendars! Cursor returns null!");
+            return -1;
         }
 
-        // Okay, now this works as follows:
-        // 1. Clear events table for this account completely
-        // 2. Get birthdays from contacts
-        // 3. Create events for each birthday
+        int exportedEvents = 0;
+        try {
+            while (cursor.moveToNext()) {
+                calendarWriter.writeHeader(cursor.getString(2), cursor.getString(1));
+                int calendarEvents = exportEvents(session, cursor.getLong(0), calendarWriter);
+                if (calendarEvents == -1) {
+                    return -1;
+                }
+                exportedEvents += calendarEvents;
+                calendarWriter.writeFooter();
+            }
+        } finally {
+            cursor.close();
+        }
 
-        // Known limitations:
-        // - I am not doing any updating, just delete everything and then recreate everything
-        // - birthdays may be stored in other ways on some phones
-        // see
-        // http://stackoverflow.com/questions/8579883/get-birthday-for-each-contact-in-android-application
+        return exportedEvents;
+    }
+
+    /**
+     * Writes the events of a calendar page by page. Pages start after the last id of the previous
+     * page, so every page is a cheap query on the primary key, independent of how many pages have
+     * been read before.
+     * 
+     * @return number of exported events, -1 if the events could not be read
+     */
+    private static int exportEvents(ProviderSession session, long calendarId,
+            ICalendarWriter calendarWriter) throws IOException {
+        ArrayList<CalendarEvent> page = new ArrayList<CalendarEvent>(EXPORT_PAGE_SIZE);
+        HashMap<Long, List<Integer>> reminders = new HashMap<Long, List<Integer>>();
+        List<Integer> noReminders = Collections.emptyList();
+
+        int exportedEvents = 0;
+        long lastId = -1;
+        do {
+            page.clear();
+            // the provider takes no limit, so it is appended to the sort order. Events deleted by
+            // the user stay in the table until the next sync and are not exported.
+            Cursor eventsCursor = session.query(getBirthdayAdapterUri(Events.CONTENT_URI),
+                    new String[] { Events._ID, EVENT_FINGERPRINT_COLUMN, EVENT_LOOKUP_KEY_COLUMN,
+                            Events.DTSTART, Events.TITLE }, Events.CALENDAR_ID + " = ? AND "
+                            + Events.DELETED + " = 0 AND " + Events._ID + " > ?", new String[] {
+                            String.valueOf(calendarId), String.valueOf(lastId) }, Events._ID
+                            + " LIMIT " + EXPORT_PAGE_SIZE);
+
+            if (eventsCursor == null) {
+                Log.e(Constants.TAG, "Unable to get events of calendar! Cursor returns null!");
+                return -1;
+            }
 
-        // empty table
-        // with additional selection of calendar id, necessary on Android < 4 to remove events only
-        // from birthday calendar
-        int delEventsRows = contentResolver.delete(getBirthdayAdapterUri(Events.CONTENT_URI),
-                Events.CALENDAR_ID + " = ?", new String[] { String.valueOf(calendarId) });
-        Log.i(Constants.TAG, "Events of birthday calendar is now empty, deleted " + delEventsRows
-                + " rows!");
-        Log.i(Constants.TAG, "Reminders of birthday calendar is now empty!");
+            try {
+                while (eventsCursor.moveToNext()) {
+                    page.add(new CalendarEvent(eventsCursor.getLong(0), calendarId, eventsCursor
+                            .getString(1), eventsCursor.getString(2), eventsCursor.getLong(3),
+                            eventsCursor.getString(4)));
+                }
+            } finally {
+                eventsCursor.close();
+            }
+            if (page.isEmpty()) {
+                break;
+            }
+            lastId = page.get(page.size() - 1).id;
 
-        int[] reminderMinutes = getReminderMinutes(context);
+            if (!getReminders(session, page, reminders)) {
+                return -1;
+            }
+            for (CalendarEvent event : page) {
+                List<Integer> eventReminders = reminders.get(event.id);
+                calendarWriter.writeEvent(event, eventReminders != null ? eventReminders
+                        : noReminders);
+            }
+            exportedEvents += page.size();
+        } while (page.size() == EXPORT_PAGE_SIZE);
 
-        // collection of birthdays that will later be added to the calendar
-        ArrayList<ContentProviderOperation> operationList = new ArrayList<ContentProviderOperation>();
+        return exportedEvents;
+    }
+
+    /**
+     * Reads the reminders of a page of events with one query
+     * 
+     * @param reminders
+     *            is filled with the minutes of the reminders by event id
+     * @return false if the reminders could not be read
+     */
+    private static boolean getReminders(ProviderSession session, List<CalendarEvent> events,
+            HashMap<Long, List<Integer>> reminders) {
+        reminders.clear();
+        String[] eventIds = new String[events.size()];
+        for (int i = 0; i < eventIds.length; i++) {
+            eventIds[i] = String.valueOf(events.get(i).id);
+        }
 
-        // iterate through all Contact Events
-        Cursor cursor = getContactsEvents(contentResolver);
+        Cursor cursor = session.query(getBirthdayAdapterUri(Reminders.CONTENT_URI), new String[] {
+                Reminders.EVENT_ID, Reminders.MINUTES }, Reminders.EVENT_ID + " IN ("
+                + getPlaceholders(eventIds.length) + ")", eventIds, Reminders._ID);
 
         if (cursor == null) {
-            Log.e(Constants.TAG, "Unable to get events from contacts! Cursor returns null!");
-            return;
+            Log.e(Constants.TAG, "Unable to get reminders! Cursor returns null!");
+            return false;
         }
 
         try {
-            int eventDateColumn = cursor
-                    .getColumnIndex(ContactsContract.CommonDataKinds.Event.START_DATE);
-            int displayNameColumn = cursor.getColumnIndex(ContactsContract.Contacts.DISPLAY_NAME);
-            int eventTypeColumn = cursor
-                    .getColumnIndex(ContactsContract.CommonDataKinds.Event.TYPE);
-            int eventCustomLabelColumn = cursor
-                    .getColumnIndex(ContactsContract.CommonDataKinds.Event.LABEL);
-            int eventLookupKeyColumn = cursor
-                    .getColumnIndex(ContactsContract.CommonDataKinds.Event.LOOKUP_KEY);
-
-            int backRef = 0;
             while (cursor.moveToNext()) {
-                String eventDateString = cursor.getString(eventDateColumn);
-                String displayName = cursor.getString(displayNameColumn);
-                int eventType = cursor.getInt(eventTypeColumn);
-                String eventLookupKey = cursor.getString(eventLookupKeyColumn);
-
-                Date eventDate = parseEventDateString(context, eventDateString);
-
-                // only proceed when parsing didn't fail
-                if (eventDate != null) {
-
-                    // get year from event
-                    Calendar eventCal = Calendar.getInstance();
-                    eventCal.setTime(eventDate);
-                    int eventYear = eventCal.get(Calendar.YEAR);
-                    Log.d(Constants.TAG, "Event Year: " + eventYear);
-
-                    /*
-                     * If year < 1800 don't show brackets with age behind name.
-                     * 
-                     * When no year is defined parseEventDateString() sets it to 1700
-                     * 
-                     * Also iCloud for example sets year to 1604 if no year is defined in their user
-                     * interface
-                     */
-                    boolean hasYear = false;
-                    if (eventYear >= 1800) {
-                        hasYear = true;
-                    }
+                List<Integer> eventReminders = reminders.get(cursor.getLong(0));
+                if (eventReminders == null) {
+                    eventReminders = new ArrayList<Integer>();
+                    reminders.put(cursor.getLong(0), eventReminders);
+                }
+                eventReminders.add(cursor.getInt(1));
+            }
+        } finally {
+            cursor.close();
+        }
 
-                    // get current year
-                    Calendar currCal = Calendar.getInstance();
-                    int currYear = currCal.get(Calendar.YEAR);
-
-                    /*
-                     * Insert events for the past 3 years and the next 5 years.
-                     * 
-                     * Events are not inserted as recurring events to have different titles with
-                     * birthday age in it.
-                     */
-                    int startYear = currYear - 3;
-                    int endYear = currYear + 5;
-
-                    for (int iteratedYear = startYear; iteratedYear <= endYear; iteratedYear++) {
-                        Log.d(Constants.TAG, "iteratedYear: " + iteratedYear);
-
-                        // calculate age
-                        int age = iteratedYear - eventYear;
-
-                        // if birthday has year and age of this event >= 0, display age in title
-                        boolean includeAge = false;
-                        if (hasYear && age >= 0) {
-                            includeAge = true;
-                        }
+        return true;
+    }
 
-                        String title = generateTitle(context, eventType, cursor,
-                                eventCustomLabelColumn, includeAge, displayName, age);
+    /**
+     * Restores a file of exportCalendars(). Each calendar in the file is cleared, or created if it
+     * is missing, and its events are inserted as they are in the file, in large batches. Nothing
+     * is read from contacts, the next incremental sync only catches up with the changes since the
+     * export.
+     * 
+     * Calendars of other files, e.g., of vcf2ics, have no contacts behind their events, so the
+     * syncs of contacts would delete them. They go to a calendar of their own instead, which the
+     * syncs leave alone.
+     * 
+     * @param context
+     * @param uri
+     *            file chosen by the user
+     * @return report shown to the user
+     */
+    public static String importCalendars(Context context, Uri uri) {
+        SyncConfig config = PreferencesHelper.getSyncConfig(context);
+        ProviderSession session = new ProviderSession(context);
+        try {
+            InputStream in = context.getContentResolver().openInputStream(uri);
+            ICalendarReader reader = new ICalendarReader(new InputStreamReader(in, "UTF-8"));
 
-                        int noOfEventOperations = 0;
-                        if (title != null) {
-                            Log.d(Constants.TAG, "Title: " + title);
-                            Log.d(Constants.TAG, "BackRef is " + backRef);
-
-                            operationList.add(insertEvent(context, calendarId, eventDate,
-                                    iteratedYear, title, eventLookupKey));
-                            noOfEventOperations = 1;
-                        } else {
-                            Log.d(Constants.TAG, "Title is null!");
-                        }
+            SyncStatistics statistics = new SyncStatistics("Import");
+            int events = 0;
+            HashSet<Long> clearedCalendars = new HashSet<Long>();
+            try {
+                while (reader.nextCalendar()) {
+                    String name = reader.getCalendarName();
+                    String displayName = reader.getCalendarDisplayName();
+                    if (name == null || !name.startsWith(CALENDAR_COLUMN_NAME)) {
+                        name = IMPORT_CALENDAR_NAME;
+                        displayName = context.getString(R.string.calendar_display_name_import);
+                    } else if (displayName == null) {
+                        displayName = context.getString(R.string.calendar_display_name);
+                    }
 
-                        /*
-                         * Gets ContentProviderOperation to insert new reminder to the
-                         * ContentProviderOperation with the given backRef. This is done using
-                         * "withValueBackReference"
-                         */
-                        int noOfReminderOperations = 0;
-                        for (int i = 0; i < 3; i++) {
-                            if (reminderMinutes[i] != Constants.DISABLED_REMINDER) {
-                                ContentProviderOperation.Builder builder = ContentProviderOperation
-                                        .newInsert(getBirthdayAdapterUri(Reminders.CONTENT_URI));
-
-                                // add reminder to last added event identified by backRef
-                                // see
-                                // http://stackoverflow.com/questions/4655291/semantics-of-withvaluebackreference
-                                builder.withValueBackReference(Reminders.EVENT_ID, backRef);
-                                builder.withValue(Reminders.MINUTES, reminderMinutes[i]);
-                                builder.withValue(Reminders.METHOD, Reminders.METHOD_ALERT);
-                                operationList.add(builder.build());
-
-                                noOfReminderOperations += 1;
-                            }
-                        }
+                    long calendarId = getCalendar(context, session, config, name, displayName);
+                    if (calendarId == -1) {
+                        Log.e(Constants.TAG, "Unable to create calendar " + name);
+                        return context.getString(R.string.import_calendar_failed);
+                    }
 
-                        // for the next...
-                        backRef += noOfEventOperations + noOfReminderOperations;
-
-                        /*
-                         * intermediate commit - otherwise the binder transaction fails on large
-                         * operationList
-                         */
-                        if (operationList.size() > 200) {
-                            try {
-                                Log.d(Constants.TAG, "Start applying the batch...");
-                                contentResolver.applyBatch(CalendarContract.AUTHORITY,
-                                        operationList);
-                                Log.d(Constants.TAG, "Applying the batch was successful!");
-                                backRef = 0;
-                                operationList.clear();
-                            } catch (Exception e) {
-                                Log.e(Constants.TAG, "Applying batch error!", e);
-                            }
-                        }
+                    // events of foreign and vCard calendars have no contact to open
+                    boolean contactLinks = !name.equals(IMPORT_CALENDAR_NAME)
+                            && !name.equals(VCARD_CALENDAR_NAME);
+                    SyncEngine engine = getSyncEngine(context, session, config, contactLinks);
+
+                    // several foreign calendars of a file all go to the same calendar
+                    if (clearedCalendars.add(calendarId)) {
+                        engine.clearCalendar(calendarId, statistics);
                     }
+                    events += engine.importEvents(calendarId, reader, statistics);
                 }
+            } finally {
+                reader.close();
             }
+            finishStatistics(context, statistics);
+
+            String report = context.getString(R.string.import_calendar_done, events);
+            Log.i(Constants.TAG, report);
+            return report;
+        } catch (IOException e) {
+            Log.e(Constants.TAG, "Reading import failed!", e);
+            return context.getString(R.string.import_calendar_failed);
         } finally {
-            cursor.close();
+            session.release();
+        }
+    }
+
+    /**
+     * Saves the index of upcoming contact events shown by UpcomingActivity. It is written to a
+     * temporary file first, so that a failed write leaves the previous index intact.
+     * 
+     * @param context
+     * @param contactEvents
+     *            contact events of all contacts
+     */
+    private static void saveBirthdayIndex(Context context, List<ContactEvent> contactEvents) {
+        // nothing is saved in a dry run
+        if (isDryRun()) {
+            return;
+        }
+
+        writeBirthdayIndex(context, BirthdayIndex.build(contactEvents));
+    }
+
+    /**
+     * Replaces the contact events of the given contacts in the saved index, see
+     * BirthdayIndex.update(). Without an index, the next incremental sync builds one.
+     * 
+     * @param context
+     * @param lookupKeys
+     * @param contactEvents
+     *            contact events of these contacts
+     */
+    private static void updateBirthdayIndex(Context context, Collection<String> lookupKeys,
+            List<ContactEvent> contactEvents) {
+        // nothing is saved in a dry run
+        if (isDryRun()) {
+            return;
+        }
+
+        BirthdayIndex index = getBirthdayIndex(context);
+        if (index != null) {
+            writeBirthdayIndex(context, index.update(lookupKeys, contactEvents));
+        }
+    }
+
+    private static void writeBirthdayIndex(Context context, BirthdayIndex index) {
+        File file = new File(context.getFilesDir(), BIRTHDAY_INDEX_FILE);
+        File tmpFile = new File(context.getFilesDir(), BIRTHDAY_INDEX_FILE + ".tmp");
+        try {
+            index.write(new FileOutputStream(tmpFile));
+            if (!tmpFile.renameTo(file)) {
+                Log.e(Constants.TAG, "Renaming birthday index failed!");
+                tmpFile.delete();
+            }
+        } catch (IOException e) {
+            Log.e(Constants.TAG, "Writing birthday index failed!", e);
+            tmpFile.delete();
+        }
+    }
+
+    /**
+     * Reads the index saved by the last full or incremental sync and patched by syncs of single
+     * contacts since
+     * 
+     * @param context
+     * @return null if there is no index yet or it could not be read
+     */
+    public static BirthdayIndex getBirthdayIndex(Context context) {
+        File file = new File(context.getFilesDir(), BIRTHDAY_INDEX_FILE);
+        if (!file.exists()) {
+            return null;
         }
 
-        /* Create events */
-        if (operationList.size() > 0) {
+        try {
+            return BirthdayIndex.read(new FileInputStream(file));
+        } catch (IOException e) {
+            Log.e(Constants.TAG, "Reading birthday index failed!", e);
+            return null;
+        }
+    }
+
+    /**
+     * Imports the birthdays and anniversaries of a vCard file into a calendar of their own, which
+     * the syncs of contacts leave alone. Importing the file again is incremental: only the events
+     * of cards that were added, changed, or removed since the last import are written, see
+     * SyncEngine.syncVCardFile().
+     * 
+     * The file is copied to the files directory first, because permissions for content URIs do
+     * not last. updateSyncedYears() reads the copy to move the window of synced years of the
+     * calendar, e.g., on the year rollover.
+     * 
+     * @param context
+     * @param uri
+     *            file chosen by the user
+     * @return report shown to the user
+     */
+    public static String importVCardFile(Context context, Uri uri) {
+        SyncConfig config = PreferencesHelper.getSyncConfig(context);
+        ProviderSession session = new ProviderSession(context);
+        File file = new File(context.getFilesDir(), VCARD_FILE);
+        File tmpFile = new File(context.getFilesDir(), VCARD_FILE + ".tmp");
+        try {
+            long calendarId = getCalendar(context, session, config, VCARD_CALENDAR_NAME,
+                    context.getString(R.string.calendar_display_name_vcard));
+            if (calendarId == -1) {
+                Log.e(Constants.TAG, "Unable to create calendar " + VCARD_CALENDAR_NAME);
+                return context.getString(R.string.import_vcard_failed);
+            }
+
+            try {
+                copyToFile(context.getContentResolver().openInputStream(uri), tmpFile);
+            } catch (IOException e) {
+                Log.e(Constants.TAG, "Copying vCard file failed!", e);
+                return context.getString(R.string.import_vcard_failed);
+            }
+            VCardFileSource source = new VCardFileSource(tmpFile, config);
+
+            // events of cards have no contact to open
+            SyncStatistics statistics = new SyncStatistics("vCard import");
+            SyncEngine engine = getSyncEngine(context, session, config, false);
+            try {
+                if (!engine.syncVCardFile(calendarId, source, statistics)) {
+                    return context.getString(R.string.import_vcard_failed);
+                }
+            } catch (IOException e) {
+                Log.e(Constants.TAG, "Reading vCard file failed!", e);
+                return context.getString(R.string.import_vcard_failed);
+            } finally {
+                finishStatistics(context, statistics);
+            }
+
+            if (!tmpFile.renameTo(file)) {
+                Log.e(Constants.TAG, "Renaming vCard file failed!");
+            }
+
+            String report = context.getString(R.string.import_vcard_done, source.getCards()
+                    .size(), source.getChangedCardCount());
+            Log.i(Constants.TAG, report);
+            return report;
+        } finally {
+            tmpFile.delete();
+            session.release();
+        }
+    }
+
+    /**
+     * Copies a stream to a file and closes it
+     * 
+     * @param in
+     * @param file
+     *            replaced if it exists
+     * @throws IOException
+     */
+    private static void copyToFile(InputStream in, File file) throws IOException {
+        try {
+            OutputStream out = new FileOutputStream(file);
             try {
-                Log.d(Constants.TAG, "Start applying the batch...");
-                contentResolver.applyBatch(CalendarContract.AUTHORITY, operationList);
-                Log.d(Constants.TAG, "Applying the batch was successful!");
-            } catch (Exception e) {
-                Log.e(Constants.TAG, "Applying batch error!", e);
+                byte[] buffer = new byte[64 * 1024];
+                int count;
+                while ((count = in.read(buffer)) != -1) {
+                    out.write(buffer, 0, count);
+                }
+            } finally {
+                out.close();
             }
+        } finally {
+            in.close();
+        }
+    }
+
+    private static boolean isDryRun() {
+        return DryRunPlan.getActive() != null;
+    }
+
+    /**
+     * Engine of a sync on the contacts and calendar providers
+     * 
+     * @param context
+     * @param session
+     * @param config
+     * @return
+     */
+    private static SyncEngine getSyncEngine(Context context, ProviderSession session,
+            SyncConfig config) {
+        return getSyncEngine(context, session, config, true);
+    }
+
+    /**
+     * @param contactLinks
+     *            false if the lookup keys of the events do not belong to contacts, e.g., of
+     *            imported files, see ProviderCalendarSink
+     */
+    private static SyncEngine getSyncEngine(Context context, ProviderSession session,
+            SyncConfig config, boolean contactLinks) {
+        return new SyncEngine(new ProviderContactSource(session, config),
+                new ProviderCalendarSink(session, contactLinks), config, getTitleFormat(context));
+    }
+
+    /**
+     * Formats of event titles in the current locale
+     * 
+     * @param context
+     * @return
+     */
+    public static TitleFormat getTitleFormat(Context context) {
+        return new TitleFormat(context.getString(R.string.event_title_birthday_with_age),
+                context.getString(R.string.event_title_birthday_without_age),
+                context.getString(R.string.event_title_anniversary_with_age),
+                context.getString(R.string.event_title_anniversary_without_age),
+                context.getString(R.string.event_title_other_with_age),
+                context.getString(R.string.event_title_other_without_age),
+                context.getString(R.string.event_title_custom_with_age),
+                context.getString(R.string.event_title_custom_without_age));
+    }
+
+    /**
+     * Logs the statistics of a finished sync and saves them in the preferences. In a dry run, they
+     * are handed to the plan instead.
+     * 
+     * @param context
+     * @param statistics
+     */
+    private static void finishStatistics(Context context, SyncStatistics statistics) {
+        String result = statistics.toString();
+
+        // nothing has been written in a dry run
+        if (isDryRun()) {
+            DryRunPlan.getActive().setStatistics(result);
+            return;
         }
+
+        Log.i(Constants.TAG, result);
+        PreferencesHelper.setLastSyncStatistics(context, result);
     }
+
 }
@@ -0,0 +1,54 @@
+/*
+ * Copyright (C) 2012-2013 Dominik Schürmann <dominik@dominikschuermann.de>
+ *
+ * This file is part of Birthday Adapter.
+ * 
+ * Birthday Adapter is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Birthday Adapter is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Birthday Adapter.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.birthdayadapter.service;
+
+import org.birthdayadapter.util.AccountHelper;
+import org.birthdayadapter.util.Constants;
+import org.birthdayadapter.util.Log;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+
+/**
+ * Syncs the events of one contact when receiving Constants.ACTION_SYNC_CONTACT with the lookup key
+ * of the contact in Constants.EXTRA_LOOKUP_KEY. Senders need the permission
+ * Constants.PERMISSION_SYNC_CONTACT, which is dangerous, so that the user decides which contact
+ * editors may trigger syncs.
+ */
+public class ContactSyncReceiver extends BroadcastReceiver {
+
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        if (!Constants.ACTION_SYNC_CONTACT.equals(intent.getAction())) {
+            return;
+        }
+
+        String lookupKey = intent.getStringExtra(Constants.EXTRA_LOOKUP_KEY);
+        if (lookupKey == null) {
+            Log.e(Constants.TAG, "Intent to sync contact must contain a lookup key!");
+            return;
+        }
+
+        new AccountHelper(context).contactSync(lookupKey);
+    }
+
+}
@@ -0,0 +1,220 @@
+/*
+ * Copyright (C) 2012-2013 Dominik Schürmann <dominik@dominikschuermann.de>
+ *
+ * This file is part of Birthday Adapter.
+ * 
+ * Birthday Adapter is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Birthday Adapter is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Birthday Adapter.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.birthdayadapter.service;
+
+import org.birthdayadapter.util.AccountHelper;
+import org.birthdayadapter.util.Constants;
+import org.birthdayadapter.util.Log;
+
+import android.accounts.Account;
+import android.accounts.AccountManager;
+import android.app.Service;
+import android.content.ContentResolver;
+import android.content.Intent;
+import android.content.SyncStatusObserver;
+import android.database.ContentObserver;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.IBinder;
+import android.os.SystemClock;
+import android.provider.CalendarContract.Calendars;
+import android.provider.CalendarContract.Events;
+import android.provider.ContactsContract;
+import android.text.format.DateUtils;
+
+/**
+ * Observes contacts while the account is activated and sync is enabled and requests a sync of the
+ * changed contacts when contact data changed or a sync of a contacts account finished, see
+ * CalendarSyncAdapterService.performChangedContactsSync(). Below Android 4.3, changed contacts
+ * cannot be found, so an incremental sync is requested instead. Changes are debounced, because
+ * editing a contact or syncing an address book results in a burst of notifications.
+ * 
+ * Started by BootCompletedReceiver and whenever sync is enabled.
+ * 
+ * Also observes the calendars and requests a repair of events changed by other apps, see
+ * CalendarSyncAdapterService.performRepair(). Notifications are caused by our own writes as well,
+ * the repair tells them apart, but is requested at most every REPAIR_INTERVAL.
+ */
+public class ContactsObserverService extends Service {
+
+    /* wait this long after the last change before requesting a sync */
+    private static final long DEBOUNCE_DELAY = 10 * DateUtils.SECOND_IN_MILLIS;
+
+    /* minimum time between two requested repairs */
+    private static final long REPAIR_INTERVAL = 5 * DateUtils.MINUTE_IN_MILLIS;
+
+    private Handler mHandler;
+    private ContentObserver mContactsObserver;
+    private ContentObserver mCalendarObserver;
+    private Object mSyncStatusHandle;
+
+    /* true while a sync of contacts is running for any account */
+    private boolean mContactsSyncActive;
+
+    private boolean mRepairScheduled;
+    private long mLastRepair = -REPAIR_INTERVAL;
+
+    private final Runnable mRequestSync = new Runnable() {
+        @Override
+        public void run() {
+            // contacts have a last update timestamp since Android 4.3
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
+                Log.d(Constants.TAG, "Contacts changed, requesting sync of changed contacts...");
+
+                new AccountHelper(ContactsObserverService.this).syncChangedContacts();
+            } else {
+                Log.d(Constants.TAG, "Contacts changed, requesting incremental sync...");
+
+                ContentResolver.requestSync(Constants.ACCOUNT, Constants.CONTENT_AUTHORITY,
+                        new Bundle());
+            }
+        }
+    };
+
+    private final Runnable mRequestRepair = new Runnable() {
+        @Override
+        public void run() {
+            mRepairScheduled = false;
+            mLastRepair = SystemClock.elapsedRealtime();
+
+            new AccountHelper(ContactsObserverService.this).repairCalendar();
+        }
+    };
+
+    private final Runnable mCheckContactsSync = new Runnable() {
+        @Override
+        public void run() {
+            boolean active = isContactsSyncActive();
+
+            // sync of contacts just finished
+            if (mContactsSyncActive && !active) {
+                scheduleSync();
+            }
+            mContactsSyncActive = active;
+        }
+    };
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+
+        mHandler = new Handler();
+
+        mContactsObserver = new ContentObserver(mHandler) {
+            @Override
+            public void onChange(boolean selfChange) {
+                // while contacts are synced, wait until the sync has finished
+                if (!mContactsSyncActive) {
+                    scheduleSync();
+                }
+            }
+        };
+        getContentResolver().registerContentObserver(ContactsContract.Data.CONTENT_URI, true,
+                mContactsObserver);
+
+        mCalendarObserver = new ContentObserver(mHandler) {
+            @Override
+            public void onChange(boolean selfChange) {
+                scheduleRepair();
+            }
+        };
+        getContentResolver().registerContentObserver(Events.CONTENT_URI, true, mCalendarObserver);
+        getContentResolver().registerContentObserver(Calendars.CONTENT_URI, true,
+                mCalendarObserver);
+
+        mContactsSyncActive = isContactsSyncActive();
+        mSyncStatusHandle = ContentResolver.addStatusChangeListener(
+                ContentResolver.SYNC_OBSERVER_TYPE_ACTIVE, new SyncStatusObserver() {
+                    @Override
+                    public void onStatusChanged(int which) {
+                        // called from a binder thread
+                        mHandler.post(mCheckContactsSync);
+                    }
+                });
+
+        Log.d(Constants.TAG, "Started observing contacts");
+    }
+
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        if (!new AccountHelper(this).isSyncEnabled()) {
+            stopSelf();
+            return START_NOT_STICKY;
+        }
+
+        return START_STICKY;
+    }
+
+    @Override
+    public void onDestroy() {
+        mHandler.removeCallbacks(mRequestSync);
+        mHandler.removeCallbacks(mCheckContactsSync);
+        mHandler.removeCallbacks(mRequestRepair);
+        getContentResolver().unregisterContentObserver(mContactsObserver);
+        getContentResolver().unregisterContentObserver(mCalendarObserver);
+        ContentResolver.removeStatusChangeListener(mSyncStatusHandle);
+
+        Log.d(Constants.TAG, "Stopped observing contacts");
+
+        super.onDestroy();
+    }
+
+    @Override
+    public IBinder onBind(Intent intent) {
+        return null;
+    }
+
+    /**
+     * Requests a sync after DEBOUNCE_DELAY, postponing an already scheduled request
+     */
+    private void scheduleSync() {
+        mHandler.removeCallbacks(mRequestSync);
+        mHandler.postDelayed(mRequestSync, DEBOUNCE_DELAY);
+    }
+
+    /**
+     * Requests a repair after DEBOUNCE_DELAY, but not earlier than REPAIR_INTERVAL after the last
+     * one. Further changes until then are covered by the scheduled repair.
+     */
+    private void scheduleRepair() {
+        if (mRepairScheduled) {
+            return;
+        }
+
+        long delay = Math.max(DEBOUNCE_DELAY, mLastRepair + REPAIR_INTERVAL
+                - SystemClock.elapsedRealtime());
+        mHandler.postDelayed(mRequestRepair, delay);
+        mRepairScheduled = true;
+    }
+
+    private boolean isContactsSyncActive() {
+        Account[] accounts = AccountManager.get(this).getAccounts();
+        for (Account account : accounts) {
+            if (ContentResolver.isSyncActive(account, ContactsContract.AUTHORITY)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+}
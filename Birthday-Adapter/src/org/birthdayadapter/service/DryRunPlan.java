@@ -0,0 +1,188 @@
+/*
+ * Copyright (C) 2012-2013 Dominik Schürmann <dominik@dominikschuermann.de>
+ *
+ * This file is part of Birthday Adapter.
+ * 
+ * Birthday Adapter is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Birthday Adapter is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Birthday Adapter.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.birthdayadapter.service;
+
+import java.util.ArrayList;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentValues;
+import android.net.Uri;
+import android.os.Parcel;
+import android.os.SystemClock;
+
+/**
+ * Plan of the writes of a dry run, see CalendarSyncAdapterService.performDryRun(). While a plan is
+ * active, the sync engine adds its writes to the plan instead of applying them.
+ * 
+ * The plan is active for the whole process, so dry runs must only be performed by
+ * MainIntentService, which runs the engine of this process on one thread.
+ */
+public class DryRunPlan {
+    /* types as written first by ContentProviderOperation.writeToParcel() */
+    public static final int TYPE_INSERT = 1;
+    public static final int TYPE_UPDATE = 2;
+    public static final int TYPE_DELETE = 3;
+
+    private static DryRunPlan sActivePlan;
+
+    private final String mName;
+    private final long mStartCpuTime;
+    private long mCpuTime = -1;
+
+    /* numbers of inserts, updates, and deletes by table */
+    private final TreeMap<String, int[]> mOperations = new TreeMap<String, int[]>();
+    private int mBatches;
+    private int mCalls;
+    private long mPayloadBytes;
+    private String mStatistics;
+
+    private DryRunPlan(String name) {
+        mName = name;
+        mStartCpuTime = SystemClock.currentThreadTimeMillis();
+    }
+
+    /**
+     * Starts collecting the writes of the engine in a new plan
+     * 
+     * @param name
+     * @return the active plan
+     */
+    public static synchronized DryRunPlan start(String name) {
+        sActivePlan = new DryRunPlan(name);
+        return sActivePlan;
+    }
+
+    /**
+     * @return the active plan, null if no dry run is performed
+     */
+    public static synchronized DryRunPlan getActive() {
+        return sActivePlan;
+    }
+
+    /**
+     * Stops collecting writes and measures the CPU time of the dry run
+     */
+    public static synchronized void finish() {
+        if (sActivePlan != null) {
+            sActivePlan.mCpuTime = SystemClock.currentThreadTimeMillis()
+                    - sActivePlan.mStartCpuTime;
+            sActivePlan = null;
+        }
+    }
+
+    /**
+     * Batch that would be applied by ContentResolver.applyBatch()
+     * 
+     * @param operationList
+     */
+    public void addBatch(ArrayList<ContentProviderOperation> operationList) {
+        mBatches++;
+
+        Parcel parcel = Parcel.obtain();
+        try {
+            for (ContentProviderOperation operation : operationList) {
+                int start = parcel.dataSize();
+                operation.writeToParcel(parcel, 0);
+                mPayloadBytes += parcel.dataSize() - start;
+
+                parcel.setDataPosition(start);
+                int type = parcel.readInt();
+                parcel.setDataPosition(parcel.dataSize());
+
+                addOperation(operation.getUri(), type);
+            }
+        } finally {
+            parcel.recycle();
+        }
+    }
+
+    /**
+     * Single insert, update or delete call on the content resolver
+     * 
+     * @param uri
+     * @param type
+     *            one of TYPE_INSERT, TYPE_UPDATE, or TYPE_DELETE
+     * @param values
+     *            null for deletes
+     */
+    public void addCall(Uri uri, int type, ContentValues values) {
+        mCalls++;
+
+        if (values != null) {
+            Parcel parcel = Parcel.obtain();
+            try {
+                values.writeToParcel(parcel, 0);
+                mPayloadBytes += parcel.dataSize();
+            } finally {
+                parcel.recycle();
+            }
+        }
+
+        addOperation(uri, type);
+    }
+
+    private void addOperation(Uri uri, int type) {
+        String table = uri.getPathSegments().isEmpty() ? uri.getAuthority() : uri
+                .getPathSegments().get(0);
+
+        int[] counts = mOperations.get(table);
+        if (counts == null) {
+            counts = new int[3];
+            mOperations.put(table, counts);
+        }
+        if (type >= TYPE_INSERT && type <= TYPE_DELETE) {
+            counts[type - TYPE_INSERT]++;
+        }
+    }
+
+    /**
+     * Statistics the engine reported for the dry run, see
+     * CalendarSyncAdapterService.finishStatistics()
+     */
+    public void setStatistics(String statistics) {
+        mStatistics = statistics;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder report = new StringBuilder();
+        report.append(mName).append(" (dry run)\n");
+        if (mOperations.isEmpty()) {
+            report.append("nothing to write\n");
+        }
+        for (Map.Entry<String, int[]> table : mOperations.entrySet()) {
+            int[] counts = table.getValue();
+            report.append(String.format(Locale.US, "%s: %d inserts, %d updates, %d deletes\n",
+                    table.getKey(), counts[0], counts[1], counts[2]));
+        }
+        report.append(String.format(Locale.US,
+                "%d batches, %d single calls, %d bytes binder payload, %d ms CPU\n", mBatches,
+                mCalls, mPayloadBytes, mCpuTime));
+        if (mStatistics != null) {
+            report.append(mStatistics).append("\n");
+        }
+
+        return report.toString();
+    }
+}
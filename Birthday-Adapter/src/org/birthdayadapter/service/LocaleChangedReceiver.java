@@ -0,0 +1,48 @@
+/*
+ * Copyright (C) 2012-2013 Dominik Schürmann <dominik@dominikschuermann.de>
+ *
+ * This file is part of Birthday Adapter.
+ * 
+ * Birthday Adapter is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Birthday Adapter is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Birthday Adapter.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.birthdayadapter.service;
+
+import org.birthdayadapter.util.Constants;
+import org.birthdayadapter.util.Log;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+
+/**
+ * Regenerates the titles of all events when the system locale changed, because they are built from
+ * localized strings
+ */
+public class LocaleChangedReceiver extends BroadcastReceiver {
+
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        if (Intent.ACTION_LOCALE_CHANGED.equals(intent.getAction())) {
+            Log.d(Constants.TAG, "Locale changed, updating titles...");
+
+            Intent serviceIntent = new Intent(context, MainIntentService.class);
+            serviceIntent.putExtra(MainIntentService.EXTRA_ACTION,
+                    MainIntentService.ACTION_UPDATE_TITLES);
+            context.startService(serviceIntent);
+        }
+    }
+
+}
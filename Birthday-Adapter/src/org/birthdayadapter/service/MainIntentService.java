@@ -22,11 +22,13 @@ package org.birthdayadapter.service;
 
 import android.app.IntentService;
 import android.content.Intent;
+import android.net.Uri;
 import android.os.Bundle;
 import android.os.Message;
 import android.os.Messenger;
 import android.os.RemoteException;
 
+import org.birthdayadapter.R;
 import org.birthdayadapter.util.AccountHelper;
 import org.birthdayadapter.util.Constants;
 import org.birthdayadapter.util.Log;
@@ -43,6 +45,28 @@ public class MainIntentService extends IntentService {
     public static final int ACTION_CHANGE_REMINDER = 0;
     public static final int ACTION_CHANGE_COLOR = 1;
     public static final int ACTION_MANUAL_SYNC = 2;
+    public static final int ACTION_YEAR_ROLLOVER = 3;
+    public static final int ACTION_CHANGE_SYNCED_YEARS = 4;
+    public static final int ACTION_DISABLE_SYNC = 5;
+    public static final int ACTION_ENABLE_SYNC = 6;
+    public static final int ACTION_CHANGE_DATE_FORMAT = 7;
+    public static final int ACTION_UPDATE_TITLES = 8;
+    public static final int ACTION_SYNC_CONTACT = 9;
+    public static final int ACTION_CHANGE_SHARDING = 10;
+    public static final int ACTION_CHANGE_FILTER = 11;
+    public static final int ACTION_REPAIR = 12;
+    public static final int ACTION_DRY_RUN = 13;
+    public static final int ACTION_CAPTURE_TRACE = 14;
+    public static final int ACTION_EXPORT_CALENDAR = 15;
+    public static final int ACTION_IMPORT_CALENDAR = 16;
+    public static final int ACTION_IMPORT_VCARD = 17;
+    public static final int ACTION_SYNC_CHANGED_CONTACTS = 18;
+
+    /*
+     * message sent to the messenger with the report of ACTION_DRY_RUN, ACTION_CAPTURE_TRACE,
+     * ACTION_EXPORT_CALENDAR, ACTION_IMPORT_CALENDAR, or ACTION_IMPORT_VCARD in REPORT
+     */
+    public static final int MESSAGE_REPORT = 100;
 
     /* keys for data bundle */
 
@@ -53,6 +77,18 @@ public class MainIntentService extends IntentService {
     // change color
     public static final String CHANGE_COLOR_NEW_COLOR = "colorNewColor";
 
+    // sync contact
+    public static final String SYNC_CONTACT_LOOKUP_KEY = "syncContactLookupKey";
+
+    // dry run, -1 for all actions
+    public static final String DRY_RUN_ACTION = "dryRunAction";
+
+    // import calendar or vCard file
+    public static final String IMPORT_URI = "importUri";
+
+    // report of MESSAGE_REPORT
+    public static final String REPORT = "report";
+
     Messenger mMessenger;
 
     public MainIntentService() {
@@ -118,6 +154,167 @@ public class MainIntentService extends IntentService {
 
             break;
 
+        case ACTION_YEAR_ROLLOVER:
+            AccountHelper accountHelper = new AccountHelper(this);
+
+            // only if enabled, enabling sync again also moves the window of synced years
+            if (accountHelper.isSyncEnabled()) {
+                CalendarSyncAdapterService.updateSyncedYears(this);
+
+                // schedule rollover for next year
+                accountHelper.scheduleYearRollover();
+            }
+
+            break;
+
+        case ACTION_CHANGE_SYNCED_YEARS:
+
+            // only if enabled, enabling sync again also updates the synced years
+            if (new AccountHelper(this).isSyncEnabled()) {
+                // add and remove only the years that changed
+                CalendarSyncAdapterService.updateSyncedYears(this);
+            }
+
+            break;
+
+        case ACTION_DISABLE_SYNC:
+
+            // only hide the calendar, events are kept
+            if (new AccountHelper(this).isAccountActivated()) {
+                CalendarSyncAdapterService.updateCalendarVisibility(this, false);
+            }
+
+            break;
+
+        case ACTION_ENABLE_SYNC:
+
+            if (new AccountHelper(this).isSyncEnabled()) {
+                CalendarSyncAdapterService.updateCalendarVisibility(this, true);
+
+                // catch up with changes made while sync was disabled
+                CalendarSyncAdapterService.updateSyncedYears(this);
+                CalendarSyncAdapterService.performIncrementalSync(this);
+            }
+
+            break;
+
+        case ACTION_CHANGE_DATE_FORMAT:
+
+            // only if enabled
+            if (new AccountHelper(this).isSyncEnabled()) {
+                // fingerprints of ambiguous dates changed, only their events are rewritten
+                CalendarSyncAdapterService.performIncrementalSync(this);
+            }
+
+            break;
+
+        case ACTION_UPDATE_TITLES:
+
+            // only if enabled
+            if (new AccountHelper(this).isSyncEnabled()) {
+                CalendarSyncAdapterService.updateAllTitles(this);
+            }
+
+            break;
+
+        case ACTION_SYNC_CONTACT:
+            String lookupKey = data.getString(SYNC_CONTACT_LOOKUP_KEY);
+
+            // only if enabled
+            if (lookupKey != null && new AccountHelper(this).isSyncEnabled()) {
+                CalendarSyncAdapterService.performContactSync(this, lookupKey);
+            }
+
+            break;
+
+        case ACTION_SYNC_CHANGED_CONTACTS:
+
+            // only if enabled
+            if (new AccountHelper(this).isSyncEnabled()) {
+                CalendarSyncAdapterService.performChangedContactsSync(this);
+            }
+
+            break;
+
+        case ACTION_CHANGE_SHARDING:
+
+            // only if enabled
+            if (new AccountHelper(this).isSyncEnabled()) {
+                // deletes calendars of the old sharding and fills the new ones
+                CalendarSyncAdapterService.performIncrementalSync(this);
+            }
+
+            break;
+
+        case ACTION_CHANGE_FILTER:
+
+            // only if enabled
+            if (new AccountHelper(this).isSyncEnabled()) {
+                // deletes events that are filtered now and inserts the ones that are not anymore
+                CalendarSyncAdapterService.performIncrementalSync(this);
+            }
+
+            break;
+
+        case ACTION_REPAIR:
+
+            // only if enabled
+            if (new AccountHelper(this).isSyncEnabled()) {
+                CalendarSyncAdapterService.performRepair(this);
+            }
+
+            break;
+
+        case ACTION_DRY_RUN:
+            int dryRunAction = data.getInt(DRY_RUN_ACTION, -1);
+
+            // writes nothing, so no need to check if enabled
+            StringBuilder report = new StringBuilder();
+            for (int i = 0; i < CalendarSyncAdapterService.DRY_RUN_ACTION_COUNT; i++) {
+                if (dryRunAction == -1 || dryRunAction == i) {
+                    report.append(CalendarSyncAdapterService.performDryRun(this, i)).append("\n");
+                }
+            }
+            sendReport(report.toString());
+
+            break;
+
+        case ACTION_CAPTURE_TRACE:
+            // reads only, like the dry run
+            sendReport(CalendarSyncAdapterService.captureTrace(this));
+
+            break;
+
+        case ACTION_EXPORT_CALENDAR:
+            // reads only, an export of no calendars is an empty file
+            sendReport(CalendarSyncAdapterService.exportCalendars(this));
+
+            break;
+
+        case ACTION_IMPORT_CALENDAR:
+            Uri uri = data.getParcelable(IMPORT_URI);
+
+            // only if enabled, the calendars belong to the account
+            if (new AccountHelper(this).isAccountActivated()) {
+                sendReport(CalendarSyncAdapterService.importCalendars(this, uri));
+            } else {
+                sendReport(getString(R.string.import_calendar_not_activated));
+            }
+
+            break;
+
+        case ACTION_IMPORT_VCARD:
+            Uri vCardUri = data.getParcelable(IMPORT_URI);
+
+            // only if enabled, the calendar belongs to the account
+            if (new AccountHelper(this).isAccountActivated()) {
+                sendReport(CalendarSyncAdapterService.importVCardFile(this, vCardUri));
+            } else {
+                sendReport(getString(R.string.import_calendar_not_activated));
+            }
+
+            break;
+
         default:
             break;
         }
@@ -125,6 +322,23 @@ public class MainIntentService extends IntentService {
         setProgressCircleWithHandler(false);
     }
 
+    private void sendReport(String report) {
+        Message msg = Message.obtain();
+        msg.what = MESSAGE_REPORT;
+
+        Bundle data = new Bundle();
+        data.putString(REPORT, report);
+        msg.setData(data);
+
+        if (mMessenger != null) {
+            try {
+                mMessenger.send(msg);
+            } catch (RemoteException e) {
+                Log.w(Constants.TAG, "Exception sending message, Is handler present?", e);
+            }
+        }
+    }
+
     private void setProgressCircleWithHandler(boolean value) {
         Message msg = Message.obtain();
 
@@ -0,0 +1,242 @@
+/*
+ * Copyright (C) 2012-2013 Dominik Schürmann <dominik@dominikschuermann.de>
+ *
+ * This file is part of Birthday Adapter.
+ * 
+ * Birthday Adapter is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Birthday Adapter is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Birthday Adapter.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.birthdayadapter.service;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.birthdayadapter.engine.CalendarEvent;
+import org.birthdayadapter.engine.CalendarSink;
+import org.birthdayadapter.engine.SinkOperation;
+import org.birthdayadapter.util.Constants;
+import org.birthdayadapter.util.Log;
+
+import android.annotation.SuppressLint;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentUris;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Build;
+import android.provider.CalendarContract.Calendars;
+import android.provider.CalendarContract.Events;
+import android.provider.CalendarContract.Reminders;
+import android.provider.ContactsContract;
+import android.text.format.DateUtils;
+
+/**
+ * CalendarSink writing to the calendar provider. Operations are translated to
+ * ContentProviderOperations and applied by CalendarSyncAdapterService.applyBatch(), so that dry
+ * runs and the write limit cover them.
+ */
+@SuppressLint("NewApi")
+public class ProviderCalendarSink implements CalendarSink {
+    private final ProviderSession mSession;
+    private final boolean mContactLinks;
+
+    public ProviderCalendarSink(ProviderSession session) {
+        this(session, true);
+    }
+
+    /**
+     * @param session
+     * @param contactLinks
+     *            if inserted events get a button opening the contact of their lookup key. Events
+     *            of imported files have lookup keys of cards that are not in contacts.
+     */
+    public ProviderCalendarSink(ProviderSession session, boolean contactLinks) {
+        mSession = session;
+        mContactLinks = contactLinks;
+    }
+
+    @Override
+    public List<CalendarEvent> getEvents(long calendarId, String lookupKey) {
+        String selection = Events.CALENDAR_ID + " = ?";
+        String[] selectionArgs = new String[] { String.valueOf(calendarId) };
+        if (lookupKey != null) {
+            selection += " AND " + CalendarSyncAdapterService.EVENT_LOOKUP_KEY_COLUMN + " = ?";
+            selectionArgs = new String[] { String.valueOf(calendarId), lookupKey };
+        }
+
+        Cursor eventsCursor = mSession.query(
+                CalendarSyncAdapterService.getBirthdayAdapterUri(Events.CONTENT_URI),
+                new String[] { Events._ID, CalendarSyncAdapterService.EVENT_FINGERPRINT_COLUMN,
+                        CalendarSyncAdapterService.EVENT_LOOKUP_KEY_COLUMN, Events.DTSTART,
+                        Events.TITLE }, selection, selectionArgs, null);
+
+        if (eventsCursor == null) {
+            Log.e(Constants.TAG, "Unable to get events of birthday calendar! Cursor returns null!");
+            return null;
+        }
+
+        ArrayList<CalendarEvent> events = new ArrayList<CalendarEvent>();
+        try {
+            while (eventsCursor.moveToNext()) {
+                events.add(new CalendarEvent(eventsCursor.getLong(0), calendarId, eventsCursor
+                        .getString(1), eventsCursor.getString(2), eventsCursor.getLong(3),
+                        eventsCursor.getString(4)));
+            }
+        } finally {
+            eventsCursor.close();
+        }
+
+        return events;
+    }
+
+    @Override
+    public int[] applyBatch(List<SinkOperation> operations) {
+        ArrayList<ContentProviderOperation> operationList = new ArrayList<ContentProviderOperation>();
+        for (SinkOperation operation : operations) {
+            operationList.add(getProviderOperation(operation));
+        }
+
+        ContentProviderResult[] results = CalendarSyncAdapterService.applyBatch(mSession,
+                operationList);
+        if (results == null) {
+            return null;
+        }
+
+        // inserts have no count, they affect one row
+        int[] affectedRows = new int[results.length];
+        for (int i = 0; i < results.length; i++) {
+            affectedRows[i] = (results[i].count != null) ? results[i].count : 1;
+        }
+        return affectedRows;
+    }
+
+    private ContentProviderOperation getProviderOperation(SinkOperation operation) {
+        Uri eventsUri = CalendarSyncAdapterService.getBirthdayAdapterUri(Events.CONTENT_URI);
+        Uri remindersUri = CalendarSyncAdapterService.getBirthdayAdapterUri(Reminders.CONTENT_URI);
+
+        switch (operation.type) {
+        case SinkOperation.TYPE_INSERT_EVENT:
+            return getInsertEventOperation(operation);
+
+        case SinkOperation.TYPE_INSERT_REMINDER:
+            // add reminder to the event identified by the back reference, see
+            // http://stackoverflow.com/questions/4655291/semantics-of-withvaluebackreference
+            return ContentProviderOperation.newInsert(remindersUri)
+                    .withValueBackReference(Reminders.EVENT_ID, operation.eventBackReference)
+                    .withValue(Reminders.MINUTES, operation.minutes)
+                    .withValue(Reminders.METHOD, Reminders.METHOD_ALERT).build();
+
+        case SinkOperation.TYPE_DELETE_EVENT:
+            return ContentProviderOperation
+                    .newDelete(ContentUris.withAppendedId(eventsUri, operation.eventId))
+                    .withYieldAllowed(true).build();
+
+        case SinkOperation.TYPE_DELETE_EVENTS:
+            if (operation.fingerprint == null) {
+                return ContentProviderOperation
+                        .newDelete(eventsUri)
+                        .withSelection(
+                                Events.CALENDAR_ID + " = ? AND "
+                                        + CalendarSyncAdapterService.EVENT_FINGERPRINT_COLUMN
+                                        + " IS NULL",
+                                new String[] { String.valueOf(operation.calendarId) }).build();
+            }
+            return ContentProviderOperation
+                    .newDelete(eventsUri)
+                    .withSelection(
+                            Events.CALENDAR_ID + " = ? AND "
+                                    + CalendarSyncAdapterService.EVENT_FINGERPRINT_COLUMN + " = ?",
+                            new String[] { String.valueOf(operation.calendarId),
+                                    operation.fingerprint }).withYieldAllowed(true).build();
+
+        case SinkOperation.TYPE_DELETE_ALL_EVENTS:
+            // with selection of calendar id, necessary on Android < 4 to remove events only from
+            // birthday calendar
+            return ContentProviderOperation.newDelete(eventsUri)
+                    .withSelection(Events.CALENDAR_ID + " = ?",
+                            new String[] { String.valueOf(operation.calendarId) }).build();
+
+        case SinkOperation.TYPE_DELETE_REMINDERS:
+            return ContentProviderOperation
+                    .newDelete(remindersUri)
+                    .withSelection(Reminders.EVENT_ID + " = ?",
+                            new String[] { String.valueOf(operation.eventId) })
+                    .withYieldAllowed(true).build();
+
+        case SinkOperation.TYPE_ADD_REMINDER:
+            return ContentProviderOperation
+                    .newInsert(remindersUri)
+                    .withValue(Reminders.EVENT_ID, operation.eventId)
+                    .withValue(Reminders.MINUTES, operation.minutes).build();
+
+        case SinkOperation.TYPE_UPDATE_COLOR:
+            return ContentProviderOperation
+                    .newUpdate(ContentUris.withAppendedId(
+                            CalendarSyncAdapterService.getBirthdayAdapterUri(Calendars.CONTENT_URI),
+                            operation.calendarId))
+                    .withValue(Calendars.CALENDAR_COLOR, operation.color).build();
+
+        case SinkOperation.TYPE_UPDATE_TITLE:
+            return ContentProviderOperation
+                    .newUpdate(ContentUris.withAppendedId(eventsUri, operation.eventId))
+                    .withValue(Events.TITLE, operation.title).withYieldAllowed(true).build();
+
+        default:
+            throw new IllegalArgumentException("Unknown operation type " + operation.type);
+        }
+    }
+
+    private ContentProviderOperation getInsertEventOperation(SinkOperation operation) {
+        ContentProviderOperation.Builder builder = ContentProviderOperation
+                .newInsert(CalendarSyncAdapterService.getBirthdayAdapterUri(Events.CONTENT_URI));
+
+        /*
+         * The event starts a group of operations together with its reminders. The provider may
+         * release its database lock before it, so that the calendar app and other sync adapters are
+         * not blocked until the whole batch is applied.
+         */
+        builder.withYieldAllowed(true);
+
+        // define over entire day. ALL_DAY is enough on original Android calendar, but some calendar
+        // apps, e.g., Business Calendar, will not display the event if time between dtstart and
+        // dtend is 0
+        long dtstart = operation.start;
+        long dtend = dtstart + DateUtils.DAY_IN_MILLIS;
+
+        builder.withValue(Events.CALENDAR_ID, operation.calendarId);
+        builder.withValue(Events.DTSTART, dtstart);
+        builder.withValue(Events.DTEND, dtend);
+        builder.withValue(Events.TITLE, operation.title);
+        builder.withValue(Events.ALL_DAY, 1);
+        // set availability to free. If not set HTC calendar will show a conflict with other events
+        builder.withValue(Events.AVAILABILITY, Events.AVAILABILITY_FREE);
+        builder.withValue(Events.STATUS, Events.STATUS_CONFIRMED);
+
+        // remember where this event comes from for incremental syncs
+        builder.withValue(CalendarSyncAdapterService.EVENT_FINGERPRINT_COLUMN,
+                operation.fingerprint);
+        builder.withValue(CalendarSyncAdapterService.EVENT_LOOKUP_KEY_COLUMN, operation.lookupKey);
+
+        // add button to open contact
+        if (Build.VERSION.SDK_INT >= 16 && mContactLinks && operation.lookupKey != null) {
+            builder.withValue(Events.CUSTOM_APP_PACKAGE, "org.birthdayadapter");
+            Uri contactLookupUri = Uri.withAppendedPath(
+                    ContactsContract.Contacts.CONTENT_LOOKUP_URI, operation.lookupKey);
+            builder.withValue(Events.CUSTOM_APP_URI, contactLookupUri.toString());
+        }
+
+        return builder.build();
+    }
+}
@@ -0,0 +1,250 @@
+/*
+ * Copyright (C) 2012-2013 Dominik Schürmann <dominik@dominikschuermann.de>
+ *
+ * This file is part of Birthday Adapter.
+ * 
+ * Birthday Adapter is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Birthday Adapter is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Birthday Adapter.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.birthdayadapter.service;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.birthdayadapter.engine.ContactEvent;
+import org.birthdayadapter.engine.ContactSource;
+import org.birthdayadapter.engine.SyncConfig;
+import org.birthdayadapter.util.Constants;
+import org.birthdayadapter.util.Log;
+
+import android.database.Cursor;
+import android.net.Uri;
+import android.provider.ContactsContract;
+
+/**
+ * ContactSource reading the events of contacts from the contacts provider. The filters of the
+ * sync configuration are part of the selection, so that events of filtered contacts are never
+ * read.
+ */
+public class ProviderContactSource implements ContactSource {
+    private final ProviderSession mSession;
+    private final SyncConfig mConfig;
+
+    public ProviderContactSource(ProviderSession session, SyncConfig config) {
+        mSession = session;
+        mConfig = config;
+    }
+
+    @Override
+    public List<ContactEvent> getContactEvents(String lookupKey) {
+        String disabledEventTypes = getDisabledEventTypes();
+
+        String groupMembers = null;
+        if (!mConfig.getSyncedGroups().isEmpty()) {
+            groupMembers = getGroupMembers(mConfig.getSyncedGroups());
+            if (groupMembers == null) {
+                return null;
+            }
+        }
+
+        // no contact passes the filters, "IN ()" would be a syntax error
+        if ("".equals(groupMembers)) {
+            return new ArrayList<ContactEvent>();
+        }
+
+        Cursor cursor = getContactsEvents(lookupKey, disabledEventTypes, groupMembers);
+
+        if (cursor == null) {
+            Log.e(Constants.TAG, "Unable to get events from contacts! Cursor returns null!");
+            return null;
+        }
+
+        ArrayList<ContactEvent> contactEvents = new ArrayList<ContactEvent>();
+        try {
+            int eventDateColumn = cursor
+                    .getColumnIndex(ContactsContract.CommonDataKinds.Event.START_DATE);
+            int displayNameColumn = cursor.getColumnIndex(ContactsContract.Contacts.DISPLAY_NAME);
+            int contactIdColumn = cursor
+                    .getColumnIndex(ContactsContract.CommonDataKinds.Event.CONTACT_ID);
+            int eventTypeColumn = cursor
+                    .getColumnIndex(ContactsContract.CommonDataKinds.Event.TYPE);
+            int eventCustomLabelColumn = cursor
+                    .getColumnIndex(ContactsContract.CommonDataKinds.Event.LABEL);
+            int eventLookupKeyColumn = cursor
+                    .getColumnIndex(ContactsContract.CommonDataKinds.Event.LOOKUP_KEY);
+            int accountTypeColumn = cursor
+                    .getColumnIndex(ContactsContract.RawContacts.ACCOUNT_TYPE);
+            int accountNameColumn = cursor
+                    .getColumnIndex(ContactsContract.RawContacts.ACCOUNT_NAME);
+
+            while (cursor.moveToNext()) {
+                ContactEvent contactEvent = new ContactEvent();
+                contactEvent.contactId = cursor.getLong(contactIdColumn);
+                contactEvent.lookupKey = cursor.getString(eventLookupKeyColumn);
+                contactEvent.displayName = cursor.getString(displayNameColumn);
+                contactEvent.eventType = cursor.getInt(eventTypeColumn);
+                contactEvent.eventCustomLabel = cursor.getString(eventCustomLabelColumn);
+                contactEvent.eventDateString = cursor.getString(eventDateColumn);
+                contactEvent.accountType = cursor.getString(accountTypeColumn);
+                contactEvent.accountName = cursor.getString(accountNameColumn);
+                contactEvents.add(contactEvent);
+            }
+        } finally {
+            cursor.close();
+        }
+
+        return contactEvents;
+    }
+
+    /**
+     * Get Cursor of contacts with name, contact id, date of event, type, and account columns.
+     * 
+     * @param lookupKey
+     *            only get events of the contact with this lookup key, null for all contacts
+     * @param disabledEventTypes
+     *            comma-separated event types that are not synced, null to sync all, see
+     *            getDisabledEventTypes()
+     * @param groupMembers
+     *            comma-separated contact ids, null for all contacts
+     * @return null on error
+     */
+    private Cursor getContactsEvents(String lookupKey, String disabledEventTypes,
+            String groupMembers) {
+        Uri uri = ContactsContract.Data.CONTENT_URI;
+
+        String[] projection = new String[] { ContactsContract.Contacts.DISPLAY_NAME,
+                ContactsContract.CommonDataKinds.Event.CONTACT_ID,
+                ContactsContract.CommonDataKinds.Event.LOOKUP_KEY,
+                ContactsContract.CommonDataKinds.Event.START_DATE,
+                ContactsContract.CommonDataKinds.Event.TYPE,
+                ContactsContract.CommonDataKinds.Event.LABEL,
+                ContactsContract.RawContacts.ACCOUNT_TYPE,
+                ContactsContract.RawContacts.ACCOUNT_NAME };
+
+        String where = ContactsContract.Data.MIMETYPE + "= ? AND "
+                + ContactsContract.CommonDataKinds.Event.TYPE + " IS NOT NULL";
+        ArrayList<String> selectionArgs = new ArrayList<String>();
+        selectionArgs.add(ContactsContract.CommonDataKinds.Event.CONTENT_ITEM_TYPE);
+        if (lookupKey != null) {
+            where += " AND " + ContactsContract.Data.LOOKUP_KEY + " = ?";
+            selectionArgs.add(lookupKey);
+        }
+
+        if (disabledEventTypes != null) {
+            where += " AND " + ContactsContract.CommonDataKinds.Event.TYPE + " NOT IN ("
+                    + disabledEventTypes + ")";
+        }
+
+        if (mConfig.getStarredOnly()) {
+            where += " AND " + ContactsContract.Data.STARRED + " = 1";
+        }
+
+        Set<String> accountTypes = mConfig.getSyncedAccountTypes();
+        if (!accountTypes.isEmpty()) {
+            where += " AND " + ContactsContract.RawContacts.ACCOUNT_TYPE + " IN ("
+                    + CalendarSyncAdapterService.getPlaceholders(accountTypes.size()) + ")";
+            selectionArgs.addAll(accountTypes);
+        }
+
+        if (groupMembers != null) {
+            where += " AND " + ContactsContract.Data.CONTACT_ID + " IN (" + groupMembers + ")";
+        }
+        String sortOrder = null;
+
+        return mSession.query(uri, projection, where,
+                selectionArgs.toArray(new String[selectionArgs.size()]), sortOrder);
+    }
+
+    /**
+     * Gets the event types that are not synced for a selection. Disabled types are excluded
+     * instead of listing the enabled ones, to keep unknown types, which are always synced, see
+     * SyncConfig.getSyncEventType().
+     * 
+     * @return comma-separated event types, null if all are synced
+     */
+    private String getDisabledEventTypes() {
+        StringBuilder eventTypes = new StringBuilder();
+        for (int eventType : ContactEvent.EVENT_TYPES) {
+            if (!mConfig.getSyncEventType(eventType)) {
+                if (eventTypes.length() > 0) {
+                    eventTypes.append(",");
+                }
+                eventTypes.append(eventType);
+            }
+        }
+        return (eventTypes.length() > 0) ? eventTypes.toString() : null;
+    }
+
+    /**
+     * Gets the ids of contacts that are members of at least one of the groups. Contact ids are
+     * returned instead of being used as a subquery, because the data table is only accessible as
+     * a view of the contacts provider.
+     * 
+     * @param groups
+     *            group ids
+     * @return comma-separated contact ids for a selection, empty if the groups have no members,
+     *         null on error
+     */
+    private String getGroupMembers(Set<String> groups) {
+        StringBuilder groupIds = new StringBuilder();
+        for (String group : groups) {
+            try {
+                long groupId = Long.parseLong(group);
+                if (groupIds.length() > 0) {
+                    groupIds.append(",");
+                }
+                groupIds.append(groupId);
+            } catch (NumberFormatException e) {
+                Log.e(Constants.TAG, "Invalid group id " + group);
+            }
+        }
+        if (groupIds.length() == 0) {
+            return "";
+        }
+
+        Cursor cursor = mSession.query(ContactsContract.Data.CONTENT_URI,
+                new String[] { ContactsContract.Data.CONTACT_ID },
+                ContactsContract.Data.MIMETYPE + " = ? AND "
+                        + ContactsContract.CommonDataKinds.GroupMembership.GROUP_ROW_ID + " IN ("
+                        + groupIds + ")",
+                new String[] { ContactsContract.CommonDataKinds.GroupMembership.CONTENT_ITEM_TYPE },
+                null);
+
+        if (cursor == null) {
+            Log.e(Constants.TAG, "Unable to get group members! Cursor returns null!");
+            return null;
+        }
+
+        HashSet<Long> contactIds = new HashSet<Long>();
+        try {
+            while (cursor.moveToNext()) {
+                contactIds.add(cursor.getLong(0));
+            }
+        } finally {
+            cursor.close();
+        }
+
+        StringBuilder result = new StringBuilder();
+        for (long contactId : contactIds) {
+            if (result.length() > 0) {
+                result.append(",");
+            }
+            result.append(contactId);
+        }
+        return result.toString();
+    }
+}
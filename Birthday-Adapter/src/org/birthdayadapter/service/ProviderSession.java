@@ -0,0 +1,207 @@
+/*
+ * Copyright (C) 2012-2013 Dominik Schürmann <dominik@dominikschuermann.de>
+ *
+ * This file is part of Birthday Adapter.
+ * 
+ * Birthday Adapter is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Birthday Adapter is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Birthday Adapter.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.birthdayadapter.service;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import org.birthdayadapter.util.Constants;
+import org.birthdayadapter.util.Log;
+
+import android.annotation.TargetApi;
+import android.content.ContentProviderClient;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.OperationApplicationException;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Build;
+import android.os.DeadObjectException;
+import android.os.RemoteException;
+
+/**
+ * Provider access of one sync. Instead of letting ContentResolver acquire and release the provider
+ * for every call, one ContentProviderClient is kept for each authority until release() is called.
+ * Methods mirror those of ContentResolver, including its error handling, so the sync code does not
+ * depend on which one it uses.
+ * 
+ * When the process of a provider dies, e.g., because the calendar storage was updated, the client
+ * is reacquired and the call retried once. Batches are not retried, because operations before a
+ * yield point may already have been committed. Must always be released afterwards.
+ */
+public class ProviderSession {
+    private final ContentResolver mContentResolver;
+    private final HashMap<String, ContentProviderClient> mClients;
+
+    private int mCalls;
+    private int mReconnects;
+
+    private interface ProviderCall<T> {
+        T call(ContentProviderClient client) throws RemoteException;
+    }
+
+    public ProviderSession(Context context) {
+        mContentResolver = context.getContentResolver();
+        mClients = new HashMap<String, ContentProviderClient>();
+    }
+
+    public Cursor query(final Uri uri, final String[] projection, final String selection,
+            final String[] selectionArgs, final String sortOrder) {
+        return execute(uri.getAuthority(), new ProviderCall<Cursor>() {
+            @Override
+            public Cursor call(ContentProviderClient client) throws RemoteException {
+                return client.query(uri, projection, selection, selectionArgs, sortOrder);
+            }
+        }, null);
+    }
+
+    public int update(final Uri uri, final ContentValues values, final String where,
+            final String[] selectionArgs) {
+        return execute(uri.getAuthority(), new ProviderCall<Integer>() {
+            @Override
+            public Integer call(ContentProviderClient client) throws RemoteException {
+                return client.update(uri, values, where, selectionArgs);
+            }
+        }, -1);
+    }
+
+    public int delete(final Uri uri, final String where, final String[] selectionArgs) {
+        return execute(uri.getAuthority(), new ProviderCall<Integer>() {
+            @Override
+            public Integer call(ContentProviderClient client) throws RemoteException {
+                return client.delete(uri, where, selectionArgs);
+            }
+        }, -1);
+    }
+
+    public ContentProviderResult[] applyBatch(String authority,
+            ArrayList<ContentProviderOperation> operations) throws RemoteException,
+            OperationApplicationException {
+        ContentProviderClient client = getClient(authority);
+        if (client == null) {
+            throw new RemoteException();
+        }
+
+        mCalls++;
+        try {
+            return client.applyBatch(operations);
+        } catch (DeadObjectException e) {
+            // the next call gets a new client, the caller decides about this batch
+            releaseClient(authority);
+            mReconnects++;
+            throw e;
+        }
+    }
+
+    /**
+     * Number of calls to providers so far, each of them is one binder transaction
+     * 
+     * @return
+     */
+    public int getCallCount() {
+        return mCalls;
+    }
+
+    /**
+     * Releases all clients. The session can be used again afterwards, clients are acquired again
+     * when needed.
+     */
+    public void release() {
+        for (String authority : new ArrayList<String>(mClients.keySet())) {
+            releaseClient(authority);
+        }
+
+        Log.d(Constants.TAG, "Provider session released after " + mCalls + " calls and "
+                + mReconnects + " reconnects");
+    }
+
+    /**
+     * Calls the provider of authority, retrying once with a new client if its process died
+     * 
+     * @param authority
+     * @param call
+     * @param errorResult
+     *            returned if the call failed, like ContentResolver does
+     * @return
+     */
+    private <T> T execute(String authority, ProviderCall<T> call, T errorResult) {
+        for (int attempt = 0; attempt < 2; attempt++) {
+            ContentProviderClient client = getClient(authority);
+            if (client == null) {
+                break;
+            }
+
+            mCalls++;
+            try {
+                return call.call(client);
+            } catch (DeadObjectException e) {
+                Log.w(Constants.TAG, "Provider " + authority + " died, reconnecting...");
+                releaseClient(authority);
+                mReconnects++;
+            } catch (RemoteException e) {
+                Log.e(Constants.TAG, "Calling provider " + authority + " failed!", e);
+                break;
+            }
+        }
+
+        return errorResult;
+    }
+
+    private ContentProviderClient getClient(String authority) {
+        ContentProviderClient client = mClients.get(authority);
+        if (client == null) {
+            client = acquireClient(authority);
+            if (client == null) {
+                Log.e(Constants.TAG, "Unable to acquire provider " + authority);
+                return null;
+            }
+            mClients.put(authority, client);
+        }
+
+        return client;
+    }
+
+    /**
+     * Since Jelly Bean, the client is unstable. With a stable client, a dying provider process
+     * would take down our process as well instead of throwing DeadObjectException.
+     * 
+     * @param authority
+     * @return
+     */
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private ContentProviderClient acquireClient(String authority) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            return mContentResolver.acquireUnstableContentProviderClient(authority);
+        } else {
+            return mContentResolver.acquireContentProviderClient(authority);
+        }
+    }
+
+    private void releaseClient(String authority) {
+        ContentProviderClient client = mClients.remove(authority);
+        if (client != null) {
+            client.release();
+        }
+    }
+}
@@ -51,6 +51,7 @@ public class BaseActivityV8 extends PreferenceActivity {
 
     private CheckBoxPreference mEnabled;
     private Preference mForceSync;
+    private Preference mRemoveCalendar;
 
     private ColorPickerPreference mColor;
     private ListPreference mReminder0;
@@ -79,6 +80,8 @@ public class BaseActivityV8 extends PreferenceActivity {
 
         mEnabled = (CheckBoxPreference) findPreference(getString(R.string.pref_enabled_key));
         mForceSync = (Preference) findPreference(getString(R.string.pref_force_sync_key));
+        mRemoveCalendar = (Preference) findPreference(
+                getString(R.string.pref_remove_calendar_key));
 
         mColor = (ColorPickerPreference) findPreference(getString(R.string.pref_color_key));
         mReminder0 = (ListPreference) findPreference(getString(R.string.pref_reminder_key0));
@@ -100,11 +103,13 @@ public class BaseActivityV8 extends PreferenceActivity {
                 if (newValue instanceof Boolean) {
                     Boolean boolVal = (Boolean) newValue;
 
+                    // only hide the calendar, removing it is done by mRemoveCalendar
                     if (boolVal) {
-                        mAccountHelper.addAccountAndSync();
+                        mAccountHelper.enableSync();
                         mForceSync.setEnabled(true);
+                        mRemoveCalendar.setEnabled(true);
                     } else {
-                        mAccountHelper.removeAccount();
+                        mAccountHelper.disableSync();
                         mForceSync.setEnabled(false);
                     }
                 }
@@ -121,6 +126,18 @@ public class BaseActivityV8 extends PreferenceActivity {
             }
         });
 
+        mRemoveCalendar.setOnPreferenceClickListener(new OnPreferenceClickListener() {
+            @Override
+            public boolean onPreferenceClick(Preference preference) {
+                mAccountHelper.removeAccount();
+                mEnabled.setChecked(false);
+                mForceSync.setEnabled(false);
+                mRemoveCalendar.setEnabled(false);
+
+                return false;
+            }
+        });
+
         /*
          * Functionality is defined in PreferenceImpl
          */
@@ -134,6 +151,27 @@ public class BaseActivityV8 extends PreferenceActivity {
         mReminder2.setOnPreferenceChangeListener(new PreferenceImpl.ReminderOnChange(mActivity,
                 mBackgroundStatusHandler, 2));
 
+        OnPreferenceChangeListener syncedYearsOnChange = new PreferenceImpl.SyncedYearsOnChange(
+                mActivity, mBackgroundStatusHandler);
+        for (int eventType : PreferencesHelper.EVENT_TYPES) {
+            findPreference(getString(R.string.pref_years_before_key) + eventType)
+                    .setOnPreferenceChangeListener(syncedYearsOnChange);
+            findPreference(getString(R.string.pref_years_after_key) + eventType)
+                    .setOnPreferenceChangeListener(syncedYearsOnChange);
+        }
+
+        findPreference(getString(R.string.pref_sharding_key)).setOnPreferenceChangeListener(
+                new PreferenceImpl.ShardingOnChange(mActivity, mBackgroundStatusHandler));
+
+        OnPreferenceChangeListener filterOnChange = new PreferenceImpl.FilterOnChange(mActivity,
+                mBackgroundStatusHandler);
+        for (int eventType : PreferencesHelper.EVENT_TYPES) {
+            findPreference(getString(R.string.pref_sync_event_type_key) + eventType)
+                    .setOnPreferenceChangeListener(filterOnChange);
+        }
+        findPreference(getString(R.string.pref_starred_only_key)).setOnPreferenceChangeListener(
+                filterOnChange);
+
         mHelp.setOnPreferenceClickListener(new OnPreferenceClickListener() {
             @Override
             public boolean onPreferenceClick(Preference preference) {
@@ -149,14 +187,15 @@ public class BaseActivityV8 extends PreferenceActivity {
     public void onResume() {
         super.onResume();
 
-        // If account is activated check the preference
-        if (mAccountHelper.isAccountActivated()) {
+        // If account is activated and sync is enabled check the preference
+        if (mAccountHelper.isSyncEnabled()) {
             mEnabled.setChecked(true);
             mForceSync.setEnabled(true);
         } else {
             mEnabled.setChecked(false);
             mForceSync.setEnabled(false);
         }
+        mRemoveCalendar.setEnabled(mAccountHelper.isAccountActivated());
     }
 
 }
@@ -42,6 +42,7 @@ public class BaseFragment extends PreferenceFragment {
 
     private SwitchPreference mEnabled;
     private Preference mForceSync;
+    private Preference mRemoveCalendar;
 
     @Override
     public void onActivityCreated(Bundle savedInstanceState) {
@@ -60,6 +61,8 @@ public class BaseFragment extends PreferenceFragment {
 
         mEnabled = (SwitchPreference) findPreference(getString(R.string.pref_enabled_key));
         mForceSync = (Preference) findPreference(getString(R.string.pref_force_sync_key));
+        mRemoveCalendar = (Preference) findPreference(
+                getString(R.string.pref_remove_calendar_key));
 
         // if this is the first run, enable and sync birthday adapter!
         if (PreferencesHelper.getFirstRun(mActivity)) {
@@ -74,11 +77,13 @@ public class BaseFragment extends PreferenceFragment {
                 if (newValue instanceof Boolean) {
                     Boolean boolVal = (Boolean) newValue;
 
+                    // only hide the calendar, removing it is done by mRemoveCalendar
                     if (boolVal) {
-                        mAccountHelper.addAccountAndSync();
+                        mAccountHelper.enableSync();
                         mForceSync.setEnabled(true);
+                        mRemoveCalendar.setEnabled(true);
                     } else {
-                        mAccountHelper.removeAccount();
+                        mAccountHelper.disableSync();
                         mForceSync.setEnabled(false);
                     }
                 }
@@ -94,20 +99,33 @@ public class BaseFragment extends PreferenceFragment {
                 return false;
             }
         });
+
+        mRemoveCalendar.setOnPreferenceClickListener(new OnPreferenceClickListener() {
+            @Override
+            public boolean onPreferenceClick(Preference preference) {
+                mAccountHelper.removeAccount();
+                mEnabled.setChecked(false);
+                mForceSync.setEnabled(false);
+                mRemoveCalendar.setEnabled(false);
+
+                return false;
+            }
+        });
     }
 
     @Override
     public void onResume() {
         super.onResume();
 
-        // If account is activated check the preference
-        if (mAccountHelper.isAccountActivated()) {
+        // If account is activated and sync is enabled check the preference
+        if (mAccountHelper.isSyncEnabled()) {
             mEnabled.setChecked(true);
             mForceSync.setEnabled(true);
         } else {
             mEnabled.setChecked(false);
             mForceSync.setEnabled(false);
         }
+        mRemoveCalendar.setEnabled(mAccountHelper.isAccountActivated());
     }
 
 }
@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2012-2013 Dominik Schürmann <dominik@dominikschuermann.de>
+ *
+ * This file is part of Birthday Adapter.
+ * 
+ * Birthday Adapter is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Birthday Adapter is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Birthday Adapter.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.birthdayadapter.ui;
+
+import java.lang.ref.WeakReference;
+
+import org.birthdayadapter.R;
+import org.birthdayadapter.service.MainIntentService;
+import org.birthdayadapter.util.BackgroundStatusHandler;
+
+import android.app.Activity;
+import android.content.Intent;
+import android.os.Bundle;
+import android.os.Message;
+import android.os.Messenger;
+import android.view.Window;
+import android.widget.TextView;
+
+/**
+ * Debug screen showing what a sync or a change of reminders or color would write, without writing
+ * anything. Can be started with Constants.ACTION_DRY_RUN, optionally limited to one of
+ * CalendarSyncAdapterService.DRY_RUN_* by EXTRA_DRY_RUN_ACTION. The report is returned as
+ * EXTRA_REPORT when started for result. Other apps need the signature permission
+ * org.birthdayadapter.permission.DRY_RUN, so only tooling signed with the key of the app, or
+ * granted the permission for development, can start it.
+ */
+public class DryRunActivity extends Activity {
+    public static final String EXTRA_DRY_RUN_ACTION = "org.birthdayadapter.extra.DRY_RUN_ACTION";
+    public static final String EXTRA_REPORT = "org.birthdayadapter.extra.REPORT";
+
+    private TextView mReport;
+
+    private static class DryRunHandler extends BackgroundStatusHandler {
+        WeakReference<DryRunActivity> mDryRunActivity;
+
+        public DryRunHandler(DryRunActivity activity) {
+            super(activity);
+            mDryRunActivity = new WeakReference<DryRunActivity>(activity);
+        }
+
+        @Override
+        public void handleMessage(Message msg) {
+            if (msg.what == MainIntentService.MESSAGE_REPORT) {
+                DryRunActivity activity = mDryRunActivity.get();
+                if (activity != null) {
+                    activity.showReport(msg.getData().getString(MainIntentService.REPORT));
+                }
+            } else {
+                super.handleMessage(msg);
+            }
+        }
+    }
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+
+        requestWindowFeature(Window.FEATURE_INDETERMINATE_PROGRESS);
+        setContentView(R.layout.dry_run_activity);
+
+        mReport = (TextView) findViewById(R.id.dry_run_report);
+        mReport.setText(R.string.dry_run_planning);
+
+        Bundle data = new Bundle();
+        data.putInt(MainIntentService.DRY_RUN_ACTION,
+                getIntent().getIntExtra(EXTRA_DRY_RUN_ACTION, -1));
+
+        Intent intent = new Intent(this, MainIntentService.class);
+        intent.putExtra(MainIntentService.EXTRA_MESSENGER, new Messenger(
+                new DryRunHandler(this)));
+        intent.putExtra(MainIntentService.EXTRA_ACTION, MainIntentService.ACTION_DRY_RUN);
+        intent.putExtra(MainIntentService.EXTRA_DATA, data);
+
+        startService(intent);
+    }
+
+    private void showReport(String report) {
+        mReport.setText(report);
+
+        Intent result = new Intent();
+        result.putExtra(EXTRA_REPORT, report);
+        setResult(RESULT_OK, result);
+    }
+
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2012-2013 Dominik Schürmann <dominik@dominikschuermann.de>
+ *
+ * This file is part of Birthday Adapter.
+ * 
+ * Birthday Adapter is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Birthday Adapter is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Birthday Adapter.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.birthdayadapter.ui;
+
+import java.lang.ref.WeakReference;
+
+import org.birthdayadapter.R;
+import org.birthdayadapter.service.MainIntentService;
+import org.birthdayadapter.util.BackgroundStatusHandler;
+import org.birthdayadapter.util.Constants;
+
+import android.app.Activity;
+import android.content.Intent;
+import android.os.Bundle;
+import android.os.Message;
+import android.os.Messenger;
+import android.view.Window;
+import android.widget.TextView;
+
+/**
+ * Screen writing events to files or reading them from files in the background and showing the
+ * result. Started with Constants.ACTION_CAPTURE_TRACE, it captures a contacts trace and shows where
+ * it was written. Constants.ACTION_EXPORT_CALENDAR and Constants.ACTION_IMPORT_CALENDAR export the
+ * calendars to an iCalendar file or restore them from one chosen by the user,
+ * Constants.ACTION_IMPORT_VCARD imports the birthdays of a vCard file chosen by the user.
+ */
+public class ImportExportActivity extends Activity {
+    private static final int REQUEST_IMPORT_FILE = 1;
+
+    private TextView mReport;
+
+    private static class ImportExportHandler extends BackgroundStatusHandler {
+        WeakReference<ImportExportActivity> mImportExportActivity;
+
+        public ImportExportHandler(ImportExportActivity activity) {
+            super(activity);
+            mImportExportActivity = new WeakReference<ImportExportActivity>(activity);
+        }
+
+        @Override
+        public void handleMessage(Message msg) {
+            if (msg.what == MainIntentService.MESSAGE_REPORT) {
+                ImportExportActivity activity = mImportExportActivity.get();
+                if (activity != null) {
+                    activity.mReport.setText(msg.getData().getString(MainIntentService.REPORT));
+                }
+            } else {
+                super.handleMessage(msg);
+            }
+        }
+    }
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+
+        requestWindowFeature(Window.FEATURE_INDETERMINATE_PROGRESS);
+        setContentView(R.layout.import_export_activity);
+
+        mReport = (TextView) findViewById(R.id.import_export_report);
+        String action = getIntent().getAction();
+        Intent intent = getServiceIntent();
+        if (Constants.ACTION_CAPTURE_TRACE.equals(action)) {
+            setTitle(R.string.capture_trace_title);
+            mReport.setText(R.string.capture_trace_capturing);
+
+            intent.putExtra(MainIntentService.EXTRA_ACTION,
+                    MainIntentService.ACTION_CAPTURE_TRACE);
+        } else if (Constants.ACTION_EXPORT_CALENDAR.equals(action)) {
+            setTitle(R.string.export_calendar_title);
+            mReport.setText(R.string.export_calendar_exporting);
+
+            intent.putExtra(MainIntentService.EXTRA_ACTION,
+                    MainIntentService.ACTION_EXPORT_CALENDAR);
+        } else if (Constants.ACTION_IMPORT_CALENDAR.equals(action)
+                || Constants.ACTION_IMPORT_VCARD.equals(action)) {
+            if (Constants.ACTION_IMPORT_VCARD.equals(action)) {
+                setTitle(R.string.import_vcard_title);
+            } else {
+                setTitle(R.string.import_calendar_title);
+            }
+            mReport.setText(R.string.import_calendar_importing);
+
+            // the import is started when the file has been chosen, see onActivityResult()
+            if (savedInstanceState == null) {
+                chooseImportFile();
+            }
+            return;
+        } else {
+            finish();
+            return;
+        }
+
+        startService(intent);
+    }
+
+    @Override
+    protected void onActivityResult(int requestCode, int resultCode, Intent data) {
+        if (requestCode != REQUEST_IMPORT_FILE) {
+            super.onActivityResult(requestCode, resultCode, data);
+            return;
+        }
+
+        if (resultCode != RESULT_OK || data == null || data.getData() == null) {
+            finish();
+            return;
+        }
+
+        Bundle importData = new Bundle();
+        importData.putParcelable(MainIntentService.IMPORT_URI, data.getData());
+
+        Intent intent = getServiceIntent();
+        if (Constants.ACTION_IMPORT_VCARD.equals(getIntent().getAction())) {
+            intent.putExtra(MainIntentService.EXTRA_ACTION, MainIntentService.ACTION_IMPORT_VCARD);
+        } else {
+            intent.putExtra(MainIntentService.EXTRA_ACTION,
+                    MainIntentService.ACTION_IMPORT_CALENDAR);
+        }
+        intent.putExtra(MainIntentService.EXTRA_DATA, importData);
+        startService(intent);
+    }
+
+    /**
+     * Lets the user choose the file to import, the result is handled by onActivityResult()
+     */
+    private void chooseImportFile() {
+        Intent chooser = new Intent(Intent.ACTION_GET_CONTENT);
+        chooser.setType("*/*");
+        chooser.addCategory(Intent.CATEGORY_OPENABLE);
+        startActivityForResult(Intent.createChooser(chooser, getTitle()), REQUEST_IMPORT_FILE);
+    }
+
+    /**
+     * Intent for MainIntentService sending its report to this activity
+     */
+    private Intent getServiceIntent() {
+        Intent intent = new Intent(this, MainIntentService.class);
+        intent.putExtra(MainIntentService.EXTRA_MESSENGER, new Messenger(
+                new ImportExportHandler(this)));
+        return intent;
+    }
+
+}
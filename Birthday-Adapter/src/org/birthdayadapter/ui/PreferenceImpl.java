@@ -111,4 +111,126 @@ public class PreferenceImpl {
         }
     }
 
+    public static class SyncedYearsOnChange implements OnPreferenceChangeListener {
+        Context context;
+        Handler handler;
+
+        public SyncedYearsOnChange(Context context, Handler handler) {
+            super();
+            this.context = context;
+            this.handler = handler;
+        }
+
+        @Override
+        public boolean onPreferenceChange(Preference preference, Object newValue) {
+            Log.d(Constants.TAG, preference.getKey() + " changed to " + newValue);
+
+            /*
+             * The service reads the new value from the preferences. They are persisted before the
+             * service handles the intent, because the intent is delivered after this method has
+             * returned.
+             */
+            Intent intent = new Intent(context, MainIntentService.class);
+
+            // Create a new Messenger for the communication back
+            Messenger messenger = new Messenger(handler);
+            intent.putExtra(MainIntentService.EXTRA_MESSENGER, messenger);
+            intent.putExtra(MainIntentService.EXTRA_ACTION,
+                    MainIntentService.ACTION_CHANGE_SYNCED_YEARS);
+
+            // start service with intent
+            context.startService(intent);
+
+            return true;
+        }
+    }
+
+    public static class DateFormatOnChange implements OnPreferenceChangeListener {
+        Context context;
+        Handler handler;
+
+        public DateFormatOnChange(Context context, Handler handler) {
+            super();
+            this.context = context;
+            this.handler = handler;
+        }
+
+        @Override
+        public boolean onPreferenceChange(Preference preference, Object newValue) {
+            Log.d(Constants.TAG, preference.getKey() + " changed to " + newValue);
+
+            // like in SyncedYearsOnChange, the service reads the new value from the preferences
+            Intent intent = new Intent(context, MainIntentService.class);
+
+            // Create a new Messenger for the communication back
+            Messenger messenger = new Messenger(handler);
+            intent.putExtra(MainIntentService.EXTRA_MESSENGER, messenger);
+            intent.putExtra(MainIntentService.EXTRA_ACTION,
+                    MainIntentService.ACTION_CHANGE_DATE_FORMAT);
+
+            // start service with intent
+            context.startService(intent);
+
+            return true;
+        }
+    }
+
+    public static class ShardingOnChange implements OnPreferenceChangeListener {
+        Context context;
+        Handler handler;
+
+        public ShardingOnChange(Context context, Handler handler) {
+            super();
+            this.context = context;
+            this.handler = handler;
+        }
+
+        @Override
+        public boolean onPreferenceChange(Preference preference, Object newValue) {
+            Log.d(Constants.TAG, preference.getKey() + " changed to " + newValue);
+
+            Intent intent = new Intent(context, MainIntentService.class);
+
+            // Create a new Messenger for the communication back
+            Messenger messenger = new Messenger(handler);
+            intent.putExtra(MainIntentService.EXTRA_MESSENGER, messenger);
+            intent.putExtra(MainIntentService.EXTRA_ACTION,
+                    MainIntentService.ACTION_CHANGE_SHARDING);
+
+            // start service with intent
+            context.startService(intent);
+
+            return true;
+        }
+    }
+
+    public static class FilterOnChange implements OnPreferenceChangeListener {
+        Context context;
+        Handler handler;
+
+        public FilterOnChange(Context context, Handler handler) {
+            super();
+            this.context = context;
+            this.handler = handler;
+        }
+
+        @Override
+        public boolean onPreferenceChange(Preference preference, Object newValue) {
+            Log.d(Constants.TAG, preference.getKey() + " changed to " + newValue);
+
+            Intent intent = new Intent(context, MainIntentService.class);
+
+            // Create a new Messenger for the communication back
+            Messenger messenger = new Messenger(handler);
+            intent.putExtra(MainIntentService.EXTRA_MESSENGER, messenger);
+            intent.putExtra(MainIntentService.EXTRA_ACTION,
+                    MainIntentService.ACTION_CHANGE_FILTER);
+
+            // start service with intent
+            context.startService(intent);
+
+            return true;
+        }
+    }
+
 }
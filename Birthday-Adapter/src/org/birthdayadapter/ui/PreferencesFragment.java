@@ -24,12 +24,22 @@ import net.margaritov.preference.colorpicker.ColorPickerPreference;
 
 import org.birthdayadapter.R;
 import org.birthdayadapter.util.Constants;
+import org.birthdayadapter.util.PreferencesHelper;
 
+import java.util.ArrayList;
+import java.util.HashSet;
+
+import android.accounts.Account;
+import android.accounts.AccountManager;
 import android.annotation.TargetApi;
+import android.database.Cursor;
 import android.os.Build;
 import android.os.Bundle;
 import android.preference.ListPreference;
+import android.preference.MultiSelectListPreference;
+import android.preference.Preference.OnPreferenceChangeListener;
 import android.preference.PreferenceFragment;
+import android.provider.ContactsContract;
 
 @TargetApi(Build.VERSION_CODES.ICE_CREAM_SANDWICH)
 public class PreferencesFragment extends PreferenceFragment {
@@ -68,6 +78,83 @@ public class PreferencesFragment extends PreferenceFragment {
                 mActivity.mBackgroundStatusHandler, 1));
         mReminder2.setOnPreferenceChangeListener(new PreferenceImpl.ReminderOnChange(mActivity,
                 mActivity.mBackgroundStatusHandler, 2));
+
+        OnPreferenceChangeListener syncedYearsOnChange = new PreferenceImpl.SyncedYearsOnChange(
+                mActivity, mActivity.mBackgroundStatusHandler);
+        for (int eventType : PreferencesHelper.EVENT_TYPES) {
+            findPreference(getString(R.string.pref_years_before_key) + eventType)
+                    .setOnPreferenceChangeListener(syncedYearsOnChange);
+            findPreference(getString(R.string.pref_years_after_key) + eventType)
+                    .setOnPreferenceChangeListener(syncedYearsOnChange);
+        }
+
+        findPreference(getString(R.string.pref_prefer_dd_slash_mm_key))
+                .setOnPreferenceChangeListener(new PreferenceImpl.DateFormatOnChange(mActivity,
+                        mActivity.mBackgroundStatusHandler));
+
+        findPreference(getString(R.string.pref_sharding_key)).setOnPreferenceChangeListener(
+                new PreferenceImpl.ShardingOnChange(mActivity, mActivity.mBackgroundStatusHandler));
+
+        OnPreferenceChangeListener filterOnChange = new PreferenceImpl.FilterOnChange(mActivity,
+                mActivity.mBackgroundStatusHandler);
+        for (int eventType : PreferencesHelper.EVENT_TYPES) {
+            findPreference(getString(R.string.pref_sync_event_type_key) + eventType)
+                    .setOnPreferenceChangeListener(filterOnChange);
+        }
+        findPreference(getString(R.string.pref_starred_only_key)).setOnPreferenceChangeListener(
+                filterOnChange);
+
+        MultiSelectListPreference groups = (MultiSelectListPreference) findPreference(
+                getString(R.string.pref_synced_groups_key));
+        setGroupEntries(groups);
+        groups.setOnPreferenceChangeListener(filterOnChange);
+
+        MultiSelectListPreference accountTypes = (MultiSelectListPreference) findPreference(
+                getString(R.string.pref_synced_account_types_key));
+        setAccountTypeEntries(accountTypes);
+        accountTypes.setOnPreferenceChangeListener(filterOnChange);
+    }
+
+    /**
+     * Lists the contact groups of all accounts
+     */
+    private void setGroupEntries(MultiSelectListPreference preference) {
+        ArrayList<String> entries = new ArrayList<String>();
+        ArrayList<String> entryValues = new ArrayList<String>();
+
+        Cursor cursor = mActivity.getContentResolver().query(
+                ContactsContract.Groups.CONTENT_URI,
+                new String[] { ContactsContract.Groups._ID, ContactsContract.Groups.TITLE,
+                        ContactsContract.Groups.ACCOUNT_NAME },
+                ContactsContract.Groups.DELETED + " = 0", null, ContactsContract.Groups.TITLE);
+
+        if (cursor != null) {
+            try {
+                while (cursor.moveToNext()) {
+                    entryValues.add(cursor.getString(0));
+                    entries.add(cursor.getString(1) + " (" + cursor.getString(2) + ")");
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+
+        preference.setEntries(entries.toArray(new String[entries.size()]));
+        preference.setEntryValues(entryValues.toArray(new String[entryValues.size()]));
+    }
+
+    /**
+     * Lists the types of all accounts on the device
+     */
+    private void setAccountTypeEntries(MultiSelectListPreference preference) {
+        HashSet<String> accountTypes = new HashSet<String>();
+        for (Account account : AccountManager.get(mActivity).getAccounts()) {
+            accountTypes.add(account.type);
+        }
+        String[] entries = accountTypes.toArray(new String[accountTypes.size()]);
+
+        preference.setEntries(entries);
+        preference.setEntryValues(entries);
     }
 
 }
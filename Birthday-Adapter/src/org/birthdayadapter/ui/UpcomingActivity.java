@@ -0,0 +1,222 @@
+/*
+ * Copyright (C) 2012-2013 Dominik Schürmann <dominik@dominikschuermann.de>
+ *
+ * This file is part of Birthday Adapter.
+ * 
+ * Birthday Adapter is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Birthday Adapter is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Birthday Adapter.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.birthdayadapter.ui;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+
+import org.birthdayadapter.R;
+import org.birthdayadapter.engine.BirthdayIndex;
+import org.birthdayadapter.engine.SyncEngine;
+import org.birthdayadapter.engine.TitleFormat;
+import org.birthdayadapter.service.CalendarSyncAdapterService;
+import org.birthdayadapter.util.AccountHelper;
+import org.birthdayadapter.util.Constants;
+import org.birthdayadapter.util.Log;
+
+import android.app.ListActivity;
+import android.content.ActivityNotFoundException;
+import android.content.ContentUris;
+import android.content.Context;
+import android.content.Intent;
+import android.os.AsyncTask;
+import android.os.Bundle;
+import android.provider.ContactsContract.Contacts;
+import android.text.format.DateUtils;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.view.Window;
+import android.widget.BaseAdapter;
+import android.widget.ListView;
+import android.widget.TextView;
+
+/**
+ * List of upcoming contact events. It is read from the index saved by the last sync, see
+ * CalendarSyncAdapterService.getBirthdayIndex(), so neither contacts nor calendars are queried.
+ * The index is read in the background, as it holds the names of all contacts. Can be started with
+ * Constants.ACTION_UPCOMING.
+ */
+public class UpcomingActivity extends ListActivity {
+    /* shown at least, even if they are further away than SyncEngine.UPCOMING_DAYS */
+    private static final int MIN_EVENTS = 10;
+
+    private List<BirthdayIndex.Entry> mEntries = new ArrayList<BirthdayIndex.Entry>();
+    private LoadTask mLoadTask;
+
+    private static class LoadTask extends AsyncTask<Void, Void, List<BirthdayIndex.Entry>> {
+        private final Context mContext;
+        private final WeakReference<UpcomingActivity> mUpcomingActivity;
+
+        public LoadTask(UpcomingActivity activity) {
+            mContext = activity.getApplicationContext();
+            mUpcomingActivity = new WeakReference<UpcomingActivity>(activity);
+        }
+
+        @Override
+        protected List<BirthdayIndex.Entry> doInBackground(Void... params) {
+            return getUpcomingEntries(mContext);
+        }
+
+        @Override
+        protected void onPostExecute(List<BirthdayIndex.Entry> entries) {
+            UpcomingActivity activity = mUpcomingActivity.get();
+            if (activity != null) {
+                activity.showEntries(entries);
+            }
+        }
+    }
+
+    private static class UpcomingAdapter extends BaseAdapter {
+        private final Context mContext;
+        private final LayoutInflater mInflater;
+        private final TitleFormat mTitleFormat;
+        private final List<BirthdayIndex.Entry> mEntries;
+
+        public UpcomingAdapter(Context context, List<BirthdayIndex.Entry> entries) {
+            mContext = context;
+            mInflater = LayoutInflater.from(context);
+            mTitleFormat = CalendarSyncAdapterService.getTitleFormat(context);
+            mEntries = entries;
+        }
+
+        @Override
+        public int getCount() {
+            return mEntries.size();
+        }
+
+        @Override
+        public Object getItem(int position) {
+            return mEntries.get(position);
+        }
+
+        @Override
+        public long getItemId(int position) {
+            return position;
+        }
+
+        @Override
+        public View getView(int position, View convertView, ViewGroup parent) {
+            View view = convertView;
+            if (view == null) {
+                view = mInflater.inflate(android.R.layout.simple_list_item_2, parent, false);
+            }
+
+            BirthdayIndex.Entry entry = mEntries.get(position);
+            ((TextView) view.findViewById(android.R.id.text1)).setText(mTitleFormat.format(
+                    entry.eventType, entry.eventCustomLabel, entry.hasAge(), entry.displayName,
+                    entry.getAge()));
+            ((TextView) view.findViewById(android.R.id.text2)).setText(getDate(entry));
+
+            return view;
+        }
+
+        /**
+         * Date of the next occurrence and the days until it, e.g., "Monday, March 4 (in 3 days)"
+         */
+        private String getDate(BirthdayIndex.Entry entry) {
+            Calendar cal = Calendar.getInstance();
+            cal.clear();
+            cal.set(entry.nextYear, entry.nextMonth, entry.nextDay);
+            String date = DateUtils.formatDateTime(mContext, cal.getTimeInMillis(),
+                    DateUtils.FORMAT_SHOW_DATE | DateUtils.FORMAT_SHOW_WEEKDAY
+                            | DateUtils.FORMAT_NO_YEAR);
+
+            String days;
+            if (entry.daysUntilNext == 0) {
+                days = mContext.getString(R.string.upcoming_today);
+            } else if (entry.daysUntilNext == 1) {
+                days = mContext.getString(R.string.upcoming_tomorrow);
+            } else {
+                days = mContext.getString(R.string.upcoming_in_days, entry.daysUntilNext);
+            }
+            return mContext.getString(R.string.upcoming_date, date, days);
+        }
+    }
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+
+        requestWindowFeature(Window.FEATURE_INDETERMINATE_PROGRESS);
+        setContentView(R.layout.upcoming_activity);
+
+        setProgressBarIndeterminateVisibility(true);
+        mLoadTask = new LoadTask(this);
+        mLoadTask.execute();
+    }
+
+    @Override
+    protected void onDestroy() {
+        mLoadTask.cancel(false);
+        super.onDestroy();
+    }
+
+    private void showEntries(List<BirthdayIndex.Entry> entries) {
+        setProgressBarIndeterminateVisibility(false);
+        ((TextView) findViewById(android.R.id.empty)).setText(R.string.upcoming_empty);
+
+        mEntries = entries;
+        setListAdapter(new UpcomingAdapter(this, mEntries));
+    }
+
+    /**
+     * Entries of the next SyncEngine.UPCOMING_DAYS days, or the next MIN_EVENTS if there are only
+     * a few of them
+     */
+    private static List<BirthdayIndex.Entry> getUpcomingEntries(Context context) {
+        // the index of a removed account is outdated
+        if (!new AccountHelper(context).isAccountActivated()) {
+            return new ArrayList<BirthdayIndex.Entry>();
+        }
+
+        BirthdayIndex index = CalendarSyncAdapterService.getBirthdayIndex(context);
+        if (index == null) {
+            return new ArrayList<BirthdayIndex.Entry>();
+        }
+
+        Calendar today = Calendar.getInstance();
+        today.set(Calendar.HOUR_OF_DAY, 0);
+        today.set(Calendar.MINUTE, 0);
+        today.set(Calendar.SECOND, 0);
+        today.set(Calendar.MILLISECOND, 0);
+
+        List<BirthdayIndex.Entry> entries = index.getNextDays(today, SyncEngine.UPCOMING_DAYS);
+        if (entries.size() < MIN_EVENTS) {
+            entries = index.getNext(today, MIN_EVENTS);
+        }
+        return entries;
+    }
+
+    @Override
+    protected void onListItemClick(ListView l, View v, int position, long id) {
+        Intent intent = new Intent(Intent.ACTION_VIEW, ContentUris.withAppendedId(
+                Contacts.CONTENT_URI, mEntries.get(position).contactId));
+        try {
+            startActivity(intent);
+        } catch (ActivityNotFoundException e) {
+            Log.e(Constants.TAG, "No activity found to show contact!", e);
+        }
+    }
+
+}
@@ -20,12 +20,16 @@
 
 package org.birthdayadapter.util;
 
+import java.util.Calendar;
+
+import org.birthdayadapter.service.ContactsObserverService;
 import org.birthdayadapter.service.MainIntentService;
 
 import android.accounts.Account;
 import android.accounts.AccountManager;
 import android.accounts.AccountManagerFuture;
 import android.app.AlarmManager;
+import android.app.PendingIntent;
 import android.content.ContentResolver;
 import android.content.Context;
 import android.content.Intent;
@@ -55,17 +59,15 @@ public class AccountHelper {
     public Bundle addAccount() {
         Log.d(Constants.TAG, "Adding account...");
 
-        // enable automatic sync once per day
-        ContentResolver.setSyncAutomatically(Constants.ACCOUNT, Constants.CONTENT_AUTHORITY, true);
-        ContentResolver.setIsSyncable(Constants.ACCOUNT, Constants.ACCOUNT_TYPE, 1);
-
-        // add periodic sync interval once per day
-        long freq = AlarmManager.INTERVAL_DAY;
-        ContentResolver.addPeriodicSync(Constants.ACCOUNT, Constants.ACCOUNT_TYPE, new Bundle(),
-                freq);
+        ContentResolver.setIsSyncable(Constants.ACCOUNT, Constants.CONTENT_AUTHORITY, 1);
+        enableAutomaticSync();
 
         AccountManager am = AccountManager.get(mContext);
         if (am.addAccountExplicitly(Constants.ACCOUNT, null, null)) {
+            PreferencesHelper.setSyncDisabled(mContext, false);
+            startContactsObserver();
+            scheduleYearRollover();
+
             Bundle result = new Bundle();
             result.putString(AccountManager.KEY_ACCOUNT_NAME, Constants.ACCOUNT.name);
             result.putString(AccountManager.KEY_ACCOUNT_TYPE, Constants.ACCOUNT.type);
@@ -103,6 +105,10 @@ public class AccountHelper {
     public boolean removeAccount() {
         Log.d(Constants.TAG, "Removing account...");
 
+        stopContactsObserver();
+        cancelYearRollover();
+        PreferencesHelper.setSyncDisabled(mContext, false);
+
         AccountManager am = AccountManager.get(mContext);
 
         // remove account
@@ -121,6 +127,104 @@ public class AccountHelper {
         }
     }
 
+    /**
+     * Disables sync without removing the account. The calendar is hidden, but keeps all events, so
+     * that enabling it again only needs to catch up with changes in contacts.
+     */
+    public void disableSync() {
+        Log.d(Constants.TAG, "Disabling sync...");
+
+        PreferencesHelper.setSyncDisabled(mContext, true);
+
+        stopContactsObserver();
+        cancelYearRollover();
+        disableAutomaticSync();
+
+        startMainIntentService(MainIntentService.ACTION_DISABLE_SYNC);
+    }
+
+    /**
+     * Enables sync again after disableSync(). If the account does not exist, it is added and
+     * synced.
+     */
+    public void enableSync() {
+        if (!isAccountActivated()) {
+            addAccountAndSync();
+            return;
+        }
+
+        Log.d(Constants.TAG, "Enabling sync...");
+
+        PreferencesHelper.setSyncDisabled(mContext, false);
+
+        enableAutomaticSync();
+        startContactsObserver();
+        scheduleYearRollover();
+
+        startMainIntentService(MainIntentService.ACTION_ENABLE_SYNC);
+    }
+
+    /**
+     * Enables automatic sync once per day, changes in contacts are synced by
+     * ContactsObserverService
+     */
+    private void enableAutomaticSync() {
+        ContentResolver.setSyncAutomatically(Constants.ACCOUNT, Constants.CONTENT_AUTHORITY, true);
+
+        long freq = AlarmManager.INTERVAL_DAY;
+        ContentResolver.addPeriodicSync(Constants.ACCOUNT, Constants.CONTENT_AUTHORITY,
+                new Bundle(), freq);
+    }
+
+    private void disableAutomaticSync() {
+        ContentResolver.setSyncAutomatically(Constants.ACCOUNT, Constants.CONTENT_AUTHORITY, false);
+        ContentResolver.removePeriodicSync(Constants.ACCOUNT, Constants.CONTENT_AUTHORITY,
+                new Bundle());
+    }
+
+    /**
+     * Starts observing contacts to sync changes into the calendar
+     */
+    public void startContactsObserver() {
+        mContext.startService(new Intent(mContext, ContactsObserverService.class));
+    }
+
+    /**
+     * Stops observing contacts
+     */
+    public void stopContactsObserver() {
+        mContext.stopService(new Intent(mContext, ContactsObserverService.class));
+    }
+
+    /**
+     * Schedules the year rollover of the calendar for the beginning of next year. The alarm does
+     * not wake up the device, it is executed when the device is used the next time.
+     */
+    public void scheduleYearRollover() {
+        Calendar nextYear = Calendar.getInstance();
+        nextYear.set(nextYear.get(Calendar.YEAR) + 1, Calendar.JANUARY, 1, 0, 5, 0);
+
+        Log.d(Constants.TAG, "Scheduling year rollover at " + nextYear.getTime());
+
+        AlarmManager am = (AlarmManager) mContext.getSystemService(Context.ALARM_SERVICE);
+        am.set(AlarmManager.RTC, nextYear.getTimeInMillis(), getYearRolloverIntent());
+    }
+
+    /**
+     * Cancels a scheduled year rollover
+     */
+    public void cancelYearRollover() {
+        AlarmManager am = (AlarmManager) mContext.getSystemService(Context.ALARM_SERVICE);
+        am.cancel(getYearRolloverIntent());
+    }
+
+    private PendingIntent getYearRolloverIntent() {
+        Intent intent = new Intent(mContext, MainIntentService.class);
+        intent.putExtra(MainIntentService.EXTRA_ACTION, MainIntentService.ACTION_YEAR_ROLLOVER);
+
+        return PendingIntent.getService(mContext, 0, intent, PendingIntent.FLAG_UPDATE_CURRENT);
+    }
+
     /**
      * Force a manual sync now!
      */
@@ -133,6 +237,53 @@ public class AccountHelper {
         // ContentResolver.requestSync(Constants.ACCOUNT, Constants.CONTENT_AUTHORITY, extras);
 
         // Enabled: Force resync in own thread:
+        startMainIntentService(MainIntentService.ACTION_MANUAL_SYNC);
+    }
+
+    /**
+     * Syncs only the events of one contact
+     * 
+     * @param lookupKey
+     *            lookup key of the contact
+     */
+    public void contactSync(String lookupKey) {
+        Log.d(Constants.TAG, "Sync contact " + lookupKey + "...");
+
+        Bundle data = new Bundle();
+        data.putString(MainIntentService.SYNC_CONTACT_LOOKUP_KEY, lookupKey);
+        startMainIntentService(MainIntentService.ACTION_SYNC_CONTACT, data);
+    }
+
+    /**
+     * Syncs only the contacts that changed since the last time
+     */
+    public void syncChangedContacts() {
+        Log.d(Constants.TAG, "Sync changed contacts...");
+
+        startMainIntentService(MainIntentService.ACTION_SYNC_CHANGED_CONTACTS);
+    }
+
+    /**
+     * Repairs events that have been changed or deleted by other apps
+     */
+    public void repairCalendar() {
+        Log.d(Constants.TAG, "Repair calendar...");
+
+        startMainIntentService(MainIntentService.ACTION_REPAIR);
+    }
+
+    private void startMainIntentService(int action) {
+        startMainIntentService(action, new Bundle());
+    }
+
+    /**
+     * Executes an action in MainIntentService
+     * 
+     * @param action
+     * @param data
+     *            values for this action
+     */
+    private void startMainIntentService(int action, Bundle data) {
         // Send all information needed to service to do in other thread
         Intent intent = new Intent(mContext, MainIntentService.class);
 
@@ -141,16 +292,11 @@ public class AccountHelper {
             Messenger messenger = new Messenger(mBackgroundStatusHandler);
             intent.putExtra(MainIntentService.EXTRA_MESSENGER, messenger);
         }
-        intent.putExtra(MainIntentService.EXTRA_ACTION,
-                MainIntentService.ACTION_MANUAL_SYNC);
-
-        // fill values for this action
-        Bundle data = new Bundle();
+        intent.putExtra(MainIntentService.EXTRA_ACTION, action);
         intent.putExtra(MainIntentService.EXTRA_DATA, data);
 
         // start service with intent
         mContext.startService(intent);
-
     }
 
     /**
@@ -171,4 +317,13 @@ public class AccountHelper {
 
         return false;
     }
+
+    /**
+     * Checks whether the account is enabled and sync has not been disabled by disableSync()
+     * 
+     * @return
+     */
+    public boolean isSyncEnabled() {
+        return isAccountActivated() && !PreferencesHelper.getSyncDisabled(mContext);
+    }
 }
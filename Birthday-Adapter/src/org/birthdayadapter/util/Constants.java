@@ -20,6 +20,8 @@
 
 package org.birthdayadapter.util;
 
+import org.birthdayadapter.engine.SyncConfig;
+
 import android.accounts.Account;
 
 public class Constants {
@@ -36,6 +38,35 @@ public class Constants {
 
     public static final String PREFS_NAME = "preferences";
     
-    public static final int DISABLED_REMINDER = -99999;
+    public static final int DISABLED_REMINDER = SyncConfig.DISABLED_REMINDER;
+
+    /* values of the sharding preference, see CalendarSyncAdapterService.getShards() */
+    public static final int SHARDING_NONE = 0;
+    public static final int SHARDING_EVENT_TYPE = 1;
+    public static final int SHARDING_ACCOUNT = 2;
+
+    /* exported intent to sync the events of one contact, see ContactSyncReceiver */
+    public static final String ACTION_SYNC_CONTACT = "org.birthdayadapter.action.SYNC_CONTACT";
+    public static final String EXTRA_LOOKUP_KEY = "org.birthdayadapter.extra.LOOKUP_KEY";
+    public static final String PERMISSION_SYNC_CONTACT =
+            "org.birthdayadapter.permission.SYNC_CONTACT";
+
+    /* opens the dry run debug screen, see DryRunActivity */
+    public static final String ACTION_DRY_RUN = "org.birthdayadapter.action.DRY_RUN";
+
+    /* opens the debug screen capturing a contacts trace, see ImportExportActivity */
+    public static final String ACTION_CAPTURE_TRACE = "org.birthdayadapter.action.CAPTURE_TRACE";
+
+    /* export and import of the calendars as iCalendar file, see ImportExportActivity */
+    public static final String ACTION_EXPORT_CALENDAR =
+            "org.birthdayadapter.action.EXPORT_CALENDAR";
+    public static final String ACTION_IMPORT_CALENDAR =
+            "org.birthdayadapter.action.IMPORT_CALENDAR";
+
+    /* import of the birthdays in a vCard file, see ImportExportActivity */
+    public static final String ACTION_IMPORT_VCARD = "org.birthdayadapter.action.IMPORT_VCARD";
+
+    /* opens the list of upcoming birthdays, see UpcomingActivity */
+    public static final String ACTION_UPCOMING = "org.birthdayadapter.action.UPCOMING";
 
 }
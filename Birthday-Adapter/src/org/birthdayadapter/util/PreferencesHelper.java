@@ -20,13 +20,91 @@
 
 package org.birthdayadapter.util;
 
+import java.io.File;
+import java.util.HashSet;
+import java.util.Set;
+
 import org.birthdayadapter.R;
+import org.birthdayadapter.engine.ContactEvent;
+import org.birthdayadapter.engine.SyncConfig;
 
+import android.annotation.TargetApi;
 import android.content.Context;
 import android.content.SharedPreferences;
+import android.content.SharedPreferences.OnSharedPreferenceChangeListener;
 import android.content.res.Resources;
+import android.os.Build;
 
 public class PreferencesHelper {
+    /* event types with own preferences */
+    public static final int[] EVENT_TYPES = ContactEvent.EVENT_TYPES;
+
+    private static SyncConfig sSyncConfig;
+
+    /* modification time and length of the preferences file when sSyncConfig was read */
+    private static long sSyncConfigModified;
+    private static long sSyncConfigLength;
+
+    /* SharedPreferences only keeps a weak reference to its listeners */
+    private static OnSharedPreferenceChangeListener sSyncConfigListener;
+
+    /**
+     * Gets the snapshot of the preferences used by syncs. It is cached until a preference changes,
+     * a sync that is running keeps the snapshot it started with.
+     * 
+     * The listener only sees changes of this process, but preferences are changed in the main
+     * process while scheduled syncs run in the process of the sync adapter. Changes of other
+     * processes are detected by the modification time and length of the preferences file, the
+     * length for changes within the resolution of modification times.
+     */
+    public static synchronized SyncConfig getSyncConfig(Context context) {
+        if (sSyncConfigListener == null) {
+            sSyncConfigListener = new OnSharedPreferenceChangeListener() {
+                @Override
+                public void onSharedPreferenceChanged(SharedPreferences prefs, String key) {
+                    synchronized (PreferencesHelper.class) {
+                        sSyncConfig = null;
+                    }
+                }
+            };
+            context.getSharedPreferences(Constants.PREFS_NAME, Context.MODE_PRIVATE)
+                    .registerOnSharedPreferenceChangeListener(sSyncConfigListener);
+        }
+
+        File prefsFile = new File(context.getFilesDir().getParentFile(), "shared_prefs/"
+                + Constants.PREFS_NAME + ".xml");
+        long modified = prefsFile.lastModified();
+        long length = prefsFile.length();
+        if (sSyncConfig == null || modified != sSyncConfigModified
+                || length != sSyncConfigLength) {
+            // reloads the preferences if another process has changed them, always done below 3.0
+            context.getSharedPreferences(Constants.PREFS_NAME, Context.MODE_MULTI_PROCESS);
+            sSyncConfigModified = modified;
+            sSyncConfigLength = length;
+
+            int[] reminderMinutes = new int[3];
+            for (int i = 0; i < reminderMinutes.length; i++) {
+                reminderMinutes[i] = getReminder(context, i);
+            }
+
+            int[] yearsBefore = new int[EVENT_TYPES.length];
+            int[] yearsAfter = new int[EVENT_TYPES.length];
+            boolean[] syncEventTypes = new boolean[EVENT_TYPES.length];
+            for (int i = 0; i < EVENT_TYPES.length; i++) {
+                yearsBefore[i] = getYearsBefore(context, EVENT_TYPES[i]);
+                yearsAfter[i] = getYearsAfter(context, EVENT_TYPES[i]);
+                syncEventTypes[i] = getSyncEventType(context, EVENT_TYPES[i]);
+            }
+
+            sSyncConfig = new SyncConfig(reminderMinutes, getColor(context),
+                    getPreferddSlashMM(context), yearsBefore, yearsAfter, syncEventTypes,
+                    getStarredOnly(context), getSyncedGroups(context),
+                    getSyncedAccountTypes(context), getSharding(context), getScrubBudget(context));
+        }
+
+        return sSyncConfig;
+    }
+
     public static boolean getFirstRun(Context context) {
         SharedPreferences prefs = context.getSharedPreferences(Constants.PREFS_NAME,
                 Context.MODE_PRIVATE);
@@ -63,6 +141,188 @@ public class PreferencesHelper {
         return Integer.valueOf(reminderStr);
     }
 
+    /**
+     * Number of years before the current year that are synced for events of eventType
+     */
+    public static int getYearsBefore(Context context, int eventType) {
+        SharedPreferences prefs = context.getSharedPreferences(Constants.PREFS_NAME,
+                Context.MODE_PRIVATE);
+        String key = context.getString(R.string.pref_years_before_key) + eventType;
+        String yearsStr = prefs.getString(key, context.getString(R.string.pref_years_before_def));
+
+        return Integer.valueOf(yearsStr);
+    }
+
+    /**
+     * Number of years after the current year that are synced for events of eventType
+     */
+    public static int getYearsAfter(Context context, int eventType) {
+        SharedPreferences prefs = context.getSharedPreferences(Constants.PREFS_NAME,
+                Context.MODE_PRIVATE);
+        String key = context.getString(R.string.pref_years_after_key) + eventType;
+        String yearsStr = prefs.getString(key, context.getString(R.string.pref_years_after_def));
+
+        return Integer.valueOf(yearsStr);
+    }
+
+    /**
+     * Year the window of synced years in the calendar belongs to, 0 if never synced
+     */
+    public static int getWindowYear(Context context) {
+        SharedPreferences prefs = context.getSharedPreferences(Constants.PREFS_NAME,
+                Context.MODE_PRIVATE);
+        return prefs.getInt(context.getString(R.string.pref_window_year_key), 0);
+    }
+
+    public static void setWindowYear(Context context, int value) {
+        SharedPreferences prefs = context.getSharedPreferences(Constants.PREFS_NAME,
+                Context.MODE_PRIVATE);
+        SharedPreferences.Editor editor = prefs.edit();
+        editor.putInt(context.getString(R.string.pref_window_year_key), value);
+        editor.commit();
+    }
+
+    /**
+     * True if sync has been disabled while keeping the account and calendar
+     */
+    public static boolean getSyncDisabled(Context context) {
+        SharedPreferences prefs = context.getSharedPreferences(Constants.PREFS_NAME,
+                Context.MODE_PRIVATE);
+        return prefs.getBoolean(context.getString(R.string.pref_sync_disabled_key), false);
+    }
+
+    public static void setSyncDisabled(Context context, boolean value) {
+        SharedPreferences prefs = context.getSharedPreferences(Constants.PREFS_NAME,
+                Context.MODE_PRIVATE);
+        SharedPreferences.Editor editor = prefs.edit();
+        editor.putBoolean(context.getString(R.string.pref_sync_disabled_key), value);
+        editor.commit();
+    }
+
+    /**
+     * Statistics of the last sync, see SyncStatistics
+     */
+    public static String getLastSyncStatistics(Context context) {
+        SharedPreferences prefs = context.getSharedPreferences(Constants.PREFS_NAME,
+                Context.MODE_PRIVATE);
+        return prefs.getString(context.getString(R.string.pref_last_sync_statistics_key), null);
+    }
+
+    public static void setLastSyncStatistics(Context context, String value) {
+        SharedPreferences prefs = context.getSharedPreferences(Constants.PREFS_NAME,
+                Context.MODE_PRIVATE);
+        SharedPreferences.Editor editor = prefs.edit();
+        editor.putString(context.getString(R.string.pref_last_sync_statistics_key), value);
+        editor.commit();
+    }
+
+    public static long getLastScrub(Context context) {
+        SharedPreferences prefs = context.getSharedPreferences(Constants.PREFS_NAME,
+                Context.MODE_PRIVATE);
+        return prefs.getLong(context.getString(R.string.pref_last_scrub_key), 0);
+    }
+
+    public static void setLastScrub(Context context, long value) {
+        SharedPreferences prefs = context.getSharedPreferences(Constants.PREFS_NAME,
+                Context.MODE_PRIVATE);
+        SharedPreferences.Editor editor = prefs.edit();
+        editor.putLong(context.getString(R.string.pref_last_scrub_key), value);
+        editor.commit();
+    }
+
+    /**
+     * Time up to which changed contacts have been synced, see
+     * CalendarSyncAdapterService.performChangedContactsSync()
+     * 
+     * @return 0 if never synced
+     */
+    public static long getLastContactsChange(Context context) {
+        SharedPreferences prefs = context.getSharedPreferences(Constants.PREFS_NAME,
+                Context.MODE_PRIVATE);
+        return prefs.getLong(context.getString(R.string.pref_last_contacts_change_key), 0);
+    }
+
+    public static void setLastContactsChange(Context context, long value) {
+        SharedPreferences prefs = context.getSharedPreferences(Constants.PREFS_NAME,
+                Context.MODE_PRIVATE);
+        SharedPreferences.Editor editor = prefs.edit();
+        editor.putLong(context.getString(R.string.pref_last_contacts_change_key), value);
+        editor.commit();
+    }
+
+    /**
+     * Names of the calendars of contacts the last full or incremental sync wrote to, see
+     * CalendarSyncAdapterService.performRepair(). Written by the sync adapter process, so it is
+     * reloaded from the file.
+     * 
+     * @return empty if not synced yet
+     */
+    public static Set<String> getShardCalendars(Context context) {
+        SharedPreferences prefs = context.getSharedPreferences(Constants.PREFS_NAME,
+                Context.MODE_MULTI_PROCESS);
+        String names = prefs.getString(context.getString(R.string.pref_shard_calendars_key), "");
+
+        HashSet<String> result = new HashSet<String>();
+        for (String name : names.split("\n")) {
+            if (name.length() > 0) {
+                result.add(name);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Names are stored separated by new lines, string sets can only be stored on Android >= 3
+     */
+    public static void setShardCalendars(Context context, Set<String> value) {
+        StringBuilder names = new StringBuilder();
+        for (String name : value) {
+            names.append(name).append('\n');
+        }
+
+        SharedPreferences prefs = context.getSharedPreferences(Constants.PREFS_NAME,
+                Context.MODE_PRIVATE);
+        SharedPreferences.Editor editor = prefs.edit();
+        editor.putString(context.getString(R.string.pref_shard_calendars_key), names.toString());
+        editor.commit();
+    }
+
+    /**
+     * Share of time in percent the scrub may take, it pauses for the rest
+     */
+    public static int getScrubBudget(Context context) {
+        SharedPreferences prefs = context.getSharedPreferences(Constants.PREFS_NAME,
+                Context.MODE_PRIVATE);
+        String budgetStr = prefs.getString(context.getString(R.string.pref_scrub_budget_key),
+                context.getString(R.string.pref_scrub_budget_def));
+
+        return Integer.valueOf(budgetStr);
+    }
+
+    /**
+     * Are background syncs performed with low thread priority?
+     */
+    public static boolean getLowPrioritySync(Context context) {
+        SharedPreferences prefs = context.getSharedPreferences(Constants.PREFS_NAME,
+                Context.MODE_PRIVATE);
+        return prefs.getBoolean(context.getString(R.string.pref_low_priority_sync_key),
+                Boolean.parseBoolean(context.getString(R.string.pref_low_priority_sync_def)));
+    }
+
+    /**
+     * Maximum number of operations per second written by background syncs
+     * 
+     * @return 0 for no limit
+     */
+    public static int getWriteLimit(Context context) {
+        SharedPreferences prefs = context.getSharedPreferences(Constants.PREFS_NAME,
+                Context.MODE_PRIVATE);
+        String limitStr = prefs.getString(context.getString(R.string.pref_write_limit_key),
+                context.getString(R.string.pref_write_limit_def));
+
+        return Integer.valueOf(limitStr);
+    }
+
     public static boolean getPreferddSlashMM(Context context) {
         SharedPreferences prefs = context.getSharedPreferences(Constants.PREFS_NAME,
                 Context.MODE_PRIVATE);
@@ -70,4 +330,69 @@ public class PreferencesHelper {
                 Boolean.parseBoolean(context.getString(R.string.pref_prefer_dd_slash_mm_def)));
     }
 
+    /**
+     * Filter: Are events of eventType synced?
+     */
+    public static boolean getSyncEventType(Context context, int eventType) {
+        SharedPreferences prefs = context.getSharedPreferences(Constants.PREFS_NAME,
+                Context.MODE_PRIVATE);
+        String key = context.getString(R.string.pref_sync_event_type_key) + eventType;
+        return prefs.getBoolean(key,
+                Boolean.parseBoolean(context.getString(R.string.pref_sync_event_type_def)));
+    }
+
+    /**
+     * Filter: Are only events of starred contacts synced?
+     */
+    public static boolean getStarredOnly(Context context) {
+        SharedPreferences prefs = context.getSharedPreferences(Constants.PREFS_NAME,
+                Context.MODE_PRIVATE);
+        return prefs.getBoolean(context.getString(R.string.pref_starred_only_key),
+                Boolean.parseBoolean(context.getString(R.string.pref_starred_only_def)));
+    }
+
+    /**
+     * Filter: Ids of contact groups whose members are synced
+     * 
+     * @return empty set to sync all contacts
+     */
+    public static Set<String> getSyncedGroups(Context context) {
+        return getStringSet(context, R.string.pref_synced_groups_key);
+    }
+
+    /**
+     * Filter: Types of contacts accounts whose contacts are synced
+     * 
+     * @return empty set to sync all accounts
+     */
+    public static Set<String> getSyncedAccountTypes(Context context) {
+        return getStringSet(context, R.string.pref_synced_account_types_key);
+    }
+
+    /**
+     * String sets can only be stored on Android >= 3, older versions don't show these filters
+     */
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static Set<String> getStringSet(Context context, int keyResId) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+            return new HashSet<String>();
+        }
+
+        SharedPreferences prefs = context.getSharedPreferences(Constants.PREFS_NAME,
+                Context.MODE_PRIVATE);
+        return prefs.getStringSet(context.getString(keyResId), new HashSet<String>());
+    }
+
+    /**
+     * @return one of Constants.SHARDING_NONE, SHARDING_EVENT_TYPE, or SHARDING_ACCOUNT
+     */
+    public static int getSharding(Context context) {
+        SharedPreferences prefs = context.getSharedPreferences(Constants.PREFS_NAME,
+                Context.MODE_PRIVATE);
+        String shardingStr = prefs.getString(context.getString(R.string.pref_sharding_key),
+                context.getString(R.string.pref_sharding_def));
+
+        return Integer.valueOf(shardingStr);
+    }
+
 }
\ No newline at end of file
@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2012-2013 Dominik Schürmann <dominik@dominikschuermann.de>
+ *
+ * This file is part of Birthday Adapter.
+ * 
+ * Birthday Adapter is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Birthday Adapter is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Birthday Adapter.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.birthdayadapter.util;
+
+import android.os.SystemClock;
+
+/**
+ * Token bucket limiting the rate of operations. Up to one second of operations can be taken at
+ * once, afterwards acquire() waits until the bucket has been refilled.
+ */
+public class TokenBucket {
+    /* tokens per millisecond */
+    private final double mRate;
+    private final double mCapacity;
+
+    private double mTokens;
+    private long mLastRefill;
+
+    /**
+     * @param operationsPerSecond
+     *            must be greater than 0
+     */
+    public TokenBucket(int operationsPerSecond) {
+        mRate = operationsPerSecond / 1000.0;
+        mCapacity = operationsPerSecond;
+        mTokens = mCapacity;
+        mLastRefill = SystemClock.elapsedRealtime();
+    }
+
+    /**
+     * Takes count tokens and waits until the bucket is not in debt anymore. Counts larger than the
+     * capacity are fine, they just result in a longer wait.
+     * 
+     * @param count
+     * @return false if interrupted while waiting
+     */
+    public boolean acquire(int count) {
+        refill();
+        mTokens -= count;
+
+        if (mTokens < 0) {
+            try {
+                Thread.sleep((long) Math.ceil(-mTokens / mRate));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+            refill();
+        }
+
+        return true;
+    }
+
+    private void refill() {
+        long now = SystemClock.elapsedRealtime();
+        mTokens = Math.min(mCapacity, mTokens + (now - mLastRefill) * mRate);
+        mLastRefill = now;
+    }
+}